@@ -0,0 +1,65 @@
+package com.laetienda.myldap.jmh;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.laetienda.myldap.Authenticator;
+import com.laetienda.myldap.CredentialCache;
+import com.laetienda.myldap.LdapManager;
+
+/**
+ * Checking the password of a random user: a new connection bound as the user, a pooled connection bound again
+ * with {@link Authenticator}, and the same with a {@link CredentialCache} in front of it.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class AuthenticationBenchmark {
+
+	@Param({"false", "true"})
+	public boolean cached;
+
+	private Authenticator authenticator;
+
+	@Setup(Level.Trial)
+	public void start(DirectoryState directory) throws Exception {
+		authenticator = directory.manager.getAuthenticator("localhost", directory.directory.getPort(), EmbeddedDirectory.DOMAIN);
+		LdapManager.setCredentialCache(cached ? new CredentialCache(directory.users, 60000) : null);
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() {
+		LdapManager.setCredentialCache(null);
+	}
+
+	@Benchmark
+	public boolean newConnection(DirectoryState directory) throws Exception {
+		LdapConnection conn = new LdapNetworkConnection("localhost", directory.directory.getPort());
+
+		try {
+			conn.bind(new Dn(EmbeddedDirectory.userDn(ThreadLocalRandom.current().nextInt(directory.users))), EmbeddedDirectory.USER_PASSWORD);
+			return conn.isAuthenticated();
+		} finally {
+			conn.close();
+		}
+	}
+
+	@Benchmark
+	public boolean authenticate(DirectoryState directory) throws Exception {
+		return authenticator.authenticate(EmbeddedDirectory.uid(ThreadLocalRandom.current().nextInt(directory.users)), EmbeddedDirectory.USER_PASSWORD);
+	}
+}
@@ -0,0 +1,32 @@
+package com.laetienda.myldap.jmh;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once per thread count, by default 1, 4 and 16 threads.
+ * The thread counts can be changed with -Dmyldap.jmh.threads=1,8 and any other JMH option is passed on,
+ * for example a benchmark regex, -p users=1000 or -rf json.
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+
+		for(String threads : System.getProperty("myldap.jmh.threads", "1,4,16").split(",")) {
+			Options options = new OptionsBuilder()
+					.parent(commandLine)
+					.threads(Integer.parseInt(threads.trim()))
+					.forks(commandLine.getForkCount().orElse(1))
+					.warmupIterations(commandLine.getWarmupIterations().orElse(3))
+					.measurementIterations(commandLine.getMeasurementIterations().orElse(5))
+					.build();
+
+			new Runner(options).run();
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package com.laetienda.myldap.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+/**
+ * Cost of getting a bound connection from {@link com.laetienda.myldap.LdapManager} and giving it back.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConnectionBenchmark {
+
+	@Benchmark
+	public LdapConnection getLdapConnection(DirectoryState directory) throws Exception {
+		LdapConnection result = directory.connection();
+		directory.release(result);
+		return result;
+	}
+}
@@ -0,0 +1,38 @@
+package com.laetienda.myldap.jmh;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Connection held by one benchmark thread for a whole iteration, so only the measured operation is timed.
+ */
+@State(Scope.Thread)
+public class ConnectionState {
+
+	public LdapConnection conn;
+	private DirectoryState directory;
+
+	@Setup(Level.Iteration)
+	public void borrow(DirectoryState directory) throws Exception {
+		this.directory = directory;
+		conn = directory.connection();
+	}
+
+	@TearDown(Level.Iteration)
+	public void release() {
+		directory.release(conn);
+	}
+
+	/**
+	 * @return number of a random seeded user
+	 */
+	public int randomUser() {
+		return ThreadLocalRandom.current().nextInt(directory.users);
+	}
+}
@@ -0,0 +1,55 @@
+package com.laetienda.myldap.jmh;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.laetienda.myldap.LdapManager;
+import com.laetienda.myldap.LdapPoolConfig;
+
+/**
+ * Embedded directory shared by all the threads of a benchmark, seeded with {@link #users} people.
+ */
+@State(Scope.Benchmark)
+public class DirectoryState {
+
+	@Param({"100", "1000", "10000"})
+	public int users;
+
+	public EmbeddedDirectory directory;
+	public LdapManager manager;
+
+	@Setup(Level.Trial)
+	public void start() throws Exception {
+		directory = new EmbeddedDirectory(freePort()).start(users);
+		LdapManager.setPoolConfig(new LdapPoolConfig().setUseSsl(false).setMaxActive(64).setMaxIdle(64));
+		manager = new LdapManager();
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() throws Exception {
+		LdapManager.closePools();
+		directory.stop();
+	}
+
+	public LdapConnection connection() throws Exception {
+		return manager.getLdapConnection("localhost", directory.getPort(), EmbeddedDirectory.DOMAIN, EmbeddedDirectory.ADMIN, EmbeddedDirectory.PASSWORD);
+	}
+
+	public void release(LdapConnection conn) {
+		manager.closeLdapConnection(conn);
+	}
+
+	private static int freePort() throws IOException {
+		try(ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+}
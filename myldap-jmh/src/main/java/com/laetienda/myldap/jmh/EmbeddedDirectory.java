@@ -0,0 +1,140 @@
+package com.laetienda.myldap.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.factory.DefaultDirectoryServiceFactory;
+import org.apache.directory.server.core.factory.PartitionFactory;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.protocol.shared.transport.TcpTransport;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * In-process ApacheDS listening on plain ldap with a dc=example,dc=com partition seeded with
+ * ou=People, ou=groups, a number of users, a group with all of them as members and a group with only the first user.
+ */
+public class EmbeddedDirectory {
+	private static final Logger log = LogManager.getLogger(EmbeddedDirectory.class);
+
+	public static final String DOMAIN = "dc=example,dc=com";
+	public static final String ADMIN = "uid=admin,ou=system";
+	public static final String PASSWORD = "secret";
+	/** Password of every seeded user */
+	public static final String USER_PASSWORD = "Welcome1";
+	public static final String GROUP = "Benchmark Group";
+	public static final String SMALL_GROUP = "Benchmark Small Group";
+
+	private final int port;
+	private DirectoryService service;
+	private LdapServer server;
+	private Path workDir;
+
+	public EmbeddedDirectory(int port) {
+		this.port = port;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public EmbeddedDirectory start(int users) throws Exception {
+		log.info("Starting embedded directory. $port: {} - $users: {}", port, users);
+
+		workDir = Files.createTempDirectory("myldap-jmh");
+		DefaultDirectoryServiceFactory factory = new DefaultDirectoryServiceFactory();
+		System.setProperty("workingDirectory", workDir.toString());
+		factory.init("myldap-jmh");
+
+		service = factory.getDirectoryService();
+		service.getChangeLog().setEnabled(false);
+		service.setShutdownHookEnabled(false);
+
+		PartitionFactory partitionFactory = factory.getPartitionFactory();
+		Partition partition = partitionFactory.createPartition(service.getSchemaManager(), service.getDnFactory(),
+				"example", DOMAIN, 1000, new File(service.getInstanceLayout().getPartitionsDirectory(), "example"));
+		partitionFactory.addIndex(partition, "uid", 100);
+		partitionFactory.addIndex(partition, "mail", 100);
+		partitionFactory.addIndex(partition, "uniqueMember", 100);
+		service.addPartition(partition);
+
+		seed(users);
+
+		server = new LdapServer();
+		server.setDirectoryService(service);
+		server.setTransports(new TcpTransport(port));
+		server.start();
+
+		log.info("... embedded directory started succesfully");
+		return this;
+	}
+
+	private void seed(int users) throws Exception {
+		CoreSession session = service.getAdminSession();
+
+		session.add(new DefaultEntry(service.getSchemaManager(), DOMAIN,
+				"objectClass: top", "objectClass: domain", "dc: example"));
+		session.add(new DefaultEntry(service.getSchemaManager(), "ou=People," + DOMAIN,
+				"objectClass: top", "objectClass: organizationalUnit", "ou: People"));
+		session.add(new DefaultEntry(service.getSchemaManager(), "ou=groups," + DOMAIN,
+				"objectClass: top", "objectClass: organizationalUnit", "ou: groups"));
+
+		Entry group = new DefaultEntry(service.getSchemaManager(), new Dn("cn=" + GROUP + ",ou=groups," + DOMAIN));
+		group.add("objectClass", "top", "groupOfUniqueNames");
+		group.add("cn", GROUP);
+
+		for(int c = 0; c < users; c++) {
+			String dn = userDn(c);
+			session.add(new DefaultEntry(service.getSchemaManager(), dn,
+					"objectClass: top", "objectClass: person", "objectClass: inetOrgPerson",
+					"uid: " + uid(c), "cn: User", "sn: Number " + c, "ou: People",
+					"mail: " + uid(c) + "@example.com", "description: Seeded user", "userPassword: " + USER_PASSWORD));
+			group.add("uniqueMember", dn);
+		}
+
+		session.add(group);
+		session.add(new DefaultEntry(service.getSchemaManager(), "cn=" + SMALL_GROUP + ",ou=groups," + DOMAIN,
+				"objectClass: top", "objectClass: groupOfUniqueNames", "cn: " + SMALL_GROUP, "uniqueMember: " + userDn(0)));
+	}
+
+	public static String uid(int number) {
+		return "user" + number;
+	}
+
+	public static String userDn(int number) {
+		return "uid=" + uid(number) + ",ou=People," + DOMAIN;
+	}
+
+	public void stop() throws Exception {
+		log.info("Stopping embedded directory...");
+
+		if(server != null) {
+			server.stop();
+		}
+
+		if(service != null) {
+			service.shutdown();
+		}
+
+		delete(workDir);
+		log.info("... embedded directory stopped succesfully");
+	}
+
+	private void delete(Path dir) throws IOException {
+		if(dir != null && Files.exists(dir)) {
+			try(Stream<Path> paths = Files.walk(dir)) {
+				paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+			}
+		}
+	}
+}
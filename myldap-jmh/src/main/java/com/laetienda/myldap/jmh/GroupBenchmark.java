@@ -0,0 +1,72 @@
+package com.laetienda.myldap.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.laetienda.myldap.Group;
+import com.laetienda.myldap.User;
+import com.laetienda.myldap.UserView;
+
+/**
+ * Resolving the members of a group with every seeded user, as User and as UserView, and adding members to a group with one member.
+ * addMember only prepares the modification, it is discarded so the group does not grow between invocations.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class GroupBenchmark {
+
+	private Group group;
+	private Group smallGroup;
+	private List<Dn> hundredUsers;
+
+	@Setup(Level.Iteration)
+	public void readGroups(ConnectionState state, DirectoryState directory) throws Exception {
+		group = new Group(EmbeddedDirectory.GROUP, state.conn);
+		smallGroup = new Group(EmbeddedDirectory.SMALL_GROUP, state.conn);
+		hundredUsers = new ArrayList<Dn>();
+		for(int c = 1; c <= 100; c++) {
+			hundredUsers.add(new Dn(EmbeddedDirectory.userDn(c % directory.users)));
+		}
+	}
+
+	@Benchmark
+	public List<User> getMembers(ConnectionState state) throws Exception {
+		return group.getMembers(state.conn);
+	}
+
+	@Benchmark
+	public List<UserView> getMemberViews(ConnectionState state) throws Exception {
+		return group.getMemberViews(state.conn);
+	}
+
+	@Benchmark
+	public Group addMember(ConnectionState state) throws Exception {
+		int user = Math.max(1, state.randomUser());
+		smallGroup.addMember(new Dn(EmbeddedDirectory.userDn(user)), state.conn);
+		smallGroup.clearModifications();
+		return smallGroup;
+	}
+
+	/**
+	 * Prepares the addition of 100 members at once, compare it with 100 times addMember.
+	 */
+	@Benchmark
+	public Group addMembers(ConnectionState state) throws Exception {
+		smallGroup.addMembers(hundredUsers, state.conn);
+		smallGroup.clearModifications();
+		smallGroup.getErrors().clear();
+		return smallGroup;
+	}
+}
@@ -0,0 +1,79 @@
+package com.laetienda.myldap.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.laetienda.myldap.Group;
+import com.laetienda.myldap.Ldap;
+import com.laetienda.myldap.User;
+
+/**
+ * Allocations of the hot paths at the shipped log level (info) and with debug enabled.
+ * Run it with the gc profiler and compare gc.alloc.rate.norm between the two levels:
+ * <pre>java -jar target/benchmarks.jar LoggingBenchmark -prof gc</pre>
+ * The difference is what logging allocates per operation, at info it must be 0.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class LoggingBenchmark {
+
+	@Param({"INFO", "DEBUG"})
+	public String level;
+
+	private final Ldap ldap = new Ldap();
+	private Group smallGroup;
+	private User user;
+	private Dn member;
+	private long counter;
+
+	@Setup(Level.Iteration)
+	public void setLevel(ConnectionState state) throws Exception {
+		Configurator.setLevel("com.laetienda.myldap", org.apache.logging.log4j.Level.toLevel(level));
+		Configurator.setLevel("com.laetienda.myldap.jmh", org.apache.logging.log4j.Level.INFO);
+		smallGroup = new Group(EmbeddedDirectory.SMALL_GROUP, state.conn);
+		user = new User(EmbeddedDirectory.uid(state.randomUser()), state.conn);
+		member = new Dn(EmbeddedDirectory.userDn(1));
+	}
+
+	@TearDown(Level.Iteration)
+	public void resetLevel() {
+		Configurator.setLevel("com.laetienda.myldap", org.apache.logging.log4j.Level.WARN);
+	}
+
+	@Benchmark
+	public void getLdapConnection(DirectoryState directory) throws Exception {
+		directory.release(directory.connection());
+	}
+
+	@Benchmark
+	public Dn buildDn() throws Exception {
+		return ldap.buildDn(EmbeddedDirectory.userDn(0));
+	}
+
+	@Benchmark
+	public Group addMember(ConnectionState state) {
+		smallGroup.addMember(member, state.conn);
+		smallGroup.clearModifications();
+		return smallGroup;
+	}
+
+	@Benchmark
+	public User modify(ConnectionState state) throws Exception {
+		user.setDescription("Description " + counter++);
+		ldap.modify(user, state.conn);
+		return user;
+	}
+}
@@ -0,0 +1,49 @@
+package com.laetienda.myldap.jmh;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.laetienda.myldap.Ldap;
+import com.laetienda.myldap.LdapManager;
+import com.laetienda.myldap.MembershipIndex;
+
+/**
+ * Groups of a user, with a (uniqueMember=dn) search every time or through the membership index.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class MembershipBenchmark {
+
+	@Param({"false", "true"})
+	public boolean index;
+
+	private final Ldap ldap = new Ldap();
+
+	@Setup(Level.Trial)
+	public void enableIndex() {
+		LdapManager.setMembershipIndex(index ? new MembershipIndex(100000, 60000) : null);
+	}
+
+	@TearDown(Level.Trial)
+	public void disableIndex() {
+		LdapManager.setMembershipIndex(null);
+	}
+
+	@Benchmark
+	public Collection<Dn> findGroupDns(ConnectionState state) throws Exception {
+		return ldap.findGroupDns(new Dn(EmbeddedDirectory.userDn(state.randomUser())), state.conn);
+	}
+}
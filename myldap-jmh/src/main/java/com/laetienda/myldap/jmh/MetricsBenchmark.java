@@ -0,0 +1,64 @@
+package com.laetienda.myldap.jmh;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.laetienda.myldap.DefaultLdapMetrics;
+import com.laetienda.myldap.LdapManager;
+import com.laetienda.myldap.LdapOperation;
+
+/**
+ * Overhead of the metrics: the same lookup with metrics disabled and enabled, and the cost of recording one value.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class MetricsBenchmark {
+
+	@Param({"false", "true"})
+	public boolean metrics;
+
+	private final DefaultLdapMetrics defaultMetrics = new DefaultLdapMetrics();
+	private LdapConnection conn;
+	private DirectoryState directory;
+
+	@Setup(Level.Iteration)
+	public void borrow(DirectoryState directory) throws Exception {
+		this.directory = directory;
+		LdapManager.setMetrics(metrics ? defaultMetrics : null);
+		conn = directory.connection();
+	}
+
+	@TearDown(Level.Iteration)
+	public void release() {
+		directory.release(conn);
+		LdapManager.setMetrics(null);
+	}
+
+	@Benchmark
+	public Entry lookup() throws Exception {
+		int user = ThreadLocalRandom.current().nextInt(directory.users);
+		return conn.lookup(new Dn(EmbeddedDirectory.userDn(user)));
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public DefaultLdapMetrics record() {
+		defaultMetrics.record(LdapOperation.LOOKUP, ThreadLocalRandom.current().nextLong(1000000), false);
+		return defaultMetrics;
+	}
+}
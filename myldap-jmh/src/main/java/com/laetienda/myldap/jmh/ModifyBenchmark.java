@@ -0,0 +1,40 @@
+package com.laetienda.myldap.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.laetienda.myldap.Ldap;
+import com.laetienda.myldap.User;
+
+/**
+ * Replacing the description of a user, each thread modifies its own user.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class ModifyBenchmark {
+
+	private final Ldap ldap = new Ldap();
+	private User user;
+	private long counter;
+
+	@Setup(Level.Iteration)
+	public void readUser(ConnectionState state) throws Exception {
+		user = new User(EmbeddedDirectory.uid(state.randomUser()), state.conn);
+	}
+
+	@Benchmark
+	public User modify(ConnectionState state) throws Exception {
+		user.setDescription("Description " + counter++);
+		ldap.modify(user, state.conn);
+		return user;
+	}
+}
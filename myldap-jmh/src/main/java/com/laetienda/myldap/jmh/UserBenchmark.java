@@ -0,0 +1,61 @@
+package com.laetienda.myldap.jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.laetienda.myldap.Ldap;
+import com.laetienda.myldap.User;
+
+/**
+ * Reading users and building User objects, from an entry, from a username and for a new registration.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class UserBenchmark {
+
+	private static final AtomicLong registrations = new AtomicLong();
+
+	private final Ldap ldap = new Ldap();
+	private Entry entry;
+
+	@Setup(Level.Iteration)
+	public void readEntry(ConnectionState state) throws Exception {
+		entry = state.conn.lookup(new Dn(EmbeddedDirectory.userDn(0)));
+	}
+
+	@Benchmark
+	public User findUser(ConnectionState state) throws Exception {
+		return ldap.findUser(new Dn(EmbeddedDirectory.userDn(state.randomUser())), state.conn);
+	}
+
+	@Benchmark
+	public User userFromEntry() throws Exception {
+		return new User(entry);
+	}
+
+	@Benchmark
+	public User userFromUsername(ConnectionState state) throws Exception {
+		return new User(EmbeddedDirectory.uid(state.randomUser()), state.conn);
+	}
+
+	/**
+	 * Registration of a user that does not exist, the entry is built and checked but not added.
+	 */
+	@Benchmark
+	public User register(ConnectionState state) throws Exception {
+		String uid = "new" + registrations.incrementAndGet();
+		return new User(uid, "New", "User", uid + "@example.com", state.conn);
+	}
+}
@@ -0,0 +1,105 @@
+package com.laetienda.myldap.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.laetienda.myldap.Ldap;
+import com.laetienda.myldap.LdapPool;
+import com.laetienda.myldap.LdapPoolConfig;
+
+/**
+ * Time to serve {@link #requests} concurrent requests, each one borrowing a connection and looking up a user,
+ * on a fixed pool of 200 platform threads, like a servlet container, or on one virtual thread per request.
+ * Both share a pool of 64 connections, so most requests wait for one.
+ * <p>
+ * The virtual case needs Java 21 or later, on older runtimes it fails in setup. Run it with
+ * -Djdk.tracePinnedThreads=short to check no request pins its carrier thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class VirtualThreadBenchmark {
+
+	private static final int PLATFORM_THREADS = 200;
+	private static final int CONNECTIONS = 64;
+
+	@Param({"platform", "virtual"})
+	public String threads;
+
+	@Param({"10000"})
+	public int requests;
+
+	private final Ldap ldap = new Ldap();
+	private LdapPool pool;
+	private ExecutorService executor;
+
+	@Setup(Level.Trial)
+	public void start(DirectoryState directory) throws Exception {
+		LdapPoolConfig config = new LdapPoolConfig().setUseSsl(false).setMaxActive(CONNECTIONS).setMaxIdle(CONNECTIONS)
+				.setMaxWaitMillis(-1).setVirtualThreads("virtual".equals(threads));
+		pool = new LdapPool("virtual-thread-benchmark", LdapPool.connectionConfig("localhost", directory.directory.getPort(),
+				EmbeddedDirectory.ADMIN, EmbeddedDirectory.PASSWORD, config), config);
+		executor = "virtual".equals(threads) ? virtualExecutor() : Executors.newFixedThreadPool(PLATFORM_THREADS);
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() throws Exception {
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+		pool.close();
+	}
+
+	@Benchmark
+	public int lookupUsers(DirectoryState directory) throws Exception {
+		List<Future<Entry>> futures = new ArrayList<Future<Entry>>(requests);
+
+		for(int c = 0; c < requests; c++) {
+			Dn dn = new Dn(EmbeddedDirectory.userDn(ThreadLocalRandom.current().nextInt(directory.users)));
+
+			futures.add(executor.submit(() -> {
+				LdapConnection conn = pool.borrow();
+				try {
+					return ldap.lookup(dn, conn);
+				} finally {
+					pool.release(conn);
+				}
+			}));
+		}
+
+		int result = 0;
+		for(Future<Entry> future : futures) {
+			if(future.get() != null) {
+				result++;
+			}
+		}
+
+		return result;
+	}
+
+	private static ExecutorService virtualExecutor() {
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Virtual threads need Java 21 or later", e);
+		}
+	}
+}
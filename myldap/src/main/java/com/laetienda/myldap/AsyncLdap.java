@@ -0,0 +1,568 @@
+package com.laetienda.myldap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.message.DeleteRequestImpl;
+import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.ModifyRequestImpl;
+import org.apache.directory.api.ldap.model.message.Response;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.ResultResponse;
+import org.apache.directory.api.ldap.model.message.SearchResultEntry;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapAsyncConnection;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.future.ResponseFuture;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Asynchronous facade of {@link Ldap}, {@link User} and {@link Group}. Lookups, searches, adds, modifications and deletes are
+ * sent with the asynchronous operations of the connection ({@link LdapAsyncConnection#searchAsync}, addAsync, modifyAsync and
+ * deleteAsync) on a connection leased with {@link LdapManager#getLdapConnection(LdapPool)}. No thread waits for them: one
+ * dispatcher thread, started while operations are outstanding, reads the responses, gives the connection back to the pool
+ * and completes the returned future on the executor. Lookups can be composed, e.g. a user and its groups in parallel
+ * with {@link CompletableFuture#thenCombine}.
+ * <p>
+ * {@link #getMembers(Group)}, {@link #getMemberViews(Group)} and {@link #call(LdapCall)} have no asynchronous form,
+ * they run the blocking call on the executor holding one of its threads and a connection until it returns.
+ * <p>
+ * The calling thread waits only when the pool has no idle connection. Entries found in the caches are answered
+ * without a connection, see {@link LdapManager#setEntryCache(EntryCache)} and {@link LdapManager#setNegativeCache(NegativeCache)}.
+ * Operations not answered within the timeout of the connection are abandoned.
+ * <p>
+ * Failed futures complete with the LdapException of the operation. Entities are not thread safe,
+ * don't change one while an operation on it is running.
+ */
+public class AsyncLdap {
+	private static final Logger log = LogManager.getLogger(AsyncLdap.class);
+	private static final long POLL_MILLIS = 10;
+
+	private final Ldap ldap = new Ldap();
+	private final LdapManager manager = new LdapManager();
+	private final LdapPool pool;
+	private final Executor executor;
+	private final List<Pending<?>> pending = new ArrayList<Pending<?>>();
+	private Thread dispatcher;
+
+	/**
+	 * @param pool LdapPool the connections are borrowed from, see {@link LdapManager#getLdapPool(String, int, Dn, Dn, String)}
+	 * @param executor Executor that completes the futures and runs the operations without asynchronous form
+	 */
+	public AsyncLdap(LdapPool pool, Executor executor) {
+		this.pool = pool;
+		this.executor = executor;
+	}
+
+	public LdapPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * @param username uid of the user
+	 * @return User, completes with null if it does not exist
+	 */
+	public CompletableFuture<User> findUser(String username) {
+		try {
+			return findUser(LdapManager.getDnFactory().user(username));
+		} catch (LdapException e) {
+			return failed(e);
+		}
+	}
+
+	/**
+	 * @param dn Dn of the user
+	 * @return User, completes with null if it does not exist
+	 */
+	public CompletableFuture<User> findUser(Dn dn) {
+		return lookup(dn, User::new);
+	}
+
+	/**
+	 * @param dn Dn of the group
+	 * @return Group, completes with null if it does not exist
+	 */
+	public CompletableFuture<Group> findGroup(Dn dn) {
+		return lookup(dn, Group::new);
+	}
+
+	/**
+	 * Same as {@link Ldap#findGroupDns(Dn, LdapConnection)}, but the search is not paged.
+	 * @param member Dn of a user or a group
+	 * @return Dn of the groups that list member as a direct member, do not modify the collection
+	 */
+	public CompletableFuture<Collection<Dn>> findGroupDns(Dn member) {
+		MembershipIndex index = LdapManager.getMembershipIndex();
+		Collection<Dn> known = index == null ? null : index.get(member);
+
+		if(known != null) {
+			return CompletableFuture.completedFuture(known);
+		}
+
+		return send(LdapOperation.SEARCH,
+				conn -> conn.searchAsync(ldap.searchRequest(LdapManager.getDirectoryBase().getGroupsDn(), ldap.memberFilter(member), SearchScope.ONELEVEL, "1.1")),
+				(done, entries) -> {
+					ResultCodeEnum.processResponse(done);
+					List<Dn> temp = new ArrayList<Dn>();
+
+					for(Entry entry : entries) {
+						temp.add(entry.getDn());
+					}
+
+					Collection<Dn> result = Collections.unmodifiableList(temp);
+
+					if(index != null) {
+						index.put(member, result);
+					}
+
+					return result;
+				});
+	}
+
+	/**
+	 * @param member Dn of a user or a group
+	 * @param group Dn of the group
+	 * @return true if member is a direct member of group
+	 */
+	public CompletableFuture<Boolean> isMember(Dn member, Dn group) {
+		MembershipIndex index = LdapManager.getMembershipIndex();
+		Boolean known = index == null ? null : index.isMember(member, group);
+
+		if(known != null) {
+			return CompletableFuture.completedFuture(known);
+		}
+
+		String key = Ldap.normalize(group);
+		return findGroupDns(member).thenApply(groups -> groups.stream().anyMatch(dn -> Ldap.normalize(dn).equals(key)));
+	}
+
+	/**
+	 * @param ldapEntity entity to add, nothing is sent if it has errors
+	 * @return completes when the entry is added
+	 */
+	public CompletableFuture<Void> insertLdapEntity(LdapEntity ldapEntity) {
+		if(ldapEntity.getErrors().size() > 0) {
+			log.warn("LdapEntity was not added. User input not valid");
+			return CompletableFuture.completedFuture(null);
+		}
+
+		Entry entry = ldapEntity.getLdapEntry();
+		ldap.added(entry);
+
+		return send(LdapOperation.ADD, conn -> conn.addAsync(entry), (done, entries) -> {
+			ResultCodeEnum.processResponse(done);
+			ldap.invalidate(entry.getDn());
+
+			MembershipIndex index = LdapManager.getMembershipIndex();
+			if(index != null) {
+				index.groupAdded(entry);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Sends the modifications of the entity in one modify request, see {@link Ldap#modify(LdapEntity, LdapConnection)}.
+	 * @param ldapEntity entity with pending modifications, nothing is sent if it has errors
+	 * @return completes when the modifications are applied
+	 */
+	public CompletableFuture<Void> modify(LdapEntity ldapEntity) {
+		if(ldapEntity.getErrors().size() > 0) {
+			log.warn("Failed to modify LdapEntity due to invalid user input");
+			return CompletableFuture.completedFuture(null);
+		}
+
+		Dn dn = ldapEntity.getLdapEntry().getDn();
+		List<Modification> modifications = ModificationCoalescer.coalesce(ldapEntity.getModifications());
+
+		if(modifications.isEmpty()) {
+			ldapEntity.clearModifications();
+			ldap.invalidate(dn);
+			return CompletableFuture.completedFuture(null);
+		}
+
+		ModifyRequest request = new ModifyRequestImpl();
+		request.setName(dn);
+
+		for(Modification modification : modifications) {
+			request.addModification(modification);
+		}
+
+		ldap.modifying(dn, modifications);
+
+		return send(LdapOperation.MODIFY, conn -> conn.modifyAsync(request), (done, entries) -> {
+			ldap.invalidate(dn);
+			ResultCodeEnum.processResponse(done);
+			ldap.modified(dn, modifications);
+			ldapEntity.clearModifications();
+			return null;
+		});
+	}
+
+	/**
+	 * @param ldapEntity entity to remove
+	 * @return completes when the entry is removed
+	 */
+	public CompletableFuture<Void> delete(LdapEntity ldapEntity) {
+		Dn dn = ldapEntity.getLdapEntry().getDn();
+
+		return send(LdapOperation.DELETE, conn -> conn.deleteAsync(new DeleteRequestImpl().setName(dn)), (done, entries) -> {
+			ResultCodeEnum.processResponse(done);
+			ldap.invalidate(dn);
+
+			MembershipIndex index = LdapManager.getMembershipIndex();
+			if(index != null) {
+				index.invalidate(dn);
+				index.groupDeleted(dn);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Runs on the executor, resolving the members takes several searches.
+	 * @param group Group
+	 * @return members of the group, see {@link Group#getMembers(LdapConnection)}
+	 */
+	public CompletableFuture<List<User>> getMembers(Group group) {
+		return call(conn -> group.getMembers(conn));
+	}
+
+	/**
+	 * Runs on the executor, resolving the members takes several searches.
+	 * @param group Group
+	 * @return members of the group as read only views, see {@link Group#getMemberViews(LdapConnection)}
+	 */
+	public CompletableFuture<List<UserView>> getMemberViews(Group group) {
+		return call(conn -> group.getMemberViews(conn));
+	}
+
+	/**
+	 * Runs any blocking operation on a pooled connection on the executor. The connection is released when the operation
+	 * returns, don't keep it or anything that reads from it, like a cursor.
+	 * @param operation LdapCall
+	 * @return result of the operation
+	 */
+	public <T> CompletableFuture<T> call(LdapCall<T> operation) {
+		CompletableFuture<T> result = new CompletableFuture<T>();
+
+		try {
+			executor.execute(() -> complete(operation, result));
+		} catch (RuntimeException e) {
+			log.warn("Failed to schedule ldap operation. $error: {}", e.getMessage());
+			result.completeExceptionally(e);
+		}
+
+		return result;
+	}
+
+	private <T> void complete(LdapCall<T> operation, CompletableFuture<T> result) {
+		if(result.isDone()) {
+			return;
+		}
+
+		LdapConnection conn = null;
+		T value = null;
+		Throwable error = null;
+
+		try {
+			conn = manager.getLdapConnection(pool);
+			value = operation.call(conn);
+		} catch (LdapRuntimeException e) {
+			error = e.getCause();
+		} catch (Exception e) {
+			log.debug("Asynchronous ldap operation failed. $error: {}", e.getMessage());
+			error = e;
+		} finally {
+			manager.closeLdapConnection(conn);
+		}
+
+		// Completed once the connection is back in the pool, so what runs next can borrow it
+		if(error == null) {
+			result.complete(value);
+		}else {
+			result.completeExceptionally(error);
+		}
+	}
+
+	/**
+	 * Same as {@link Ldap#lookup(Dn, LdapConnection)}: the caches are read first, the entry is looked up with a base search.
+	 */
+	private <T> CompletableFuture<T> lookup(Dn dn, EntryReader<T> reader) {
+		EntryCache cache = LdapManager.getEntryCache();
+		NegativeCache negative = LdapManager.getNegativeCache();
+		// Connections leased from the pool are cached under the name of the pool, see LdapManager#scope
+		String scope = cache == null ? null : pool.getName();
+
+		try {
+			Entry cached = scope == null ? null : cache.get(scope, dn);
+
+			if(cached != null) {
+				return CompletableFuture.completedFuture(reader.read(cached));
+			}
+		} catch (LdapException e) {
+			return failed(e);
+		}
+
+		if(negative != null && negative.isMissing(dn)) {
+			return CompletableFuture.completedFuture(null);
+		}
+
+		long version = scope == null ? 0 : cache.stamp();
+		long stamp = negative == null ? 0 : negative.stamp();
+
+		return send(LdapOperation.LOOKUP, conn -> conn.searchAsync(ldap.searchRequest(dn, "(objectClass=*)", SearchScope.OBJECT)), (done, entries) -> {
+			if(done.getLdapResult().getResultCode() != ResultCodeEnum.NO_SUCH_OBJECT) {
+				ResultCodeEnum.processResponse(done);
+			}
+
+			Entry result = entries.isEmpty() ? null : entries.get(0);
+
+			if(result == null) {
+				if(negative != null) {
+					negative.missing(dn, stamp);
+				}
+				return null;
+			}
+
+			if(scope != null) {
+				cache.put(scope, dn, result, version);
+			}
+
+			return reader.read(result);
+		});
+	}
+
+	/**
+	 * Leases a connection and sends one asynchronous request on it. The dispatcher releases the connection
+	 * when the request is answered.
+	 */
+	private <T> CompletableFuture<T> send(LdapOperation operation, Sender sender, Answer<T> answer) {
+		CompletableFuture<T> result = new CompletableFuture<T>();
+		LdapConnection conn = null;
+
+		try {
+			conn = manager.getLdapConnection(pool);
+			LdapAsyncConnection async = LdapManager.toAsync(conn);
+			long sent = System.nanoTime();
+			Pending<T> item = new Pending<T>(conn, sender.send(async), operation, sent, async.getConfig().getTimeout(), answer, result);
+
+			synchronized(pending) {
+				pending.add(item);
+
+				if(dispatcher == null) {
+					dispatcher = new Thread(this::dispatch, "myldap-async-dispatcher");
+					dispatcher.setDaemon(true);
+					dispatcher.start();
+				}
+			}
+		} catch (LdapException | RuntimeException e) {
+			log.debug("Failed to send asynchronous ldap operation. $operation: {} - $error: {}", operation, e.getMessage());
+			manager.closeLdapConnection(conn);
+			result.completeExceptionally(e);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Reads the responses of the outstanding operations until there is none. Response futures have no callbacks,
+	 * so they are polled; when none has answered it waits on the oldest one for at most {@link #POLL_MILLIS}.
+	 */
+	private void dispatch() {
+		try {
+			while(true) {
+				List<Pending<?>> items;
+
+				synchronized(pending) {
+					if(pending.isEmpty()) {
+						dispatcher = null;
+						return;
+					}
+					items = new ArrayList<Pending<?>>(pending);
+				}
+
+				boolean answered = false;
+				for(Pending<?> item : items) {
+					answered |= poll(item, 0);
+				}
+
+				if(!answered) {
+					poll(items.get(0), POLL_MILLIS);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			abandon(new LdapOtherException("Asynchronous ldap operation interrupted"));
+		} catch (RuntimeException | Error e) {
+			log.error("Asynchronous ldap dispatcher failed. $error: {}", e.toString());
+			abandon(e);
+		}
+	}
+
+	/**
+	 * @return true if a response was read
+	 */
+	private boolean poll(Pending<?> item, long waitMillis) throws InterruptedException {
+		Response response = item.future.get(waitMillis, TimeUnit.MILLISECONDS);
+		boolean result = response != null;
+
+		while(response != null) {
+			if(item.received(response)) {
+				remove(item);
+				return true;
+			}
+			response = item.future.get(0, TimeUnit.MILLISECONDS);
+		}
+
+		if(System.nanoTime() - item.sent > item.timeoutNanos) {
+			log.warn("No response from ldap server. $operation: {}", item.operation);
+			item.future.cancel(true);
+			remove(item);
+			item.finish(null, new LdapOtherException("No response from ldap server"));
+			return true;
+		}
+
+		return result;
+	}
+
+	private void remove(Pending<?> item) {
+		synchronized(pending) {
+			pending.remove(item);
+		}
+	}
+
+	private void abandon(Throwable error) {
+		List<Pending<?>> items;
+
+		synchronized(pending) {
+			items = new ArrayList<Pending<?>>(pending);
+			pending.clear();
+			dispatcher = null;
+		}
+
+		for(Pending<?> item : items) {
+			item.future.cancel(true);
+			item.finish(null, error);
+		}
+	}
+
+	/**
+	 * Completes on the executor, so what depends on the future does not run on the dispatcher thread.
+	 */
+	private <T> void complete(CompletableFuture<T> result, T value, Throwable error) {
+		Runnable completion = () -> {
+			if(error == null) {
+				result.complete(value);
+			}else {
+				result.completeExceptionally(error);
+			}
+		};
+
+		try {
+			executor.execute(completion);
+		} catch (RejectedExecutionException e) {
+			completion.run();
+		}
+	}
+
+	private static <T> CompletableFuture<T> failed(Throwable error) {
+		CompletableFuture<T> result = new CompletableFuture<T>();
+		result.completeExceptionally(error);
+		return result;
+	}
+
+	/**
+	 * Request sent and not answered yet.
+	 */
+	private final class Pending<T> {
+		private final LdapConnection conn;
+		private final ResponseFuture<? extends Response> future;
+		private final LdapOperation operation;
+		private final long sent;
+		private final long timeoutNanos;
+		private final Answer<T> answer;
+		private final CompletableFuture<T> result;
+		private final List<Entry> entries = new ArrayList<Entry>();
+
+		private Pending(LdapConnection conn, ResponseFuture<? extends Response> future, LdapOperation operation, long sent, long timeoutMillis, Answer<T> answer, CompletableFuture<T> result) {
+			this.conn = conn;
+			this.future = future;
+			this.operation = operation;
+			this.sent = sent;
+			this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+			this.answer = answer;
+			this.result = result;
+		}
+
+		/**
+		 * @return true when the response ends the operation
+		 */
+		private boolean received(Response response) {
+			if(response instanceof SearchResultEntry) {
+				entries.add(((SearchResultEntry)response).getEntry());
+				return false;
+			}
+
+			if(!(response instanceof ResultResponse)) {
+				return false;
+			}
+
+			ResultResponse done = (ResultResponse)response;
+			LdapManager.record(operation, sent, done.getLdapResult().getResultCode() != ResultCodeEnum.SUCCESS);
+			T value = null;
+			Throwable error = null;
+
+			try {
+				value = answer.answered(done, entries);
+			} catch (LdapException | RuntimeException e) {
+				log.debug("Asynchronous ldap operation failed. $operation: {} - $error: {}", operation, e.getMessage());
+				error = e;
+			}
+
+			finish(value, error);
+			return true;
+		}
+
+		private void finish(T value, Throwable error) {
+			// Completed once the connection is back in the pool, so what runs next can borrow it
+			manager.closeLdapConnection(conn);
+			complete(result, value, error);
+		}
+	}
+
+	/**
+	 * Operation run by {@link AsyncLdap#call(LdapCall)}.
+	 */
+	@FunctionalInterface
+	public interface LdapCall<T> {
+		T call(LdapConnection conn) throws Exception;
+	}
+
+	@FunctionalInterface
+	private interface Sender {
+		ResponseFuture<? extends Response> send(LdapAsyncConnection conn) throws LdapException;
+	}
+
+	@FunctionalInterface
+	private interface Answer<T> {
+		T answered(ResultResponse done, List<Entry> entries) throws LdapException;
+	}
+
+	@FunctionalInterface
+	private interface EntryReader<T> {
+		T read(Entry entry) throws LdapException;
+	}
+}
@@ -0,0 +1,123 @@
+package com.laetienda.myldap;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.exception.LdapAuthenticationException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Checks user passwords with a bind on a connection borrowed from a bind only pool, see {@link LdapManager#getAuthenticator(String, int, String)}.
+ * The connection is bound again as the user, nothing is looked up and no connection is opened while the pool has idle ones.
+ * <p>
+ * With a {@link CredentialCache} the passwords the server accepted are verified locally until they expire.
+ * A {@link NegativeCache} never rejects a login, it misses users added by other clients until it is rebuilt,
+ * so the server is always asked and a user it accepts is made known to the cache.
+ */
+public class Authenticator {
+	private static final Logger log = LogManager.getLogger(Authenticator.class);
+
+	private final LdapPool pool;
+
+	/**
+	 * @param pool bind only pool, see {@link LdapPool#isBindOnly()}
+	 */
+	public Authenticator(LdapPool pool) {
+		if(!pool.isBindOnly()) {
+			throw new IllegalArgumentException("Authenticator needs a bind only pool. $pool: " + pool.getName());
+		}
+		this.pool = pool;
+	}
+
+	public LdapPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * @param uid username
+	 * @param password password
+	 * @return true if the password of the user is right
+	 * @throws LdapException if the server can't be asked
+	 */
+	public boolean authenticate(String uid, String password) throws LdapException {
+		Dn user;
+
+		try {
+			user = LdapManager.getDnFactory().user(uid);
+		} catch (LdapInvalidDnException e) {
+			log.debug("Invalid username. $uid: {}", uid);
+			return false;
+		}
+
+		return authenticate(user, password);
+	}
+
+	/**
+	 * An empty password is rejected without asking the server, a bind with it would be an unauthenticated bind that always succeeds.
+	 * @param user Dn of the user
+	 * @param password password
+	 * @return true if the password of the user is right
+	 * @throws LdapException if the server can't be asked
+	 */
+	public boolean authenticate(Dn user, String password) throws LdapException {
+		log.debug("Authenticating user. $user: {}", user);
+
+		if(password == null || password.isEmpty()) {
+			return false;
+		}
+
+		CredentialCache credentials = LdapManager.getCredentialCache();
+		NegativeCache negative = LdapManager.getNegativeCache();
+
+		if(credentials != null && credentials.verify(user, password)) {
+			return true;
+		}
+
+		boolean missing = negative != null && negative.isMissing(user);
+		boolean result = bind(user, password);
+
+		if(result && credentials != null) {
+			credentials.put(user, password);
+		}
+
+		if(result && missing) {
+			log.debug("User was cached as missing. $user: {}", user);
+			negative.added(new DefaultEntry(user));
+		}
+
+		log.debug("... user authenticated. $user: {} - $authenticated: {}", user, result);
+		return result;
+	}
+
+	private boolean bind(Dn user, String password) throws LdapException {
+		LdapConnection conn = pool.borrow();
+		long start = System.nanoTime();
+		boolean result = false;
+		boolean broken = true;
+
+		try {
+			conn.bind(user, password);
+			result = true;
+			broken = false;
+		} catch (LdapAuthenticationException e) {
+			broken = false;
+		} catch (LdapException e) {
+			log.warn("Failed to authenticate user. $user: {} - $error: {}", user, e.getMessage());
+			broken = !conn.isConnected();
+			throw e;
+		} finally {
+			LdapManager.record(LdapOperation.BIND, start, !result);
+
+			if(broken) {
+				pool.invalidate(conn);
+			}else {
+				pool.release(conn);
+			}
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,576 @@
+package com.laetienda.myldap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.apache.directory.api.ldap.model.message.AddResponse;
+import org.apache.directory.api.ldap.model.message.LdapResult;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapAsyncConnection;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.future.AddFuture;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Adds many entries with asynchronous add requests spread over several pooled connections.
+ * Requests on different connections are answered in any order, so an entry whose parent is still waiting
+ * for a response is not sent until the parent is answered. Parents must come before their children in the input.
+ * At most {@link #getWindow()} adds are waiting for a response at any time, so memory stays bounded
+ * whatever the size of the input. Entries are validated before they are sent and every outcome is
+ * reported, in input order, to the {@link BulkListener} and counted in the {@link BulkResult}.
+ * <p>
+ * Responses are collected by a thread of their own. An exception thrown while handling one entry, by the listener
+ * for instance, is logged and added to {@link BulkResult#getErrors()} and the import goes on. If the collector
+ * stops anyway the import is stopped, the entries not answered are not reported and the checkpoint is kept.
+ */
+public class BulkImporter {
+	private static final Logger log = LogManager.getLogger(BulkImporter.class);
+	private static final long POLL_MILLIS = 100;
+
+	private int window = 256;
+	private int connections = 4;
+	private long timeoutMillis = 60000;
+	private long progressInterval = 100000;
+	private Path checkpoint;
+	private long checkpointInterval = 10000;
+	private boolean ignoreExisting = false;
+	private BulkListener listener;
+	private final Ldap ldap = new Ldap();
+
+	public int getWindow() {
+		return window;
+	}
+
+	/**
+	 * @param window Maximum number of adds sent and not answered yet
+	 * @return this
+	 */
+	public BulkImporter setWindow(int window) {
+		this.window = window;
+		return this;
+	}
+
+	public int getConnections() {
+		return connections;
+	}
+
+	/**
+	 * @param connections Number of connections borrowed from the pool for the import
+	 * @return this
+	 */
+	public BulkImporter setConnections(int connections) {
+		this.connections = connections;
+		return this;
+	}
+
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	/**
+	 * @param timeoutMillis How long to wait for the response of one add before counting it as failed
+	 * @return this
+	 */
+	public BulkImporter setTimeoutMillis(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+		return this;
+	}
+
+	public long getProgressInterval() {
+		return progressInterval;
+	}
+
+	/**
+	 * @param progressInterval Number of entries between progress reports, logged and sent to the listener
+	 * @return this
+	 */
+	public BulkImporter setProgressInterval(long progressInterval) {
+		this.progressInterval = progressInterval;
+		return this;
+	}
+
+	public Path getCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * Makes the import resumable. Every {@link #getCheckpointInterval()} entries the position of the last entry
+	 * answered, with every entry before it answered too, is saved in the file. A new import with the same file
+	 * and the same input skips the entries up to that position. The file is removed when the input is read to the end.
+	 * @param checkpoint File where the position is saved, null to always start from the beginning
+	 * @return this
+	 */
+	public BulkImporter setCheckpoint(Path checkpoint) {
+		this.checkpoint = checkpoint;
+		return this;
+	}
+
+	public long getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	/**
+	 * @param checkpointInterval Number of entries between saves of the checkpoint
+	 * @return this
+	 */
+	public BulkImporter setCheckpointInterval(long checkpointInterval) {
+		this.checkpointInterval = checkpointInterval;
+		return this;
+	}
+
+	public boolean isIgnoreExisting() {
+		return ignoreExisting;
+	}
+
+	/**
+	 * @param ignoreExisting Count entries that already exist as added. Entries answered after the last checkpoint
+	 * are sent again when an import is resumed, this keeps them from being reported as failures.
+	 * @return this
+	 */
+	public BulkImporter setIgnoreExisting(boolean ignoreExisting) {
+		this.ignoreExisting = ignoreExisting;
+		return this;
+	}
+
+	public BulkImporter setListener(BulkListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * Adds users or groups. Entities with errors are not sent and their errors are reported as failure.
+	 * @param entities stream of User or Group objects
+	 * @param pool LdapPool of an account that can add entries
+	 * @return BulkResult
+	 * @throws LdapException if connections can't be borrowed from the pool
+	 */
+	public BulkResult importEntities(Stream<? extends LdapEntity> entities, LdapPool pool) throws LdapException {
+		Iterator<? extends LdapEntity> iterator = entities.iterator();
+
+		return run(new Iterator<Candidate>() {
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public Candidate next() {
+				LdapEntity entity = iterator.next();
+				String error = entity.getErrors().isEmpty() ? validate(entity.getLdapEntry()) : entity.getErrors().toString();
+				return new Candidate(entity.getLdapEntry(), error);
+			}
+		}, pool, checkpoint);
+	}
+
+	/**
+	 * Adds the entries of an LDIF input. The input is parsed while it is imported, it is never loaded in memory.
+	 * Content records and add change records are supported, other change records are reported as failure.
+	 * A parse error stops the import, it is reported in {@link BulkResult#getErrors()} and the checkpoint is kept.
+	 * @param ldif LDIF input, it is not closed
+	 * @param pool LdapPool of an account that can add entries
+	 * @return BulkResult
+	 * @throws LdapException if the input is not LDIF or connections can't be borrowed from the pool
+	 */
+	public BulkResult importLdif(InputStream ldif, LdapPool pool) throws LdapException {
+		return importLdif(ldif, pool, checkpoint);
+	}
+
+	/**
+	 * Same as {@link #importLdif(InputStream, LdapPool)} with a checkpoint of its own, the one set on the importer
+	 * is not used. Several inputs can be imported at the same time, each one with its checkpoint.
+	 * @param ldif LDIF input, it is not closed
+	 * @param pool LdapPool of an account that can add entries
+	 * @param checkpoint File where the position is saved, see {@link #setCheckpoint(Path)}, null to always start from the beginning
+	 * @return BulkResult
+	 * @throws LdapException if the input is not LDIF or connections can't be borrowed from the pool
+	 */
+	public BulkResult importLdif(InputStream ldif, LdapPool pool, Path checkpoint) throws LdapException {
+		LdifReader reader = new LdifReader(ldif);
+		Iterator<LdifEntry> iterator = reader.iterator();
+
+		BulkResult result = run(new Iterator<Candidate>() {
+			private LdifEntry next;
+
+			// The reader returns null instead of an entry when it stops on a parse error. The error ends the import
+			// like a failure to read from ldap, so the checkpoint is kept and the load resumes once the input is fixed.
+			@Override
+			public boolean hasNext() {
+				if(next == null && iterator.hasNext()) {
+					next = iterator.next();
+				}
+
+				if(next == null && reader.hasError()) {
+					log.warn("LDIF input stopped on a parse error. $line: {} - $error: {}", reader.getLineNumber(), reader.getError().getMessage());
+					throw new LdapRuntimeException(new LdapOtherException("Line " + reader.getLineNumber() + ": " + reader.getError().getMessage()));
+				}
+
+				return next != null;
+			}
+
+			@Override
+			public Candidate next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				LdifEntry ldifEntry = next;
+				next = null;
+
+				if(ldifEntry.isLdifContent() || ldifEntry.isChangeAdd()) {
+					return new Candidate(ldifEntry.getEntry(), validate(ldifEntry.getEntry()));
+				}
+
+				return new Candidate(null, ldifEntry.getDn(), "Unsupported change type: " + ldifEntry.getChangeType());
+			}
+		}, pool, checkpoint);
+
+		try {
+			reader.close();
+		} catch (IOException e) {
+			log.debug("Failed to close LDIF reader. $error: {}", e.getMessage());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Adds raw entries, they are only checked for a Dn and an object class.
+	 * @param entries Iterator of entries
+	 * @param pool LdapPool of an account that can add entries
+	 * @return BulkResult
+	 * @throws LdapException if connections can't be borrowed from the pool
+	 */
+	public BulkResult importEntries(Iterator<Entry> entries, LdapPool pool) throws LdapException {
+		return run(new Iterator<Candidate>() {
+			@Override
+			public boolean hasNext() {
+				return entries.hasNext();
+			}
+
+			@Override
+			public Candidate next() {
+				Entry entry = entries.next();
+				return new Candidate(entry, validate(entry));
+			}
+		}, pool, checkpoint);
+	}
+
+	private String validate(Entry entry) {
+		if(entry == null || entry.getDn() == null || entry.getDn().isEmpty()) {
+			return "Entry has no Dn";
+		}
+
+		if(entry.get("objectClass") == null) {
+			return "Entry has no objectClass";
+		}
+
+		return null;
+	}
+
+	private BulkResult run(Iterator<Candidate> candidates, LdapPool pool, Path checkpoint) throws LdapException {
+		log.info("Importing entries into ldap...");
+
+		BulkResult result = new BulkResult();
+		List<LdapConnection> borrowed = new ArrayList<LdapConnection>(connections);
+		BlockingQueue<Pending> pending = new LinkedBlockingQueue<Pending>();
+		ConcurrentHashMap<String, Pending> unanswered = new ConcurrentHashMap<String, Pending>();
+		Semaphore inFlight = new Semaphore(window);
+		long resumeAfter = readCheckpoint(checkpoint);
+		AtomicLong completed = new AtomicLong(resumeAfter);
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread collector = new Thread(() -> collect(pending, unanswered, inFlight, result, completed, failure, checkpoint), "myldap-bulk-collector");
+		boolean finished = false;
+
+		try {
+			List<LdapAsyncConnection> async = new ArrayList<LdapAsyncConnection>(connections);
+			for(int c = 0; c < connections; c++) {
+				LdapConnection conn = pool.borrow();
+				borrowed.add(conn);
+				async.add(LdapManager.toAsync(conn));
+			}
+
+			collector.start();
+			long sequence = 0;
+
+			while(candidates.hasNext()) {
+				Candidate candidate = candidates.next();
+				sequence++;
+
+				if(sequence <= resumeAfter) {
+					result.skip();
+					continue;
+				}
+
+				while(!inFlight.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+					if(failure.get() != null) {
+						throw new CollectorException();
+					}
+				}
+
+				if(candidate.error != null) {
+					pending.put(new Pending(sequence, candidate, null, 0, candidate.error));
+					continue;
+				}
+
+				try {
+					Pending parent = unanswered.get(Ldap.normalize(candidate.dn.getParent()));
+					if(parent != null && !parent.answered.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+						log.debug("Parent entry not answered in time. $dn: {}", candidate.dn);
+					}
+
+					ldap.added(candidate.entry);
+					long sent = System.nanoTime();
+					AddFuture future = async.get((int)(sequence % async.size())).addAsync(candidate.entry);
+					Pending item = new Pending(sequence, candidate, future, sent, null);
+					unanswered.put(Ldap.normalize(candidate.dn), item);
+					pending.put(item);
+				} catch (LdapException e) {
+					pending.put(new Pending(sequence, candidate, null, 0, e.getMessage()));
+				}
+			}
+
+			finished = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			result.addError("Import interrupted");
+		} catch (LdapRuntimeException e) {
+			log.warn("Failed to read entries to import. $error: {}", e.getMessage());
+			result.addError(e.getMessage());
+		} catch (CollectorException e) {
+			log.debug("Import stopped, responses are not collected anymore");
+		} finally {
+			try {
+				if(collector.isAlive()) {
+					pending.put(Pending.END);
+					collector.join();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			for(LdapConnection conn : borrowed) {
+				pool.release(conn);
+			}
+		}
+
+		if(failure.get() != null) {
+			finished = false;
+			result.addError("Import stopped, failed to collect responses: " + failure.get());
+		}
+
+		if(checkpoint != null) {
+			if(finished && result.getErrors().isEmpty()) {
+				deleteCheckpoint(checkpoint);
+			}else {
+				writeCheckpoint(checkpoint, completed.get());
+			}
+		}
+
+		result.finish();
+		log.info("... import finished. $added: {} - $failed: {} - $skipped: {} - $entriesPerSecond: {}",
+				result.getSucceeded(), result.getFailed(), result.getSkipped(), (long)result.getEntriesPerSecond());
+
+		return result;
+	}
+
+	private void collect(BlockingQueue<Pending> pending, Map<String, Pending> unanswered, Semaphore inFlight, BulkResult result, AtomicLong completed, AtomicReference<Throwable> failure, Path checkpoint) {
+
+		try {
+			while(true) {
+				Pending item = pending.take();
+
+				if(item == Pending.END) {
+					return;
+				}
+
+				String error = item.error;
+
+				try {
+					if(item.future != null) {
+						AddResponse response = item.future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+						if(response == null) {
+							item.future.cancel(true);
+						}
+						error = error(response);
+						LdapManager.record(LdapOperation.ADD, item.sent, error != null);
+					}
+				} finally {
+					if(item.future != null) {
+						unanswered.remove(Ldap.normalize(item.dn), item);
+					}
+					item.answered.countDown();
+					inFlight.release();
+				}
+
+				result.record(item.dn, error);
+
+				try {
+					answered(item, error, result, checkpoint);
+				} catch (RuntimeException e) {
+					log.warn("Failed to handle response of imported entry. $sequence: {} - $dn: {} - $error: {}", item.sequence, item.dn, e.toString());
+					result.addError("Entry " + item.sequence + ": " + e);
+				}
+
+				completed.set(item.sequence);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException | Error e) {
+			log.error("Import response collector failed. $error: {}", e.toString());
+			failure.set(e);
+		}
+	}
+
+	private void answered(Pending item, String error, BulkResult result, Path checkpoint) {
+		if(error == null) {
+			ldap.invalidate(item.dn);
+			
+			MembershipIndex index = LdapManager.getMembershipIndex();
+			if(index != null) {
+				index.groupAdded(item.entry);
+			}
+		}
+
+		if(listener != null) {
+			listener.completed(item.sequence, item.dn, error);
+		}
+
+		if(checkpoint != null && item.sequence % checkpointInterval == 0) {
+			writeCheckpoint(checkpoint, item.sequence);
+		}
+
+		if(result.getProcessed() % progressInterval == 0) {
+			progress(result);
+		}
+	}
+
+	private void progress(BulkResult result) {
+		log.info("Import progress. $processed: {} - $failed: {} - $entriesPerSecond: {}",
+				result.getProcessed(), result.getFailed(), (long)result.getEntriesPerSecond());
+
+		if(listener != null) {
+			listener.progress(result.getProcessed(), result.getFailed(), result.getEntriesPerSecond());
+		}
+	}
+
+	private long readCheckpoint(Path checkpoint) {
+		if(checkpoint == null || !Files.exists(checkpoint)) {
+			return 0;
+		}
+
+		try {
+			long result = Long.parseLong(new String(Files.readAllBytes(checkpoint), StandardCharsets.US_ASCII).trim());
+			log.info("Resuming import from checkpoint. $checkpoint: {} - $skipping: {}", checkpoint, result);
+			return result;
+		} catch (IOException | NumberFormatException e) {
+			log.warn("Failed to read checkpoint, import starts from the beginning. $checkpoint: {} - $error: {}", checkpoint, e.getMessage());
+			return 0;
+		}
+	}
+
+	private void writeCheckpoint(Path checkpoint, long sequence) {
+		Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+
+		try {
+			Files.write(temp, Long.toString(sequence).getBytes(StandardCharsets.US_ASCII));
+			Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.warn("Failed to save checkpoint. $checkpoint: {} - $error: {}", checkpoint, e.getMessage());
+		}
+	}
+
+	private void deleteCheckpoint(Path checkpoint) {
+		try {
+			Files.deleteIfExists(checkpoint);
+		} catch (IOException e) {
+			log.warn("Failed to remove checkpoint. $checkpoint: {} - $error: {}", checkpoint, e.getMessage());
+		}
+	}
+
+	private String error(AddResponse response) {
+		if(response == null) {
+			return "No response from ldap server";
+		}
+
+		LdapResult ldapResult = response.getLdapResult();
+
+		if(ldapResult.getResultCode() == ResultCodeEnum.SUCCESS) {
+			return null;
+		}
+
+		if(ignoreExisting && ldapResult.getResultCode() == ResultCodeEnum.ENTRY_ALREADY_EXISTS) {
+			return null;
+		}
+
+		return ldapResult.getResultCode() + ": " + ldapResult.getDiagnosticMessage();
+	}
+
+	/**
+	 * Thrown to the sending loop when the collector has stopped.
+	 */
+	private static class CollectorException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static class Candidate {
+		private final Entry entry;
+		private final Dn dn;
+		private final String error;
+
+		private Candidate(Entry entry, String error) {
+			this(entry, entry == null ? null : entry.getDn(), error);
+		}
+
+		private Candidate(Entry entry, Dn dn, String error) {
+			this.entry = entry;
+			this.dn = dn;
+			this.error = error;
+		}
+	}
+
+	private static class Pending {
+		private static final Pending END = new Pending(0, new Candidate(null, null), null, 0, null);
+
+		private final long sequence;
+		private final Entry entry;
+		private final Dn dn;
+		private final AddFuture future;
+		private final long sent;
+		private final String error;
+		private final CountDownLatch answered = new CountDownLatch(1);
+
+		private Pending(long sequence, Candidate candidate, AddFuture future, long sent, String error) {
+			this.sequence = sequence;
+			this.entry = candidate.entry;
+			this.dn = candidate.dn;
+			this.future = future;
+			this.sent = sent;
+			this.error = error;
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package com.laetienda.myldap;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+
+/**
+ * Receives the outcome of every entry submitted by {@link BulkImporter}, in the order the entries were read.
+ */
+public interface BulkListener {
+
+	/**
+	 * @param sequence position of the entry in the input, starting at 1
+	 * @param dn Dn of the entry, null if the input did not have one
+	 * @param error null when the entry was added, otherwise the reason it was not
+	 */
+	public void completed(long sequence, Dn dn, String error);
+
+	/**
+	 * Called every {@link BulkImporter#getProgressInterval()} entries.
+	 * @param processed entries sent and answered so far, skipped entries are not counted
+	 * @param failed entries that were not added so far
+	 * @param entriesPerSecond average rate since the import started
+	 */
+	public default void progress(long processed, long failed, double entriesPerSecond) {
+
+	}
+}
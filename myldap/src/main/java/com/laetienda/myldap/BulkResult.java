@@ -0,0 +1,90 @@
+package com.laetienda.myldap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+
+/**
+ * Outcome of a {@link BulkImporter} run. Failures are kept up to a limit, counters are always complete.
+ */
+public class BulkResult {
+
+	public static final int MAX_FAILURES_KEPT = 10000;
+
+	private final long started = System.nanoTime();
+	private long finished;
+	private long succeeded = 0;
+	private long failed = 0;
+	private long skipped = 0;
+	private final Map<String, String> failures = new LinkedHashMap<String, String>();
+	private final List<String> errors = new ArrayList<String>();
+
+	void record(Dn dn, String error) {
+		if(error == null) {
+			succeeded++;
+		}else {
+			failed++;
+			if(failures.size() < MAX_FAILURES_KEPT) {
+				failures.put(dn == null ? "#" + (succeeded + failed) : dn.getName(), error);
+			}
+		}
+	}
+
+	void skip() {
+		skipped++;
+	}
+
+	void addError(String error) {
+		errors.add(error);
+	}
+
+	void finish() {
+		finished = System.nanoTime();
+	}
+
+	public long getSucceeded() {
+		return succeeded;
+	}
+
+	public long getFailed() {
+		return failed;
+	}
+
+	public long getProcessed() {
+		return succeeded + failed;
+	}
+
+	/**
+	 * @return Entries of the input that were not sent because they were before the checkpoint
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * @return Dn of the entries that were not added and the reason
+	 */
+	public Map<String, String> getFailures() {
+		return Collections.unmodifiableMap(failures);
+	}
+
+	/**
+	 * @return Errors that stopped the import before the end of the input
+	 */
+	public List<String> getErrors() {
+		return Collections.unmodifiableList(errors);
+	}
+
+	public long getElapsedMillis() {
+		return ((finished == 0 ? System.nanoTime() : finished) - started) / 1000000;
+	}
+
+	public double getEntriesPerSecond() {
+		long elapsed = getElapsedMillis();
+		return elapsed == 0 ? getProcessed() : getProcessed() * 1000.0 / elapsed;
+	}
+}
@@ -0,0 +1,195 @@
+package com.laetienda.myldap;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.bouncycastle.crypto.generators.SCrypt;
+
+/**
+ * Size bounded LRU cache of the passwords {@link Authenticator} verified with the server, so a burst of logins
+ * of the same user binds once. Passwords are not kept, only a scrypt hash with a random salt of each one,
+ * which is slow to compute and needs cost * 128 * blockSize bytes of memory, so a copy of the cache is not
+ * cheap to brute force. Users expire ttlMillis after they were verified.
+ * <p>
+ * A password changed by another client keeps working until the user expires, keep ttlMillis short.
+ * {@link Ldap} invalidates the users it modifies or deletes. Enable it with {@link LdapManager#setCredentialCache(CredentialCache)}.
+ */
+public class CredentialCache {
+
+	private static final int SALT_LENGTH = 16;
+	private static final int HASH_LENGTH = 32;
+
+	private final int maxSize;
+	private final long ttlMillis;
+	private final LinkedHashMap<String, Item> users;
+	private final SecureRandom random = new SecureRandom();
+
+	private int cost = 1 << 10;
+	private int blockSize = 8;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	public CredentialCache(int maxSize, long ttlMillis) {
+		this.maxSize = maxSize;
+		this.ttlMillis = ttlMillis;
+		this.users = new LinkedHashMap<String, Item>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Item> eldest) {
+				return size() > CredentialCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * @param user Dn of the user
+	 * @param password password to check
+	 * @return true if password was verified for user and has not expired, false if the server has to be asked
+	 */
+	public boolean verify(Dn user, String password) {
+		String key = Ldap.normalize(user);
+		Item item;
+
+		synchronized(users) {
+			item = users.get(key);
+
+			if(item != null && item.isExpired()) {
+				users.remove(key);
+				item = null;
+			}
+		}
+
+		boolean result = item != null && MessageDigest.isEqual(item.hash, hash(password, item.salt, item.cost, item.blockSize));
+
+		if(result) {
+			hits.increment();
+		}else {
+			misses.increment();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Remembers a password the server accepted.
+	 * @param user Dn of the user
+	 * @param password password accepted by the server
+	 */
+	public void put(Dn user, String password) {
+		byte[] salt = new byte[SALT_LENGTH];
+		random.nextBytes(salt);
+		Item item = new Item(salt, cost, blockSize, hash(password, salt, cost, blockSize), System.currentTimeMillis() + ttlMillis);
+
+		synchronized(users) {
+			users.put(Ldap.normalize(user), item);
+		}
+	}
+
+	public void invalidate(Dn user) {
+		synchronized(users) {
+			users.remove(Ldap.normalize(user));
+		}
+	}
+
+	public void clear() {
+		synchronized(users) {
+			users.clear();
+		}
+	}
+
+	/**
+	 * Removes expired users. Expired users are also removed when they are read.
+	 */
+	public void purge() {
+		synchronized(users) {
+			Iterator<Item> iterator = users.values().iterator();
+			while(iterator.hasNext()) {
+				if(iterator.next().isExpired()) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	public int size() {
+		synchronized(users) {
+			return users.size();
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	public int getCost() {
+		return cost;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Sets the scrypt parameters used from now on, users already verified keep theirs.
+	 * @param cost CPU and memory cost (N), a power of 2 greater than 1, 1024 by default
+	 * @param blockSize block size (r), 8 by default
+	 * @return this
+	 */
+	public CredentialCache setCost(int cost, int blockSize) {
+		if(cost < 2 || Integer.bitCount(cost) != 1) {
+			throw new IllegalArgumentException("Cost must be a power of 2 greater than 1");
+		}
+
+		if(blockSize < 1) {
+			throw new IllegalArgumentException("Block size must be at least 1");
+		}
+
+		this.cost = cost;
+		this.blockSize = blockSize;
+		return this;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	private static byte[] hash(String password, byte[] salt, int cost, int blockSize) {
+		return SCrypt.generate(password.getBytes(StandardCharsets.UTF_8), salt, cost, blockSize, 1, HASH_LENGTH);
+	}
+
+	private static class Item {
+		private final byte[] salt;
+		private final int cost;
+		private final int blockSize;
+		private final byte[] hash;
+		private final long expires;
+
+		private Item(byte[] salt, int cost, int blockSize, byte[] hash, long expires) {
+			this.salt = salt;
+			this.cost = cost;
+			this.blockSize = blockSize;
+			this.hash = hash;
+			this.expires = expires;
+		}
+
+		private boolean isExpired() {
+			return System.currentTimeMillis() > expires;
+		}
+	}
+}
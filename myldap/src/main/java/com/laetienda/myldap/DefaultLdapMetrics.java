@@ -0,0 +1,94 @@
+package com.laetienda.myldap;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps an {@link OperationStats} per type of operation and can publish them as MBeans named
+ * com.laetienda.myldap:type=Operation,name=&lt;operation&gt;.
+ */
+public class DefaultLdapMetrics implements LdapMetrics {
+	private static final Logger log = LogManager.getLogger(DefaultLdapMetrics.class);
+
+	public static final String DOMAIN = "com.laetienda.myldap";
+
+	private final EnumMap<LdapOperation, OperationStats> stats = new EnumMap<LdapOperation, OperationStats>(LdapOperation.class);
+
+	public DefaultLdapMetrics() {
+		for(LdapOperation operation : LdapOperation.values()) {
+			stats.put(operation, new OperationStats(operation));
+		}
+	}
+
+	@Override
+	public void record(LdapOperation operation, long nanos, boolean failed) {
+		stats.get(operation).record(nanos, failed);
+	}
+
+	public OperationStats getStats(LdapOperation operation) {
+		return stats.get(operation);
+	}
+
+	public Map<LdapOperation, OperationStats> getStats() {
+		return Collections.unmodifiableMap(stats);
+	}
+
+	public void reset() {
+		for(OperationStats operationStats : stats.values()) {
+			operationStats.reset();
+		}
+	}
+
+	/**
+	 * Registers one MBean per operation in the platform MBean server, replacing MBeans registered before.
+	 * @return this
+	 */
+	public DefaultLdapMetrics registerMBeans() {
+		log.info("Registering ldap metrics MBeans...");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		try {
+			for(OperationStats operationStats : stats.values()) {
+				ObjectName name = objectName(operationStats.getOperation());
+				if(server.isRegistered(name)) {
+					server.unregisterMBean(name);
+				}
+				server.registerMBean(operationStats, name);
+			}
+			log.info("... ldap metrics MBeans registered succesfully");
+		} catch (JMException e) {
+			log.warn("Failed to register ldap metrics MBeans. $error: {}", e.getMessage());
+			log.debug("Failed to register ldap metrics MBeans.", e);
+		}
+
+		return this;
+	}
+
+	public void unregisterMBeans() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		try {
+			for(LdapOperation operation : stats.keySet()) {
+				ObjectName name = objectName(operation);
+				if(server.isRegistered(name)) {
+					server.unregisterMBean(name);
+				}
+			}
+		} catch (JMException e) {
+			log.warn("Failed to unregister ldap metrics MBeans. $error: {}", e.getMessage());
+		}
+	}
+
+	private ObjectName objectName(LdapOperation operation) throws JMException {
+		return new ObjectName(DOMAIN + ":type=Operation,name=" + operation.name().toLowerCase());
+	}
+}
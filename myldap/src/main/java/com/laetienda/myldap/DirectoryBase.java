@@ -0,0 +1,161 @@
+package com.laetienda.myldap;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Container entries of a domain, ou=People and ou=groups. The Dns are parsed once when the domain is set
+ * in {@link LdapManager}. The entries are read from ldap the first time they are needed and then kept
+ * until {@link #refresh(LdapConnection)} is called, on demand or on a schedule.
+ */
+public class DirectoryBase {
+	private static final Logger log = LogManager.getLogger(DirectoryBase.class);
+
+	private final Dn domainDn;
+	private final Dn peopleDn;
+	private final Dn groupsDn;
+	private final DnFactory dnFactory;
+
+	private volatile Entry peopleEntry;
+	private volatile Entry groupsEntry;
+	private ScheduledExecutorService scheduler;
+	private ScheduledFuture<?> refreshTask;
+
+	public DirectoryBase(Dn domainDn) throws LdapInvalidDnException {
+		this.domainDn = domainDn;
+		this.peopleDn = domainDn.add("ou=People");
+		this.groupsDn = domainDn.add("ou=groups");
+		this.dnFactory = new DnFactory(peopleDn, groupsDn, LdapManager.getDnCacheSize());
+	}
+
+	public Dn getDomainDn() {
+		return domainDn;
+	}
+
+	public Dn getPeopleDn() {
+		return peopleDn;
+	}
+
+	public Dn getGroupsDn() {
+		return groupsDn;
+	}
+
+	/**
+	 * @return DnFactory of the users and groups of this domain
+	 */
+	public DnFactory getDnFactory() {
+		return dnFactory;
+	}
+
+	/**
+	 * @param conn LdapConnection, used only when the entry has not been read yet
+	 * @return ou=People entry, do not modify it
+	 * @throws LdapException if the entry does not exist
+	 */
+	public Entry getPeopleEntry(LdapConnection conn) throws LdapException {
+		Entry result = peopleEntry;
+
+		if(result == null) {
+			result = find(peopleDn, conn);
+			peopleEntry = result;
+		}
+
+		return result;
+	}
+
+	/**
+	 * @param conn LdapConnection, used only when the entry has not been read yet
+	 * @return ou=groups entry, do not modify it
+	 * @throws LdapException if the entry does not exist
+	 */
+	public Entry getGroupsEntry(LdapConnection conn) throws LdapException {
+		Entry result = groupsEntry;
+
+		if(result == null) {
+			result = find(groupsDn, conn);
+			groupsEntry = result;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Reads both container entries again.
+	 * @param conn LdapConnection
+	 * @throws LdapException
+	 */
+	public void refresh(LdapConnection conn) throws LdapException {
+		log.debug("Refreshing base entries. $domain: {}", domainDn);
+		peopleEntry = find(peopleDn, conn);
+		groupsEntry = find(groupsDn, conn);
+	}
+
+	/**
+	 * Refreshes the container entries every periodMillis with a connection borrowed from pool.
+	 * Calling it again replaces the previous schedule.
+	 * @param pool LdapPool
+	 * @param periodMillis time between refreshes
+	 */
+	public synchronized void scheduleRefresh(LdapPool pool, long periodMillis) {
+		stopRefresh();
+
+		if(scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread result = new Thread(runnable, "myldap-base-refresh");
+				result.setDaemon(true);
+				return result;
+			});
+		}
+
+		refreshTask = scheduler.scheduleWithFixedDelay(() -> {
+			LdapConnection conn = null;
+			try {
+				conn = pool.borrow();
+				refresh(conn);
+			} catch (LdapException e) {
+				log.warn("Failed to refresh base entries. $domain: {} - $error: {}", domainDn, e.getMessage());
+			} finally {
+				if(conn != null) {
+					pool.release(conn);
+				}
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stopRefresh() {
+		if(refreshTask != null) {
+			refreshTask.cancel(false);
+			refreshTask = null;
+		}
+	}
+
+	synchronized void shutdown() {
+		stopRefresh();
+
+		if(scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	private Entry find(Dn dn, LdapConnection conn) throws LdapException {
+		Entry result = conn.lookup(dn);
+
+		if(result == null) {
+			throw new LdapNoSuchObjectException("Base entry does not exist. $dn: " + dn.getName());
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,161 @@
+package com.laetienda.myldap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.name.Ava;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+
+/**
+ * Builds the Dns of users and groups without parsing strings. The ou=People and ou=groups Dns are parsed once,
+ * a child Dn is the parent plus one Rdn built from the type and the escaped raw value, so values with commas,
+ * plus signs or quotes are safe and nothing is parsed.
+ * <p>
+ * With a cache size greater than zero the most recently built Dns are kept and handed out again,
+ * Dns are immutable so they can be shared. Get it from {@link LdapManager#getDnFactory()}.
+ */
+public class DnFactory {
+
+	private final Dn peopleDn;
+	private final Dn groupsDn;
+	private volatile Cache cache;
+
+	/**
+	 * @param peopleDn Dn of ou=People
+	 * @param groupsDn Dn of ou=groups
+	 * @param cacheSize Number of Dns kept, zero or less disables the cache
+	 */
+	public DnFactory(Dn peopleDn, Dn groupsDn, int cacheSize) {
+		this.peopleDn = peopleDn;
+		this.groupsDn = groupsDn;
+		setCacheSize(cacheSize);
+	}
+
+	public int getCacheSize() {
+		Cache current = cache;
+		return current == null ? 0 : current.maxSize;
+	}
+
+	/**
+	 * Replaces the cache, the Dns kept so far are dropped.
+	 * @param cacheSize Number of Dns kept, zero or less disables the cache
+	 */
+	public void setCacheSize(int cacheSize) {
+		cache = cacheSize > 0 ? new Cache(cacheSize) : null;
+	}
+
+	public Dn getPeopleDn() {
+		return peopleDn;
+	}
+
+	public Dn getGroupsDn() {
+		return groupsDn;
+	}
+
+	/**
+	 * @param uid raw value of the uid, not escaped
+	 * @return uid=&lt;uid&gt;,ou=People,&lt;domain&gt;
+	 * @throws LdapInvalidDnException if uid is empty
+	 */
+	public Dn user(String uid) throws LdapInvalidDnException {
+		return child(peopleDn, SchemaConstants.UID_AT, uid, "u");
+	}
+
+	/**
+	 * @param cn raw value of the cn, not escaped
+	 * @return cn=&lt;cn&gt;,ou=groups,&lt;domain&gt;
+	 * @throws LdapInvalidDnException if cn is empty
+	 */
+	public Dn group(String cn) throws LdapInvalidDnException {
+		return child(groupsDn, SchemaConstants.CN_AT, cn, "g");
+	}
+
+	/**
+	 * Parses a Dn given as a string, through the cache when it is enabled.
+	 * @param dn Dn with its values escaped
+	 * @return Dn
+	 * @throws LdapInvalidDnException if dn is not valid
+	 */
+	public Dn parse(String dn) throws LdapInvalidDnException {
+		Cache current = cache;
+
+		if(current == null) {
+			return new Dn(dn);
+		}
+
+		String key = "d" + dn;
+		Dn result = current.get(key);
+
+		if(result == null) {
+			result = new Dn(dn);
+			current.put(key, result);
+		}
+
+		return result;
+	}
+
+	private Dn child(Dn parent, String type, String value, String prefix) throws LdapInvalidDnException {
+		if(value == null || value.isEmpty()) {
+			throw new LdapInvalidDnException("The value of " + type + " can't be empty");
+		}
+
+		Cache current = cache;
+
+		if(current == null) {
+			return new Dn(rdn(type, value), parent);
+		}
+
+		String key = prefix + value;
+		Dn result = current.get(key);
+
+		if(result == null) {
+			result = new Dn(rdn(type, value), parent);
+			current.put(key, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Built from an Ava, nothing is parsed. Rdn(type, value) would keep the value unescaped in its user provided
+	 * name, which is what getName() returns and what is written in uniqueMember and owner.
+	 */
+	private Rdn rdn(String type, String value) throws LdapInvalidDnException {
+		return new Rdn(new Ava(type, value));
+	}
+
+	/**
+	 * Least recently used Dns, keyed by kind and value.
+	 */
+	private static class Cache {
+		private final int maxSize;
+		private final LinkedHashMap<String, Dn> dns;
+
+		private Cache(int maxSize) {
+			this.maxSize = maxSize;
+			this.dns = new LinkedHashMap<String, Dn>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Dn> eldest) {
+					return size() > Cache.this.maxSize;
+				}
+			};
+		}
+
+		private Dn get(String key) {
+			synchronized(dns) {
+				return dns.get(key);
+			}
+		}
+
+		private void put(String key, Dn dn) {
+			synchronized(dns) {
+				dns.put(key, dn);
+			}
+		}
+	}
+}
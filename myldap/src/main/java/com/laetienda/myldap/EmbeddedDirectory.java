@@ -0,0 +1,300 @@
+package com.laetienda.myldap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.NormalizingComparator;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.server.core.DefaultDirectoryService;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.InstanceLayout;
+import org.apache.directory.server.core.api.LdapCoreSessionConnection;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.schema.SchemaPartition;
+import org.apache.directory.server.core.factory.AvlPartitionFactory;
+import org.apache.directory.server.core.factory.JdbmPartitionFactory;
+import org.apache.directory.server.core.factory.PartitionFactory;
+import org.apache.directory.server.core.partition.ldif.LdifPartition;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * ApacheDS running inside this JVM with one partition for the domain and its ou=People and ou=groups entries.
+ * Connections talk to the directory service directly, there is no socket, no encoding and no network hop.
+ * <p>
+ * Without a working directory the partitions are kept in memory and the schema files go to a temporary
+ * directory removed on {@link #stop()}. With a working directory the partitions are JDBM files that survive restarts.
+ * Start it with {@link LdapManager#startEmbedded(EmbeddedDirectory)}.
+ */
+public class EmbeddedDirectory {
+	private static final Logger log = LogManager.getLogger(EmbeddedDirectory.class);
+
+	private final Dn domainDn;
+	private File workingDirectory;
+	private int cacheSize = 10000;
+	private List<String> indexes = new ArrayList<String>(List.of("uid", "mail", "cn", "uniqueMember"));
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private volatile DirectoryService service;
+	private File temporaryDirectory;
+
+	public EmbeddedDirectory(Dn domainDn) {
+		this.domainDn = domainDn;
+	}
+
+	public Dn getDomainDn() {
+		return domainDn;
+	}
+
+	public File getWorkingDirectory() {
+		return workingDirectory;
+	}
+
+	/**
+	 * @param workingDirectory Directory of the partition files, null keeps them in memory
+	 * @return this
+	 */
+	public EmbeddedDirectory setWorkingDirectory(File workingDirectory) {
+		this.workingDirectory = workingDirectory;
+		return this;
+	}
+
+	public int getCacheSize() {
+		return cacheSize;
+	}
+
+	/**
+	 * @param cacheSize Number of entries of the domain partition kept in the entry cache of the server
+	 * @return this
+	 */
+	public EmbeddedDirectory setCacheSize(int cacheSize) {
+		this.cacheSize = cacheSize;
+		return this;
+	}
+
+	public List<String> getIndexes() {
+		return indexes;
+	}
+
+	/**
+	 * @param attributes Attributes indexed in the domain partition, objectClass is always indexed
+	 * @return this
+	 */
+	public EmbeddedDirectory setIndexes(String... attributes) {
+		this.indexes = new ArrayList<String>(List.of(attributes));
+		return this;
+	}
+
+	public boolean isStarted() {
+		return service != null && service.isStarted();
+	}
+
+	/**
+	 * @return the directory service, null until it is started
+	 */
+	public DirectoryService getDirectoryService() {
+		return service;
+	}
+
+	/**
+	 * Starts the directory service and adds the domain, ou=People and ou=groups entries that do not exist yet.
+	 * @return this
+	 * @throws LdapException if the service can't be started
+	 */
+	public EmbeddedDirectory start() throws LdapException {
+		lock.lock();
+		try {
+			if(!isStarted()) {
+				startService();
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		return this;
+	}
+
+	private void startService() throws LdapException {
+
+		log.info("Starting embedded directory. $domain: {} - $workingDirectory: {}", domainDn, workingDirectory == null ? "memory" : workingDirectory);
+
+		try {
+			File instance = workingDirectory;
+
+			if(instance == null) {
+				temporaryDirectory = Files.createTempDirectory("myldap-embedded").toFile();
+				instance = temporaryDirectory;
+			}
+
+			PartitionFactory partitionFactory = workingDirectory == null ? new AvlPartitionFactory() : new JdbmPartitionFactory();
+			service = new DefaultDirectoryService();
+			service.setShutdownHookEnabled(false);
+			service.setInstanceId("myldap");
+			service.setInstanceLayout(new InstanceLayout(instance));
+			service.getChangeLog().setEnabled(false);
+
+			CacheService cacheService = new CacheService();
+			cacheService.initialize(service.getInstanceLayout(), "myldap");
+			service.setCacheService(cacheService);
+
+			initSchema();
+
+			Partition system = partitionFactory.createPartition(service.getSchemaManager(), service.getDnFactory(),
+					"system", "ou=system", 500, new File(service.getInstanceLayout().getPartitionsDirectory(), "system"));
+			partitionFactory.addIndex(system, "objectClass", 100);
+			service.setSystemPartition(system);
+
+			Partition domain = partitionFactory.createPartition(service.getSchemaManager(), service.getDnFactory(),
+					partitionId(), domainDn.getName(), cacheSize, new File(service.getInstanceLayout().getPartitionsDirectory(), partitionId()));
+			partitionFactory.addIndex(domain, "objectClass", 100);
+			for(String attribute : indexes) {
+				partitionFactory.addIndex(domain, attribute, 100);
+			}
+			service.addPartition(domain);
+
+			service.startup();
+			LdapConnection conn = getAdminConnection();
+			try {
+				new Installer().createBase(domainDn, conn);
+			} finally {
+				conn.close();
+			}
+		} catch (LdapException e) {
+			log.error("Failed to start embedded directory. $error: {}", e.getMessage());
+			stop();
+			throw e;
+		} catch (Exception e) {
+			log.error("Failed to start embedded directory. $error: {}", e.getMessage());
+			stop();
+			throw new LdapOtherException("Failed to start embedded directory", e);
+		}
+
+		log.info("... embedded directory started succesfully");
+	}
+
+	private void initSchema() throws Exception {
+		File schemaDirectory = new File(service.getInstanceLayout().getPartitionsDirectory(), "schema");
+
+		if(!schemaDirectory.exists()) {
+			new DefaultSchemaLdifExtractor(service.getInstanceLayout().getPartitionsDirectory()).extractOrCopy();
+		}
+
+		SchemaManager schemaManager = new DefaultSchemaManager(new LdifSchemaLoader(schemaDirectory));
+		schemaManager.loadAllEnabled();
+
+		schemaManager.getComparatorRegistry().forEach(comparator -> {
+			if(comparator instanceof NormalizingComparator) {
+				((NormalizingComparator)comparator).setOnServer();
+			}
+		});
+
+		if(!schemaManager.getErrors().isEmpty()) {
+			throw new LdapOtherException("Failed to load schema: " + schemaManager.getErrors());
+		}
+
+		service.setSchemaManager(schemaManager);
+
+		LdifPartition ldifPartition = new LdifPartition(schemaManager, service.getDnFactory());
+		ldifPartition.setPartitionPath(schemaDirectory.toURI());
+		SchemaPartition schemaPartition = new SchemaPartition(schemaManager);
+		schemaPartition.setWrappedPartition(ldifPartition);
+		service.setSchemaPartition(schemaPartition);
+	}
+
+	private String partitionId() {
+		return Strings.toLowerCaseAscii(domainDn.getRdn().getValue()).replaceAll("[^a-z0-9]", "");
+	}
+
+	/**
+	 * @return connection bound as the administrator of the directory, uid=admin,ou=system
+	 * @throws LdapException if the directory is not started
+	 */
+	public LdapConnection getAdminConnection() throws LdapException {
+		return new LdapCoreSessionConnection(started().getAdminSession());
+	}
+
+	/**
+	 * @return anonymous connection
+	 * @throws LdapException if the directory is not started
+	 */
+	public LdapConnection getAnonymousConnection() throws LdapException {
+		try {
+			return new LdapCoreSessionConnection(started().getSession());
+		} catch (LdapException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new LdapOtherException("Failed to open anonymous session", e);
+		}
+	}
+
+	/**
+	 * @param user Dn of an entry with a userPassword
+	 * @param password password of the entry
+	 * @return connection bound as user
+	 * @throws LdapException if the credentials are not valid or the directory is not started
+	 */
+	public LdapConnection getConnection(Dn user, String password) throws LdapException {
+		return new LdapCoreSessionConnection(started().getSession(user, Strings.getBytesUtf8(password)));
+	}
+
+	private DirectoryService started() throws LdapException {
+		DirectoryService result = service;
+
+		if(result == null || !result.isStarted()) {
+			throw new LdapOtherException("Embedded directory is not started");
+		}
+
+		return result;
+	}
+
+	/**
+	 * Shuts the directory service down. Memory partitions are lost, disk partitions are synced first.
+	 */
+	public void stop() {
+		lock.lock();
+		try {
+			stopService();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void stopService() {
+		log.info("Stopping embedded directory...");
+
+		try {
+			if(service != null && service.isStarted()) {
+				service.shutdown();
+			}
+		} catch (Exception e) {
+			log.warn("Failed to stop embedded directory. $error: {}", e.getMessage());
+		} finally {
+			service = null;
+		}
+
+		if(temporaryDirectory != null) {
+			try {
+				FileUtils.deleteDirectory(temporaryDirectory);
+			} catch (IOException e) {
+				log.warn("Failed to remove temporary directory. $directory: {} - $error: {}", temporaryDirectory, e.getMessage());
+			}
+			temporaryDirectory = null;
+		}
+
+		log.info("... embedded directory stopped succesfully");
+	}
+}
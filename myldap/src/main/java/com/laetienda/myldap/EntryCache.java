@@ -0,0 +1,216 @@
+package com.laetienda.myldap;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+
+/**
+ * Size bounded LRU cache of ldap entries keyed by normalized Dn and by scope. Entries expire ttlMillis after they were cached.
+ * The scope is the identity an entry was read with, see {@link LdapManager#scope(LdapConnection)}, so an entry read as the
+ * administrator, with attributes like userPassword, is never served to an anonymous connection or to another user.
+ * Entries are copied when they are cached and when they are read, so callers can modify what they get.
+ * A read that started before an invalidation is not cached, see {@link #stamp()}.
+ * Enable it with {@link LdapManager#setEntryCache(EntryCache)}. {@link Ldap} invalidates the entries it adds, modifies or deletes in every scope.
+ */
+public class EntryCache {
+
+	private final int maxSize;
+	private final long ttlMillis;
+	private final LinkedHashMap<String, Map<String, Item>> entries;
+	/** Changes every time something is invalidated, an entry read before an invalidation is not cached */
+	private long version = 0;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+
+	/**
+	 * @param maxSize Number of Dns kept, each one with the entries of every scope it was read with
+	 * @param ttlMillis time an entry is kept
+	 */
+	public EntryCache(int maxSize, long ttlMillis) {
+		this.maxSize = maxSize;
+		this.ttlMillis = ttlMillis;
+		this.entries = new LinkedHashMap<String, Map<String, Item>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Map<String, Item>> eldest) {
+				boolean result = size() > EntryCache.this.maxSize;
+				if(result) {
+					evictions.increment();
+				}
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * @param scope identity the entry is read with
+	 * @param dn Dn of the entry
+	 * @return copy of the entry cached for scope or null if it is not cached or it has expired
+	 */
+	public Entry get(String scope, Dn dn) {
+		String key = Ldap.normalize(dn);
+		Item item = null;
+
+		synchronized(entries) {
+			Map<String, Item> scopes = entries.get(key);
+
+			if(scopes != null) {
+				item = scopes.get(scope);
+
+				if(item != null && item.isExpired()) {
+					scopes.remove(scope);
+					expirations.increment();
+					item = null;
+
+					if(scopes.isEmpty()) {
+						entries.remove(key);
+					}
+				}
+			}
+		}
+
+		if(item == null) {
+			misses.increment();
+			return null;
+		}
+
+		hits.increment();
+		return item.entry.clone();
+	}
+
+	/**
+	 * Take it before reading the entry from the server and give it back to {@link #put(String, Dn, Entry, long)}.
+	 * @return current version of the cache
+	 */
+	public long stamp() {
+		synchronized(entries) {
+			return version;
+		}
+	}
+
+	/**
+	 * Caches the entry, unless something was invalidated since stamp was taken.
+	 * @param scope identity the entry was read with
+	 * @param dn Dn of the entry
+	 * @param entry Entry as the server returned it to scope
+	 * @param stamp {@link #stamp()} taken before the entry was read
+	 */
+	public void put(String scope, Dn dn, Entry entry, long stamp) {
+		Item item = new Item(entry.clone(), System.currentTimeMillis() + ttlMillis);
+		String key = Ldap.normalize(dn);
+
+		synchronized(entries) {
+			if(version != stamp) {
+				return;
+			}
+
+			Map<String, Item> scopes = entries.get(key);
+
+			if(scopes == null) {
+				scopes = new HashMap<String, Item>(4);
+				entries.put(key, scopes);
+			}
+
+			scopes.put(scope, item);
+		}
+	}
+
+	/**
+	 * Removes the entry from every scope.
+	 * @param dn Dn of the entry
+	 */
+	public void invalidate(Dn dn) {
+		synchronized(entries) {
+			version++;
+			entries.remove(Ldap.normalize(dn));
+		}
+	}
+
+	public void clear() {
+		synchronized(entries) {
+			version++;
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Removes expired entries. Expired entries are also removed when they are read.
+	 */
+	public void purge() {
+		synchronized(entries) {
+			Iterator<Map<String, Item>> dns = entries.values().iterator();
+			while(dns.hasNext()) {
+				Map<String, Item> scopes = dns.next();
+				Iterator<Item> iterator = scopes.values().iterator();
+
+				while(iterator.hasNext()) {
+					if(iterator.next().isExpired()) {
+						iterator.remove();
+						expirations.increment();
+					}
+				}
+
+				if(scopes.isEmpty()) {
+					dns.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return number of Dns cached
+	 */
+	public int size() {
+		synchronized(entries) {
+			return entries.size();
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public long getExpirations() {
+		return expirations.sum();
+	}
+
+	private static class Item {
+		private final Entry entry;
+		private final long expires;
+
+		private Item(Entry entry, long expires) {
+			this.entry = entry;
+			this.expires = expires;
+		}
+
+		private boolean isExpired() {
+			return System.currentTimeMillis() > expires;
+		}
+	}
+}
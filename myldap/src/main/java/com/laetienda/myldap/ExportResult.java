@@ -0,0 +1,52 @@
+package com.laetienda.myldap;
+
+import java.nio.file.Path;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+
+/**
+ * Outcome of the export of one subtree by {@link LdifExporter}.
+ */
+public class ExportResult {
+
+	private final Dn base;
+	private final Path file;
+	private final long entries;
+	private final long bytes;
+	private final long elapsedMillis;
+
+	ExportResult(Dn base, Path file, long entries, long bytes, long elapsedMillis) {
+		this.base = base;
+		this.file = file;
+		this.entries = entries;
+		this.bytes = bytes;
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	public Dn getBase() {
+		return base;
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	public long getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @return Size of the file, compressed when gzip is on
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	public double getEntriesPerSecond() {
+		return elapsedMillis == 0 ? entries : entries * 1000.0 / elapsedMillis;
+	}
+}
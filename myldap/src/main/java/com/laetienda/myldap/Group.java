@@ -3,9 +3,20 @@ package com.laetienda.myldap;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
@@ -31,6 +42,7 @@ public class Group implements Serializable, FormBeanInterface, LdapEntity {
 	private Ldap ldap;
 	private List<Modification> modifications = new ArrayList<Modification>();
 	private HashMap<String, List<String>> errors = new HashMap<String, List<String>>();
+	private transient Map<String, String> members;
 	
 	public Group() {
 		tools = new MyAppTools();
@@ -42,7 +54,7 @@ public class Group implements Serializable, FormBeanInterface, LdapEntity {
 		ldap = new Ldap();
 		
 		try {
-			Dn dn = new Dn("cn=" + groupName, "ou=groups", LdapManager.getDomainDn().getName());
+			Dn dn = LdapManager.getDnFactory().group(groupName);
 			findGroup(dn, conn);
 		} catch (LdapInvalidDnException | IOException e) {
 			log.error("Failed to create group object. $groupName: {} - $error: {}", groupName, e.getMessage());
@@ -56,16 +68,27 @@ public class Group implements Serializable, FormBeanInterface, LdapEntity {
 		findGroup(groupDn, conn);
 	}
 	
+	/**
+	 * Wraps a group entry already read from ldap, see {@link AsyncLdap#findGroup(Dn)}.
+	 * @param entry ldap entry of the group
+	 */
+	Group(Entry entry) {
+		tools = new MyAppTools();
+		ldap = new Ldap();
+		ldapEntry = entry;
+	}
+	
 	private void findGroup(Dn group, LdapConnection conn) throws IOException, LdapException {
 		
 		try {
-			Entry temp = conn.lookup(group);
+			Entry temp = ldap.lookup(group, conn);
 
 			if(temp == null) {
 				log.warn("Group does not exist");
 				throw new IOException();
 			}else {
 				ldapEntry = temp;
+				members = null;
 			}
 			
 		} catch (LdapException e) {
@@ -76,28 +99,32 @@ public class Group implements Serializable, FormBeanInterface, LdapEntity {
 	}
 	
 	public Group setName(String groupName, LdapConnection conn) throws Exception {
-		String temp = "cn=" + groupName + ",ou=groups," + LdapManager.getDomainDn().getName();
-		log.debug("$GroupDn: {}", temp);
-		setLdapEntry(temp, conn);
+		Dn dn = LdapManager.getDnFactory().group(groupName);
+		log.debug("$GroupDn: {}", dn);
+		setLdapEntry(dn, conn);
 		return this;
 	}
 	
 	public Group setLdapEntry(String dnstr, LdapConnection conn) throws Exception {
-		log.info("Setting LDAP entry...");
+		return setLdapEntry(ldap.buildDn(dnstr), conn);
+	}
+	
+	public Group setLdapEntry(Dn dn, LdapConnection conn) throws Exception {
+		log.debug("Setting LDAP entry...");
 		
 		try {
-			Dn dn = ldap.buildDn(dnstr);
-			if(conn.exists(dn)) {
+			if(ldap.exists(dn, conn)) {
 				log.warn("Failed to set Group LDAP Entry, it already exists");
 				addError("cn", "A group with this name already exists");
 			}else {
 				ldapEntry = new DefaultEntry(dn);
+				members = null;
 				ldapEntry
 						.add("objectclass", "groupOfUniqueNames")
 						.add("cn", dn.getRdn(0).getValue());
 			}
 			
-			log.info("... LDAP entry set succesfully");
+			log.debug("... LDAP entry set succesfully");
 		} catch (Exception e) {
 			log.warn("Failed to set LDAP Entry");
 			throw e;
@@ -113,7 +140,7 @@ public class Group implements Serializable, FormBeanInterface, LdapEntity {
 	
 	public Group setOwner(String ownerUid, LdapConnection conn) throws LdapInvalidDnException {
 	
-		Dn dn = ldap.buildDn("uid=" + ownerUid +", ou=people, " + LdapManager.getDomainDn().getName());
+		Dn dn = LdapManager.getDnFactory().user(ownerUid);
 		return setOwner(dn, conn);
 	}
 	
@@ -170,7 +197,7 @@ public class Group implements Serializable, FormBeanInterface, LdapEntity {
 	public Group addMember(String member, LdapConnection conn) {
 		
 		try {
-			Dn dn = ldap.buildDn("uid=" + member + ",ou=people," + LdapManager.getDomainDn().getName());
+			Dn dn = LdapManager.getDnFactory().user(member);
 			addMember(dn, conn);
 		} catch (LdapInvalidDnException e) {
 			log.warn("Failed to build dn of member. $error: {}", e.getMessage());
@@ -183,9 +210,9 @@ public class Group implements Serializable, FormBeanInterface, LdapEntity {
 	
 	public Group addMember(Dn member, LdapConnection conn) {
 		String username = member.getRdn(0).getValue();
-		log.debug("Adding member to group. $group: {} - $member: {}", ldapEntry.getDn().getName(), member.getName());		
+		log.debug("Adding member to group. $group: {} - $member: {}", ldapEntry.getDn(), member);		
 		try {
-			if(conn.exists(member)) {
+			if(ldap.exists(member, conn)) {
 				
 				if(username == null || username.isBlank()) {
 					addError("member", "Member, " + username + ", can not be empty");
@@ -195,10 +222,12 @@ public class Group implements Serializable, FormBeanInterface, LdapEntity {
 					addError("member", "Member cant have more than 254 letters");
 				}
 				
-				if(ldapEntry.contains("uniqueMember", member.getName())) {
+				if(members().containsKey(Ldap.normalize(member))) {
 					addError("member", new String("Member, " + username + ", is part of this group"));
 				}else {
-					if(conn.exists(ldapEntry.getDn())) {
+					members().put(Ldap.normalize(member), member.getName());
+					
+					if(ldap.exists(ldapEntry.getDn(), conn)) {
 						Modification modi = new DefaultModification(ModificationOperation.ADD_ATTRIBUTE, "uniqueMember", member.getName());
 						modifications.add(modi);
 					}else {
@@ -212,7 +241,7 @@ public class Group implements Serializable, FormBeanInterface, LdapEntity {
 			}
 			
 		} catch (LdapException e) {
-			log.warn("Failed to add member to group", e.getMessage());
+			log.warn("Failed to add member to group. $error: {}", e.getMessage());
 			log.debug("Failed add member to group", e);
 			addError("member", "Member entry is not valid");
 		}
@@ -220,19 +249,142 @@ public class Group implements Serializable, FormBeanInterface, LdapEntity {
 		return this;
 	}
 	
+	/**
+	 * Adds many members with a few round trips: member existence is checked with batched searches, see
+	 * {@link MemberResolver}, and group existence once. The valid members are queued in one ADD modification,
+	 * send it with {@link Ldap#modify(LdapEntity, int, LdapConnection)} to split it for the limits of the server.
+	 * Members that can't be added are reported in {@link #getErrors()}, the others are added anyway.
+	 * @param members Dn of the members
+	 * @param conn LdapConnection
+	 * @return this
+	 */
+	public Group addMembers(Collection<Dn> members, LdapConnection conn) {
+		log.debug("Adding members to group. $group: {}", ldapEntry.getDn());
+		
+		try {
+			Set<String> found = keys(memberResolver().resolve(candidates(members), conn));
+			addMembers(members, found, ldap.exists(ldapEntry.getDn(), conn));
+		} catch (LdapException e) {
+			log.warn("Failed to add members to group. $error: {}", e.getMessage());
+			log.debug("Failed to add members to group", e);
+			addError("member", "Members could not be added");
+		}
+		
+		return this;
+	}
+	
+	/**
+	 * Same as {@link #addMembers(Collection, LdapConnection)} with the batched searches running in parallel.
+	 * @param members Dn of the members
+	 * @param pool LdapPool the connections are borrowed from
+	 * @param executor ExecutorService that runs the searches
+	 * @return this
+	 */
+	public Group addMembers(Collection<Dn> members, LdapPool pool, ExecutorService executor) {
+		log.debug("Adding members to group. $group: {}", ldapEntry.getDn());
+		LdapConnection conn = null;
+		
+		try {
+			Set<String> found = keys(memberResolver().resolve(candidates(members), pool, executor));
+			conn = pool.borrow();
+			addMembers(members, found, ldap.exists(ldapEntry.getDn(), conn));
+		} catch (LdapException e) {
+			log.warn("Failed to add members to group. $error: {}", e.getMessage());
+			log.debug("Failed to add members to group", e);
+			addError("member", "Members could not be added");
+		} finally {
+			if(conn != null) {
+				pool.release(conn);
+			}
+		}
+		
+		return this;
+	}
+	
+	private MemberResolver memberResolver() {
+		return new MemberResolver().setAttributes(SchemaConstants.UID_AT);
+	}
+	
+	private List<Dn> candidates(Collection<Dn> members) {
+		List<Dn> result = new ArrayList<Dn>(members.size());
+		
+		for(Dn member : members) {
+			if(member != null && !member.isEmpty()) {
+				result.add(member);
+			}
+		}
+		
+		return result;
+	}
+	
+	private Set<String> keys(List<Entry> entries) {
+		Set<String> result = new HashSet<String>();
+		
+		for(Entry entry : entries) {
+			result.add(Ldap.normalize(entry.getDn()));
+		}
+		
+		return result;
+	}
+	
+	private void addMembers(Collection<Dn> members, Set<String> found, boolean groupExists) throws LdapException {
+		Map<String, String> current = members();
+		Set<String> seen = new HashSet<String>();
+		List<String> values = new ArrayList<String>();
+		
+		for(Dn member : members) {
+			if(member == null || member.isEmpty()) {
+				addError("member", "Member can not be empty");
+				continue;
+			}
+			
+			String username = member.getRdn(0).getValue();
+			String key = Ldap.normalize(member);
+			
+			if(!seen.add(key)) {
+				continue;
+			}
+			
+			if(!found.contains(key)) {
+				addError("member", "Member, " + username + " ,does not exist");
+			}else if(username.length() > 255) {
+				addError("member", "Member cant have more than 254 letters");
+			}else if(current.containsKey(key)) {
+				addError("member", "Member, " + username + ", is part of this group");
+			}else {
+				current.put(key, member.getName());
+				values.add(member.getName());
+			}
+		}
+		
+		if(!values.isEmpty()) {
+			if(groupExists) {
+				modifications.add(new DefaultModification(ModificationOperation.ADD_ATTRIBUTE, "uniqueMember", values.toArray(new String[values.size()])));
+			}else {
+				ldapEntry.add("uniqueMember", values.toArray(new String[values.size()]));
+			}
+		}
+	}
+	
 	 public List<User> getMembers(LdapConnection conn) throws LdapException {
-		 log.info("Getting list of users from group...");
+		 return getMembers(conn, new MemberResolver());
+	 }
+	 
+	 /**
+	  * Finds the members of the group with batched searches.
+	  * @param conn LdapConnection
+	  * @param resolver MemberResolver, it sets the batch size and the attributes fetched for each member
+	  * @return List of users, members that do not exist are skipped
+	  * @throws LdapException
+	  */
+	 public List<User> getMembers(LdapConnection conn, MemberResolver resolver) throws LdapException {
+		 log.debug("Getting list of users from group...");
 		 
-		 List<User> result = new ArrayList<User>();
+		 List<User> result;
 		 
 		 try {
-			 for(Value<?> val : ldapEntry.get("uniquemember")) {
-				 
-				User user = new User(conn.lookup(val.getString()));
-				result.add(user);
-			 
-			 }
-			 log.info("...List of users has found succesfully");
+			 result = toUsers(resolver.resolve(getMemberDns(), conn));
+			 log.debug("...List of users has found succesfully");
 		 } catch (LdapException e) {
 			 log.warn("Failed to find list of users from group. $error: {}", e.getMessage());
 			 throw e;
@@ -241,6 +393,146 @@ public class Group implements Serializable, FormBeanInterface, LdapEntity {
 		 return result;
 	 }
 	 
+	 /**
+	  * Finds the members of the group and of its nested groups, see {@link NestedGroupResolver}.
+	  * @param groups NestedGroupResolver, reuse it to reuse the groups it has read
+	  * @param conn LdapConnection
+	  * @return List of users, each one once. Members that do not exist are skipped.
+	  * @throws LdapException
+	  */
+	 public List<User> getEffectiveMembers(NestedGroupResolver groups, LdapConnection conn) throws LdapException {
+		 log.debug("Getting effective members of group. $group: {}", ldapEntry.getDn());
+		 
+		 List<User> result;
+		 
+		 try {
+			 result = toUsers(new MemberResolver().resolve(groups.expand(this, conn).getUserDns(), conn));
+		 } catch (LdapException e) {
+			 log.warn("Failed to find effective members of group. $error: {}", e.getMessage());
+			 throw e;
+		 }
+		 
+		 return result;
+	 }
+	 
+	 /**
+	  * Finds the members of the group running the batched searches in parallel over pooled connections.
+	  * @param resolver MemberResolver
+	  * @param pool LdapPool, see {@link LdapManager#getPools()}
+	  * @param executor ExecutorService that runs the searches
+	  * @return List of users, members that do not exist are skipped
+	  * @throws LdapException
+	  */
+	 public List<User> getMembers(MemberResolver resolver, LdapPool pool, ExecutorService executor) throws LdapException {
+		 log.debug("Getting list of users from group...");
+		 
+		 List<User> result;
+		 
+		 try {
+			 result = toUsers(resolver.resolve(getMemberDns(), pool, executor));
+			 log.debug("...List of users has found succesfully");
+		 } catch (LdapException e) {
+			 log.warn("Failed to find list of users from group. $error: {}", e.getMessage());
+			 throw e;
+		 }
+		 
+		 return result;
+	 }
+	 
+	 /**
+	  * Iterates the members of the group resolving them lazily, one page at a time.
+	  * Close it, or stop calling next, to skip the pages not read yet.
+	  * @param conn LdapConnection, it must stay open while iterating
+	  * @param resolver MemberResolver, its batch size is the page size
+	  * @return MemberIterator, it throws LdapRuntimeException if a page can't be resolved
+	  */
+	 public MemberIterator<User> memberIterator(LdapConnection conn, MemberResolver resolver) {
+		 return new MemberIterator<User>(ldapEntry.get("uniquemember"), resolver, conn, User::new);
+	 }
+	 
+	 /**
+	  * Stream of the members of the group resolved lazily, one page at a time.
+	  * Short-circuiting operations like findFirst or limit stop fetching pages.
+	  * @param conn LdapConnection, it must stay open while the stream is consumed
+	  * @param resolver MemberResolver, its batch size is the page size
+	  * @return Stream of users
+	  */
+	 public Stream<User> streamMembers(LdapConnection conn, MemberResolver resolver) {
+		 return stream(memberIterator(conn, resolver));
+	 }
+	 
+	 /**
+	  * Finds the members of the group as read only views, only the attributes of {@link UserView#ATTRIBUTES} are requested.
+	  * @param conn LdapConnection
+	  * @return List of views, members that do not exist are skipped
+	  * @throws LdapException
+	  */
+	 public List<UserView> getMemberViews(LdapConnection conn) throws LdapException {
+		 List<Entry> entries = viewResolver(MemberResolver.DEFAULT_BATCH_SIZE).resolve(getMemberDns(), conn);
+		 List<UserView> result = new ArrayList<UserView>(entries.size());
+		 
+		 for(Entry entry : entries) {
+			 if(MemberResolver.isUser(entry)) {
+				 result.add(new UserView(entry));
+			 }
+		 }
+		 
+		 return result;
+	 }
+	 
+	 /**
+	  * Stream of the members of the group as read only views, resolved lazily one page at a time.
+	  * @param conn LdapConnection, it must stay open while the stream is consumed
+	  * @param pageSize number of members resolved by each search
+	  * @return Stream of views
+	  */
+	 public Stream<UserView> streamMemberViews(LdapConnection conn, int pageSize) {
+		 return stream(new MemberIterator<UserView>(ldapEntry.get("uniquemember"), viewResolver(pageSize), conn, UserView::new));
+	 }
+	 
+	 private MemberResolver viewResolver(int batchSize) {
+		 return new MemberResolver().setBatchSize(batchSize).setAttributes(UserView.ATTRIBUTES);
+	 }
+	 
+	 private <T> Stream<T> stream(MemberIterator<T> iterator) {
+		 return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				 .onClose(iterator::close);
+	 }
+	 
+	 private List<User> toUsers(List<Entry> entries) throws LdapException {
+		 List<User> result = new ArrayList<User>(entries.size());
+		 
+		 for(Entry entry : entries) {
+			 if(MemberResolver.isUser(entry)) {
+				 result.add(new User(entry));
+			 }else {
+				 log.debug("Group member is not a user. $member: {}", entry.getDn());
+			 }
+		 }
+		 
+		 return result;
+	 }
+	 
+	 /**
+	  * @return Dn of every uniqueMember value of the group. Values that are not a valid Dn are skipped.
+	  */
+	 public List<Dn> getMemberDns() {
+		 Attribute members = ldapEntry.get("uniquemember");
+		 List<Dn> result = new ArrayList<Dn>(members == null ? 0 : members.size());
+		 
+		 if(members != null) {
+			 for(Value<?> val : members) {
+				 try {
+					 result.add(new Dn(val.getString()));
+				 } catch (LdapInvalidDnException e) {
+					 log.warn("Invalid member of group. $group: {} - $member: {}", getGroupName(), val.getString());
+				 }
+			 }
+		 }
+		 
+		 return result;
+	 }
+	 
 	 public Group removeMember(String username, LdapConnection conn) throws LdapException { 
 		 User user = new User(username, conn);
 		 removeMember(user, conn);
@@ -254,13 +546,15 @@ public class Group implements Serializable, FormBeanInterface, LdapEntity {
 	 
 	 public Group removeMember(Dn member, LdapConnection conn) {
 		 String username = member.getRdn(0).getValue();
-		 log.info("Removing user from group. $group: {} - $user: {}", getGroupName(), username);
+		 log.debug("Removing user from group. $group: {} - $user: {}", ldapEntry.getDn(), username);
 		 
-		 if(ldapEntry.contains("uniquemember", member.getName())) {
-			 if(ldapEntry.get("owner").contains(member.getName())) {
+		 String key = Ldap.normalize(member);
+		 
+		 if(members().containsKey(key)) {
+			 if(owners().contains(key)) {
 				 addError("member" , "Member, " + username + ", is owner of the group and it can't be removed");
 			 }else {
-				 Modification modi = new DefaultModification(ModificationOperation.REMOVE_ATTRIBUTE, "uniquemember", member.getName());
+				 Modification modi = new DefaultModification(ModificationOperation.REMOVE_ATTRIBUTE, "uniquemember", members().remove(key));
 				 modifications.add(modi);
 			 }
 		 }else {
@@ -270,6 +564,96 @@ public class Group implements Serializable, FormBeanInterface, LdapEntity {
 		 return this;
 	 }
 	 	 
+	 /**
+	  * Removes many members with one REMOVE modification. Members that are not in the group or own it
+	  * are reported in {@link #getErrors()}, the others are removed anyway.
+	  * @param members Dn of the members
+	  * @return this
+	  */
+	 public Group removeMembers(Collection<Dn> members) {
+		 Map<String, String> current = members();
+		 Set<String> owners = owners();
+		 List<String> values = new ArrayList<String>();
+		 
+		 for(Dn member : members) {
+			 if(member == null || member.isEmpty()) {
+				 continue;
+			 }
+			 
+			 String username = member.getRdn(0).getValue();
+			 String key = Ldap.normalize(member);
+			 
+			 if(current.containsKey(key)) {
+				 if(owners.contains(key)) {
+					 addError("member" , "Member, " + username + ", is owner of the group and it can't be removed");
+				 }else {
+					 values.add(current.remove(key));
+				 }
+			 }else {
+				 addError("member", "Member, " + username + ", does not exist in group, " + getGroupName());
+			 }
+		 }
+		 
+		 if(!values.isEmpty()) {
+			 modifications.add(new DefaultModification(ModificationOperation.REMOVE_ATTRIBUTE, "uniquemember", values.toArray(new String[values.size()])));
+		 }
+		 
+		 return this;
+	 }
+	 
+	 /**
+	  * @param member Dn of a user or a group, compared normalized so spacing and case do not matter
+	  * @return true if member is a member of the group, including members added and not saved yet
+	  */
+	 public boolean hasMember(Dn member) {
+		 return members().containsKey(Ldap.normalize(member));
+	 }
+	 
+	 /**
+	  * Members of the group keyed by normalized Dn, built from the entry the first time it is needed and kept
+	  * up to date by the add and remove methods, so membership checks do not scan the values of the entry.
+	  * @return map of normalized Dn to the value as written in uniqueMember
+	  */
+	 private Map<String, String> members() {
+		 Map<String, String> result = members;
+		 
+		 if(result == null) {
+			 Attribute uniqueMembers = ldapEntry.get("uniquemember");
+			 result = new HashMap<String, String>(uniqueMembers == null ? 16 : uniqueMembers.size() * 4 / 3 + 1);
+			 
+			 if(uniqueMembers != null) {
+				 for(Value<?> val : uniqueMembers) {
+					 try {
+						 result.put(Ldap.normalize(new Dn(val.getString())), val.getString());
+					 } catch (LdapInvalidDnException e) {
+						 log.warn("Invalid member of group. $group: {} - $member: {}", ldapEntry.getDn(), val.getString());
+					 }
+				 }
+			 }
+			 
+			 members = result;
+		 }
+		 
+		 return result;
+	 }
+	 
+	 private Set<String> owners() {
+		 Set<String> result = new HashSet<String>();
+		 Attribute owner = ldapEntry.get("owner");
+		 
+		 if(owner != null) {
+			 for(Value<?> val : owner) {
+				 try {
+					 result.add(Ldap.normalize(new Dn(val.getString())));
+				 } catch (LdapInvalidDnException e) {
+					 log.warn("Invalid owner of group. $group: {} - $owner: {}", ldapEntry.getDn(), val.getString());
+				 }
+			 }
+		 }
+		 
+		 return result;
+	 }
+	 
 	 public String getGroupName() {
 		 return this.getLdapEntry().getDn().getRdn(0).getValue();
 	 }
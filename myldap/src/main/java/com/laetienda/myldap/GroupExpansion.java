@@ -0,0 +1,68 @@
+package com.laetienda.myldap;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+
+/**
+ * Effective members of a group found by {@link NestedGroupResolver}: the members that are not groups,
+ * directly or through nested groups, each one once.
+ */
+public class GroupExpansion {
+
+	private final Dn groupDn;
+	private final List<Dn> userDns;
+	private final List<Dn> groupDns;
+	private final List<Dn> cycles;
+	private final int depth;
+	private final boolean truncated;
+
+	GroupExpansion(Dn groupDn, List<Dn> userDns, List<Dn> groupDns, List<Dn> cycles, int depth, boolean truncated) {
+		this.groupDn = groupDn;
+		this.userDns = Collections.unmodifiableList(userDns);
+		this.groupDns = Collections.unmodifiableList(groupDns);
+		this.cycles = Collections.unmodifiableList(cycles);
+		this.depth = depth;
+		this.truncated = truncated;
+	}
+
+	public Dn getGroupDn() {
+		return groupDn;
+	}
+
+	/**
+	 * @return Dn of the members that are not groups, in the order they were reached
+	 */
+	public List<Dn> getUserDns() {
+		return userDns;
+	}
+
+	/**
+	 * @return Dn of the nested groups reached, the group itself is not included
+	 */
+	public List<Dn> getGroupDns() {
+		return groupDns;
+	}
+
+	/**
+	 * @return Dn of the groups that are members of one of their own nested groups. Each cycle was followed once.
+	 */
+	public List<Dn> getCycles() {
+		return cycles;
+	}
+
+	/**
+	 * @return number of nesting levels followed, 0 when the group has no nested groups
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @return true if there were nested groups deeper than {@link NestedGroupResolver#getMaxDepth()}, their members are missing
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+}
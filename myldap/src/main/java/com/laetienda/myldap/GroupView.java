@@ -0,0 +1,65 @@
+package com.laetienda.myldap;
+
+import java.io.Serializable;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
+import org.apache.directory.api.ldap.model.name.Dn;
+
+/**
+ * Read only projection of a group with its name, description and owner, without its members.
+ * It is immutable, it can be cached and shared between threads. Search with {@link #ATTRIBUTES} so the
+ * server does not return the uniqueMember values. Use {@link Group} to modify the entry.
+ */
+public final class GroupView implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/** Attributes requested for a view */
+	public static final String[] ATTRIBUTES = { "cn", "description", "owner" };
+
+	private final Dn dn;
+	private final String name;
+	private final String description;
+	private final String owner;
+
+	public GroupView(Entry entry) throws LdapInvalidAttributeValueException {
+		this.dn = entry.getDn();
+		this.name = UserView.value(entry, "cn");
+		this.description = UserView.value(entry, "description");
+		this.owner = UserView.value(entry, "owner");
+	}
+
+	public Dn getDn() {
+		return dn;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	/**
+	 * @return Dn of the owner as a String, empty if the group has no owner
+	 */
+	public String getOwner() {
+		return owner;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof GroupView && Ldap.normalize(dn).equals(Ldap.normalize(((GroupView)obj).dn));
+	}
+
+	@Override
+	public int hashCode() {
+		return Ldap.normalize(dn).hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "GroupView $name: " + name + " - $owner: " + owner;
+	}
+}
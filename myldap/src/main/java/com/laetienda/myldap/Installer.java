@@ -1,13 +1,40 @@
 package com.laetienda.myldap;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.ldap.client.api.LdapConnection;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+/**
+ * Creates the base structure of a domain, the domain entry, ou=People and ou=groups, and loads LDIF files into it.
+ * Every step can run again: entries that exist are left as they are and an interrupted load resumes from its checkpoint.
+ */
 public class Installer {
 	final static Logger log = LogManager.getLogger(Installer.class);
 	
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private final BulkImporter importer = new BulkImporter().setIgnoreExisting(true);
+	
+	/**
+	 * @return BulkImporter used by {@link #load(Path, LdapPool)}, set its window, connections and intervals before loading, its checkpoint is not used
+	 */
+	public BulkImporter getImporter() {
+		return importer;
+	}
+	
 	public void install(String address, int port, String domain, String user, String password) throws LdapException {
 		log.info("Installing LDAP directory...");
 		
@@ -15,8 +42,7 @@ public class Installer {
 		LdapConnection conn = null;
 		try {
 			conn = ldapManager.getLdapConnection(address, port, domain, user, password);
-			
-			log.info("... LDAP directory installed succesfully");
+			createBase(LdapManager.getDomainDn(), conn);
 		} catch (LdapException e) {
 			log.error("Failed to install LDAP directory");
 			throw e;
@@ -26,17 +52,111 @@ public class Installer {
 				
 		log.info("... LDAP Directory has been installed succesfully");
 	}
+	
+	/**
+	 * Installs the base structure and loads an LDIF file, see {@link #load(Path, LdapPool)}.
+	 * @return BulkResult of the load
+	 */
+	public BulkResult install(String address, int port, String domain, String user, String password, Path ldif) throws LdapException {
+		install(address, port, domain, user, password);
+		
+		try {
+			return load(ldif, new LdapManager().getLdapPool(address, port, new Dn(domain), new Dn(user), password));
+		} catch (LdapInvalidDnException e) {
+			log.error("Invalid user format. $user: {}", user);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Adds the domain entry, ou=People and ou=groups when they do not exist.
+	 * @param domainDn Dn of the domain, a dc, o or ou entry
+	 * @param conn LdapConnection of an account that can add entries
+	 * @return number of entries added, 0 when the structure was already there
+	 * @throws LdapException
+	 */
+	public int createBase(Dn domainDn, LdapConnection conn) throws LdapException {
+		log.info("Creating base entries. $domain: {}", domainDn);
+		
+		DirectoryBase base = new DirectoryBase(domainDn);
+		String type = domainDn.getRdn().getType();
+		String objectClass = "dc".equalsIgnoreCase(type) ? "domain" : "o".equalsIgnoreCase(type) ? "organization" : "organizationalUnit";
+		int result = 0;
+		
+		result += add(conn, new DefaultEntry(domainDn, "objectClass: top", "objectClass: " + objectClass, type + ": " + domainDn.getRdn().getValue()));
+		result += add(conn, new DefaultEntry(base.getPeopleDn(), "objectClass: top", "objectClass: organizationalUnit", "ou: People"));
+		result += add(conn, new DefaultEntry(base.getGroupsDn(), "objectClass: top", "objectClass: organizationalUnit", "ou: groups"));
+		
+		log.info("... base entries created succesfully. $added: {}", result);
+		return result;
+	}
+	
+	private int add(LdapConnection conn, DefaultEntry entry) throws LdapException {
+		if(conn.exists(entry.getDn())) {
+			log.debug("Base entry already exists. $dn: {}", entry.getDn());
+			return 0;
+		}
+		
+		conn.add(entry);
+		return 1;
+	}
+	
+	/**
+	 * Streams an LDIF file into the directory, it is never loaded in memory. Files ending in .gz are decompressed
+	 * while they are read. The checkpoint is the file name plus ".checkpoint", so running the same load again after
+	 * a failure resumes where it stopped. A checkpoint set on the importer is ignored, every file keeps its own.
+	 * @param ldif LDIF file
+	 * @param pool LdapPool of an account that can add entries
+	 * @return BulkResult
+	 * @throws LdapException if the file can't be read or connections can't be borrowed
+	 */
+	public BulkResult load(Path ldif, LdapPool pool) throws LdapException {
+		log.info("Loading LDIF file. $file: {}", ldif);
+		
+		if(importer.getCheckpoint() != null) {
+			log.warn("Checkpoint of the importer is ignored, every LDIF file has its own. $checkpoint: {}", importer.getCheckpoint());
+		}
+		
+		try(InputStream input = open(ldif)) {
+			BulkResult result = importer.importLdif(input, pool, ldif.resolveSibling(ldif.getFileName() + ".checkpoint"));
+			log.info("... LDIF file loaded. $added: {} - $failed: {} - $skipped: {} - $entriesPerSecond: {}",
+					result.getSucceeded(), result.getFailed(), result.getSkipped(), (long)result.getEntriesPerSecond());
+			return result;
+		} catch (IOException e) {
+			log.error("Failed to read LDIF file. $file: {} - $error: {}", ldif, e.getMessage());
+			throw new LdapOtherException("Failed to read LDIF file " + ldif, e);
+		}
+	}
+	
+	private InputStream open(Path ldif) throws IOException {
+		InputStream result = new BufferedInputStream(Files.newInputStream(ldif), BUFFER_SIZE);
+		
+		if(ldif.getFileName().toString().endsWith(".gz")) {
+			result = new GZIPInputStream(result, BUFFER_SIZE);
+		}
+		
+		return result;
+	}
 
+	/**
+	 * @param args optional LDIF file loaded after the base structure is created
+	 */
 	public static void main(String[] args) {
 		log.info("Running LDAP installer is starting....");
 		
 		Installer installer = new Installer();
 		
 		try {
-			installer.install("homeServer3.la-etienda.com", 636, "dc=example, dc=com", "cn=admin,dc=example,dc=com", "Welcome1");
+			if(args.length > 0) {
+				installer.install("homeServer3.la-etienda.com", 636, "dc=example, dc=com", "cn=admin,dc=example,dc=com", "Welcome1", Paths.get(args[0]));
+			}else {
+				installer.install("homeServer3.la-etienda.com", 636, "dc=example, dc=com", "cn=admin,dc=example,dc=com", "Welcome1");
+			}
 			log.info("...LDAP installer finish succesfully");
 		} catch (LdapException e) {
 			log.error("Failed to install LDAP", e);
+		} finally {
+			LdapManager.closePools();
 		}
 	}
 }
@@ -0,0 +1,213 @@
+package com.laetienda.myldap;
+
+import org.apache.directory.api.ldap.model.cursor.EntryCursor;
+import org.apache.directory.api.ldap.model.cursor.SearchCursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.AddRequest;
+import org.apache.directory.api.ldap.model.message.AddResponse;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.BindRequest;
+import org.apache.directory.api.ldap.model.message.BindResponse;
+import org.apache.directory.api.ldap.model.message.CompareRequest;
+import org.apache.directory.api.ldap.model.message.CompareResponse;
+import org.apache.directory.api.ldap.model.message.Control;
+import org.apache.directory.api.ldap.model.message.DeleteRequest;
+import org.apache.directory.api.ldap.model.message.DeleteResponse;
+import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.ModifyResponse;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.ResultResponse;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.EntryCursorImpl;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapConnectionWrapper;
+
+/**
+ * Connection handed out by {@link LdapManager} when metrics are enabled. Every synchronous operation is
+ * timed and reported to {@link LdapMetrics}, the operations not overridden here go straight to the pooled connection.
+ */
+public class InstrumentedLdapConnection extends LdapConnectionWrapper {
+
+	private final LdapMetrics metrics;
+
+	public InstrumentedLdapConnection(LdapConnection connection, LdapMetrics metrics) {
+		super(connection);
+		this.metrics = metrics;
+	}
+
+	private interface Call<T> {
+		T call() throws LdapException;
+	}
+
+	private <T> T time(LdapOperation operation, Call<T> call) throws LdapException {
+		long start = System.nanoTime();
+		boolean failed = true;
+
+		try {
+			T result = call.call();
+			failed = result instanceof ResultResponse && !isSuccess(((ResultResponse)result).getLdapResult().getResultCode());
+			return result;
+		} finally {
+			metrics.record(operation, System.nanoTime() - start, failed);
+		}
+	}
+
+	private boolean isSuccess(ResultCodeEnum resultCode) {
+		return resultCode == ResultCodeEnum.SUCCESS || resultCode == ResultCodeEnum.COMPARE_TRUE || resultCode == ResultCodeEnum.COMPARE_FALSE;
+	}
+
+	@Override
+	public void bind() throws LdapException {
+		time(LdapOperation.BIND, () -> { connection.bind(); return null; });
+	}
+
+	@Override
+	public void anonymousBind() throws LdapException {
+		time(LdapOperation.BIND, () -> { connection.anonymousBind(); return null; });
+	}
+
+	@Override
+	public void bind(String name, String credentials) throws LdapException {
+		time(LdapOperation.BIND, () -> { connection.bind(name, credentials); return null; });
+	}
+
+	@Override
+	public void bind(Dn name, String credentials) throws LdapException {
+		time(LdapOperation.BIND, () -> { connection.bind(name, credentials); return null; });
+	}
+
+	@Override
+	public BindResponse bind(BindRequest bindRequest) throws LdapException {
+		return time(LdapOperation.BIND, () -> connection.bind(bindRequest));
+	}
+
+	@Override
+	public Entry lookup(Dn dn) throws LdapException {
+		return time(LdapOperation.LOOKUP, () -> connection.lookup(dn));
+	}
+
+	@Override
+	public Entry lookup(String dn) throws LdapException {
+		return time(LdapOperation.LOOKUP, () -> connection.lookup(dn));
+	}
+
+	@Override
+	public Entry lookup(Dn dn, String... attributes) throws LdapException {
+		return time(LdapOperation.LOOKUP, () -> connection.lookup(dn, attributes));
+	}
+
+	@Override
+	public Entry lookup(String dn, String... attributes) throws LdapException {
+		return time(LdapOperation.LOOKUP, () -> connection.lookup(dn, attributes));
+	}
+
+	@Override
+	public Entry lookup(Dn dn, Control[] controls, String... attributes) throws LdapException {
+		return time(LdapOperation.LOOKUP, () -> connection.lookup(dn, controls, attributes));
+	}
+
+	@Override
+	public boolean exists(Dn dn) throws LdapException {
+		return time(LdapOperation.EXISTS, () -> connection.exists(dn));
+	}
+
+	@Override
+	public boolean exists(String dn) throws LdapException {
+		return time(LdapOperation.EXISTS, () -> connection.exists(dn));
+	}
+
+	@Override
+	public SearchCursor search(SearchRequest searchRequest) throws LdapException {
+		long start = System.nanoTime();
+
+		try {
+			return new TimedSearchCursor(connection.search(searchRequest), metrics, start);
+		} catch (LdapException | RuntimeException e) {
+			metrics.record(LdapOperation.SEARCH, System.nanoTime() - start, true);
+			throw e;
+		}
+	}
+
+	@Override
+	public EntryCursor search(Dn baseDn, String filter, SearchScope scope, String... attributes) throws LdapException {
+		SearchRequest request = new SearchRequestImpl();
+		request.setBase(baseDn);
+		request.setFilter(filter);
+		request.setScope(scope);
+		request.addAttributes(attributes);
+		request.setDerefAliases(AliasDerefMode.DEREF_ALWAYS);
+
+		return new EntryCursorImpl(search(request));
+	}
+
+	@Override
+	public EntryCursor search(String baseDn, String filter, SearchScope scope, String... attributes) throws LdapException {
+		return search(new Dn(baseDn), filter, scope, attributes);
+	}
+
+	@Override
+	public void add(Entry entry) throws LdapException {
+		time(LdapOperation.ADD, () -> { connection.add(entry); return null; });
+	}
+
+	@Override
+	public AddResponse add(AddRequest addRequest) throws LdapException {
+		return time(LdapOperation.ADD, () -> connection.add(addRequest));
+	}
+
+	@Override
+	public void modify(Dn dn, Modification... modifications) throws LdapException {
+		time(LdapOperation.MODIFY, () -> { connection.modify(dn, modifications); return null; });
+	}
+
+	@Override
+	public void modify(String dn, Modification... modifications) throws LdapException {
+		time(LdapOperation.MODIFY, () -> { connection.modify(dn, modifications); return null; });
+	}
+
+	@Override
+	public void modify(Entry entry, ModificationOperation modOp) throws LdapException {
+		time(LdapOperation.MODIFY, () -> { connection.modify(entry, modOp); return null; });
+	}
+
+	@Override
+	public ModifyResponse modify(ModifyRequest modRequest) throws LdapException {
+		return time(LdapOperation.MODIFY, () -> connection.modify(modRequest));
+	}
+
+	@Override
+	public void delete(Dn dn) throws LdapException {
+		time(LdapOperation.DELETE, () -> { connection.delete(dn); return null; });
+	}
+
+	@Override
+	public void delete(String dn) throws LdapException {
+		time(LdapOperation.DELETE, () -> { connection.delete(dn); return null; });
+	}
+
+	@Override
+	public DeleteResponse delete(DeleteRequest deleteRequest) throws LdapException {
+		return time(LdapOperation.DELETE, () -> connection.delete(deleteRequest));
+	}
+
+	@Override
+	public boolean compare(Dn dn, String attributeName, String value) throws LdapException {
+		return time(LdapOperation.COMPARE, () -> connection.compare(dn, attributeName, value));
+	}
+
+	@Override
+	public boolean compare(String dn, String attributeName, String value) throws LdapException {
+		return time(LdapOperation.COMPARE, () -> connection.compare(dn, attributeName, value));
+	}
+
+	@Override
+	public CompareResponse compare(CompareRequest compareRequest) throws LdapException {
+		return time(LdapOperation.COMPARE, () -> connection.compare(compareRequest));
+	}
+}
@@ -1,32 +1,65 @@
 package com.laetienda.myldap;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.filter.FilterEncoder;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.ModifyRequestImpl;
+import org.apache.directory.api.ldap.model.message.ModifyResponse;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapAsyncConnection;
 import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.future.ModifyFuture;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 public class Ldap {
 	private final static Logger log = LogManager.getLogger(Ldap.class);
+	private final static int VIEW_PAGE_SIZE = 500;
 	
 	public Ldap() {
 
 	}
 	
+	/**
+	 * Parses a Dn through the {@link DnFactory} of the domain, so Dns built often are parsed once when its cache is enabled.
+	 * @param dn Dn with its values escaped
+	 * @return Dn
+	 * @throws LdapInvalidDnException
+	 */
 	public Dn buildDn(String dn) throws LdapInvalidDnException {
-		log.info("Building Dn object. $dn: {}", dn);
+		log.trace("Building Dn object. $dn: {}", dn);
 		Dn result = null;
 		
 		try {
-			result = new Dn(dn);
+			DirectoryBase base = LdapManager.getDirectoryBase();
+			result = base == null ? new Dn(dn) : base.getDnFactory().parse(dn);
 		} catch (LdapInvalidDnException e) {
-			log.warn("Failed to create Dn.");
+			log.warn("Failed to create Dn. $dn: {}", dn);
 			throw e;
 		}
 		
@@ -39,10 +72,10 @@ public class Ldap {
 	 * @throws LdapException
 	 */
 	public void insertLdapEntity(LdapEntity ldapEntity, LdapConnection conn) throws LdapException {
-		log.info("Inserting LdapEntity into ldap...");
+		log.debug("Inserting LdapEntity into ldap...");
 		
 		try {
-			log.debug("LdapEntity Dn. $dn: {}", ldapEntity.getLdapEntry().getDn().getName());
+			log.debug("LdapEntity Dn. $dn: {}", ldapEntity.getLdapEntry().getDn());
 			
 			if(log.isDebugEnabled()) {
 				Iterator<Attribute> iterator = ldapEntity.getLdapEntry().getAttributes().iterator();
@@ -55,8 +88,15 @@ public class Ldap {
 			if(ldapEntity.getErrors().size() > 0 ) {
 				log.warn("LdapEntity was not added. User input not valid");
 			}else {
+				added(ldapEntity.getLdapEntry());
 				conn.add(ldapEntity.getLdapEntry());
-				log.info("... LdapEntity has been inserted into ldap succesfully");
+				invalidate(ldapEntity.getLdapEntry().getDn());
+				
+				MembershipIndex index = LdapManager.getMembershipIndex();
+				if(index != null) {
+					index.groupAdded(ldapEntity.getLdapEntry());
+				}
+				log.debug("... LdapEntity has been inserted into ldap succesfully");
 			}
 		} catch (LdapException e) {
 			log.error("Failed to insert LdapEntity into ldap");
@@ -86,7 +126,7 @@ public class Ldap {
 	public User findUser(Dn dn, LdapConnection conn) throws Exception{
 		User result = null;
 		try {
-			Entry entry = conn.lookup(dn);
+			Entry entry = lookup(dn, conn);
 			result = new User(entry);
 		} catch (Exception e) {
 			log.warn("Failed to find user");
@@ -97,53 +137,357 @@ public class Ldap {
 	}
 	
 	/**
-	 * 
+	 * Sends the modifications of the entity in one modify request, see {@link ModificationCoalescer}.
 	 * @param ldapEnity
 	 * @param conn
 	 * @throws LdapException
 	 */
 	public void modify(LdapEntity ldapEnity, LdapConnection conn) throws LdapException {
-		log.info("Modifying LdapEntity in ldap...");
+		modify(ldapEnity, Integer.MAX_VALUE, conn);
+	}
+	
+	/**
+	 * Sends the modifications of the entity in as few modify requests as possible with at most maxValues
+	 * attribute values in each one, see {@link ModificationCoalescer#chunk(List, int)}. Use it for changes
+	 * too large for one request, like adding thousands of members to a group.
+	 * If a request fails the previous ones stay applied and the modifications of the entity are not cleared.
+	 * @param ldapEnity
+	 * @param maxValues maximum number of values in one modify request
+	 * @param conn
+	 * @throws LdapException
+	 */
+	public void modify(LdapEntity ldapEnity, int maxValues, LdapConnection conn) throws LdapException {
+		log.debug("Modifying LdapEntity in ldap...");
 		try {
 			
 			if(ldapEnity.getErrors().size() > 0) {
 				log.warn("Failed to modify LdapEntity due to invalid user input");
 			}else {
+				Dn dn = ldapEnity.getLdapEntry().getDn();
 				
-				for(Modification modification : ldapEnity.getModifications()) {
-					conn.modify(ldapEnity.getLdapEntry().getDn(), modification);
+				for(List<Modification> chunk : ModificationCoalescer.chunk(ModificationCoalescer.coalesce(ldapEnity.getModifications()), maxValues)) {
+					ModifyRequest request = new ModifyRequestImpl();
+					request.setName(dn);
+					
+					for(Modification modification : chunk) {
+						request.addModification(modification);
+					}
+					
+					modifying(dn, chunk);
+					ResultCodeEnum.processResponse(conn.modify(request));
+					modified(dn, chunk);
 				}
 				
 				ldapEnity.clearModifications();
 				
-				log.info("... LdapEntity has been modifying succesfully");
+				log.debug("... LdapEntity has been modifying succesfully");
 			}
 		} catch (LdapException e) {
 			log.error("Failed to modify LdapEntity in ldap");
 			throw e;
+		} finally {
+			invalidate(ldapEnity.getLdapEntry().getDn());
+		}
+	}
+	
+	/**
+	 * Modifies many entities pipelining the modify requests. At most window requests wait for a response at any time.
+	 * Entities with errors are not sent. The modifications of the entities that succeed are cleared.
+	 * @param entities LdapEntity objects to modify
+	 * @param window maximum number of requests sent and not answered yet
+	 * @param conn LdapConnection
+	 * @return BulkResult with the outcome of every entity
+	 * @throws LdapException if the connection does not support asynchronous operations
+	 */
+	public BulkResult modify(Collection<? extends LdapEntity> entities, int window, LdapConnection conn) throws LdapException {
+		log.debug("Modifying LdapEntities in ldap...");
+		
+		LdapAsyncConnection async = LdapManager.toAsync(conn);
+		BulkResult result = new BulkResult();
+		Deque<LdapEntity> sentEntities = new ArrayDeque<LdapEntity>(window);
+		Deque<ModifyFuture> sent = new ArrayDeque<ModifyFuture>(window);
+		Deque<Long> sentAt = new ArrayDeque<Long>(window);
+		
+		try {
+			for(LdapEntity entity : entities) {
+				Dn dn = entity.getLdapEntry().getDn();
+				
+				if(entity.getErrors().size() > 0) {
+					result.record(dn, "Invalid user input: " + entity.getErrors());
+					continue;
+				}
+				
+				ModifyRequest request = modifyRequest(entity);
+				
+				if(request.getModifications().isEmpty()) {
+					result.record(dn, null);
+					continue;
+				}
+				
+				if(sent.size() == window) {
+					complete(sentEntities.poll(), sent.poll(), sentAt.poll(), async.getConfig().getTimeout(), result);
+				}
+				
+				modifying(dn, request.getModifications());
+				sentAt.add(System.nanoTime());
+				sent.add(async.modifyAsync(request));
+				sentEntities.add(entity);
+			}
+			
+			while(!sent.isEmpty()) {
+				complete(sentEntities.poll(), sent.poll(), sentAt.poll(), async.getConfig().getTimeout(), result);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			result.addError("Modification interrupted");
+		}
+		
+		result.finish();
+		log.info("... LdapEntities modified. $modified: {} - $failed: {}", result.getSucceeded(), result.getFailed());
+		
+		return result;
+	}
+	
+	private ModifyRequest modifyRequest(LdapEntity ldapEntity) {
+		ModifyRequest result = new ModifyRequestImpl();
+		result.setName(ldapEntity.getLdapEntry().getDn());
+		
+		for(Modification modification : ModificationCoalescer.coalesce(ldapEntity.getModifications())) {
+			result.addModification(modification);
+		}
+		
+		return result;
+	}
+	
+	private void complete(LdapEntity entity, ModifyFuture future, long start, long timeoutMillis, BulkResult result) throws InterruptedException {
+		Dn dn = entity.getLdapEntry().getDn();
+		ModifyResponse response = future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		invalidate(dn);
+		LdapManager.record(LdapOperation.MODIFY, start, response == null || response.getLdapResult().getResultCode() != ResultCodeEnum.SUCCESS);
+		
+		if(response == null) {
+			future.cancel(true);
+			result.record(dn, "No response from ldap server");
+		}else if(response.getLdapResult().getResultCode() == ResultCodeEnum.SUCCESS) {
+			modified(dn, ModificationCoalescer.coalesce(entity.getModifications()));
+			entity.clearModifications();
+			result.record(dn, null);
+		}else {
+			result.record(dn, response.getLdapResult().getResultCode() + ": " + response.getLdapResult().getDiagnosticMessage());
 		}
 	}
 	
 	public void ldapEntity(LdapEntity ldapEntity, LdapConnection conn) throws LdapException {
-		log.info("removing LdapEntity from ldap...");
+		log.debug("removing LdapEntity from ldap...");
 		
 		try {
 			conn.delete(ldapEntity.getLdapEntry().getDn());
-			log.info("...LdapEntity removed form LDAP succesfully");
+			invalidate(ldapEntity.getLdapEntry().getDn());
+			
+			MembershipIndex index = LdapManager.getMembershipIndex();
+			if(index != null) {
+				index.invalidate(ldapEntity.getLdapEntry().getDn());
+				index.groupDeleted(ldapEntity.getLdapEntry().getDn());
+			}
+			log.debug("...LdapEntity removed form LDAP succesfully");
 		} catch (LdapException e) {
-			log.info("failed to remove user from LDAP");
+			log.warn("failed to remove user from LDAP");
 			throw e;
 		}
 	}
 	
+	/**
+	 * Looks up an entry through the entry cache when it is enabled, see {@link LdapManager#setEntryCache(EntryCache)}.
+	 * The cache is scoped by the identity conn is bound with, connections not given by {@link LdapManager} are not cached.
+	 * Entries known not to exist are not looked up, see {@link LdapManager#setNegativeCache(NegativeCache)}.
+	 * @param dn Dn of the entry
+	 * @param conn LdapConnection
+	 * @return the entry or null if it does not exist
+	 * @throws LdapException
+	 */
+	public Entry lookup(Dn dn, LdapConnection conn) throws LdapException {
+		EntryCache cache = LdapManager.getEntryCache();
+		String scope = cache == null ? null : LdapManager.scope(conn);
+		Entry result = scope == null ? null : cache.get(scope, dn);
+		
+		if(result == null) {
+			long version = scope == null ? 0 : cache.stamp();
+			NegativeCache negative = LdapManager.getNegativeCache();
+			
+			if(negative == null) {
+				result = conn.lookup(dn);
+			}else if(!negative.isMissing(dn)) {
+				long stamp = negative.stamp();
+				result = conn.lookup(dn);
+				
+				if(result == null) {
+					negative.missing(dn, stamp);
+				}
+			}
+			
+			if(result != null && scope != null) {
+				cache.put(scope, dn, result, version);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Same as {@link LdapConnection#exists(Dn)}, entries known not to exist are answered without asking the server,
+	 * see {@link LdapManager#setNegativeCache(NegativeCache)}.
+	 * @param dn Dn of the entry
+	 * @param conn LdapConnection
+	 * @return true if the entry exists
+	 * @throws LdapException
+	 */
+	public boolean exists(Dn dn, LdapConnection conn) throws LdapException {
+		NegativeCache negative = LdapManager.getNegativeCache();
+		
+		if(negative == null) {
+			return conn.exists(dn);
+		}
+		
+		if(negative.isMissing(dn)) {
+			return false;
+		}
+		
+		long stamp = negative.stamp();
+		boolean result = conn.exists(dn);
+		
+		if(!result) {
+			negative.missing(dn, stamp);
+		}
+		
+		return result;
+	}
+	
+	void invalidate(Dn dn) {
+		EntryCache cache = LdapManager.getEntryCache();
+		NegativeCache negative = LdapManager.getNegativeCache();
+		CredentialCache credentials = LdapManager.getCredentialCache();
+		
+		if(cache != null) {
+			cache.invalidate(dn);
+		}
+		
+		if(negative != null) {
+			negative.invalidate(dn);
+		}
+		
+		if(credentials != null) {
+			credentials.invalidate(dn);
+		}
+	}
+	
+	/**
+	 * Makes an entry about to be added known to the negative cache, so it is never answered missing once it exists.
+	 */
+	void added(Entry entry) {
+		NegativeCache negative = LdapManager.getNegativeCache();
+		
+		if(negative != null) {
+			negative.added(entry);
+		}
+	}
+	
+	/**
+	 * Emails set by the modifications are made known to the negative cache before they are sent.
+	 */
+	void modifying(Dn dn, Collection<Modification> modifications) {
+		NegativeCache negative = LdapManager.getNegativeCache();
+		
+		if(negative != null) {
+			negative.modified(dn, modifications);
+		}
+	}
+	
+	void modified(Dn dn, List<Modification> modifications) {
+		MembershipIndex index = LdapManager.getMembershipIndex();
+		
+		if(index != null) {
+			index.modified(dn, modifications);
+		}
+	}
+	
+	/**
+	 * Finds the groups a user or group is a direct member of, through the membership index when it is enabled,
+	 * see {@link LdapManager#setMembershipIndex(MembershipIndex)}. Without the index it is one search under
+	 * ou=groups that returns no attributes.
+	 * @param member Dn of the user
+	 * @param conn LdapConnection
+	 * @return Dns of the groups, do not modify the list
+	 * @throws LdapException
+	 */
+	public Collection<Dn> findGroupDns(Dn member, LdapConnection conn) throws LdapException {
+		MembershipIndex index = LdapManager.getMembershipIndex();
+		Collection<Dn> result = index == null ? null : index.get(member);
+		
+		if(result == null) {
+			List<Dn> temp = new ArrayList<Dn>();
+			
+			for(Entry entry : search(searchRequest(LdapManager.getDirectoryBase().getGroupsDn(), memberFilter(member), SearchScope.ONELEVEL, "1.1"), conn)) {
+				temp.add(entry.getDn());
+			}
+			
+			result = Collections.unmodifiableList(temp);
+			
+			if(index != null) {
+				index.put(member, result);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Finds the groups a user or group is a direct member of as read only views.
+	 * Always searches ldap because the index only keeps the Dns of the groups.
+	 * @param member Dn of the user
+	 * @param conn LdapConnection
+	 * @return List of views in the order returned by the server
+	 * @throws LdapException
+	 */
+	public List<GroupView> findGroupViews(Dn member, LdapConnection conn) throws LdapException {
+		return findGroupViews(memberFilter(member), conn);
+	}
+	
+	/**
+	 * @param member Dn of the user
+	 * @param group Dn of the group
+	 * @param conn LdapConnection
+	 * @return true if member is a direct member of group
+	 * @throws LdapException
+	 */
+	public boolean isMember(Dn member, Dn group, LdapConnection conn) throws LdapException {
+		MembershipIndex index = LdapManager.getMembershipIndex();
+		Boolean result = index == null ? null : index.isMember(member, group);
+		
+		if(result == null) {
+			String key = normalize(group);
+			result = false;
+			
+			for(Dn temp : findGroupDns(member, conn)) {
+				if(normalize(temp).equals(key)) {
+					result = true;
+					break;
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	String memberFilter(Dn member) {
+		return "(&(objectClass=groupOfUniqueNames)(uniqueMember=" + FilterEncoder.encodeFilterValue(member.getName()) + "))";
+	}
+	
 	public Entry getPeopleLdapEntry(LdapConnection conn) throws Exception{
-		log.info("Getting people ldap entry...");
+		log.debug("Getting people ldap entry...");
 		Entry result = null;
 		
 		try {
-			Dn peopleDn = new Dn("ou=People", LdapManager.getDomainDn().getName());
-			result=conn.lookup(peopleDn);
-			log.info("... people Dn has been found. $peopleDn: {}", result.getDn().getName());
+			result = LdapManager.getDirectoryBase().getPeopleEntry(conn);
 		} catch (Exception e) {
 			log.warn("failed to get people ldap entry");
 			throw e;
@@ -152,15 +496,146 @@ public class Ldap {
 		return result;
 	}
 	
-//	private void closeCursor(EntryCursor cursor) {
-//		log.info("Closing ldap search cursor");
-//		try {
-//			if(cursor != null && !cursor.isClosed()) {
-//				cursor.close();
-//			}
-//			log.info("... ldap search cursor has closed succesfully");
-//		}catch(IOException e) {
-//			log.warn("Failed to close ldap search cursor.", e);
-//		}
-//	}
+	/**
+	 * Finds users under ou=People as read only views, only the attributes of {@link UserView#ATTRIBUTES} are requested.
+	 * @param filter LDAP filter, values must already be escaped. Null finds every user.
+	 * @param conn LdapConnection
+	 * @return List of views in the order returned by the server
+	 * @throws LdapException
+	 */
+	public List<UserView> findUserViews(String filter, LdapConnection conn) throws LdapException {
+		SearchRequest request = searchRequest(LdapManager.getDirectoryBase().getPeopleDn(),
+				filter == null ? "(objectClass=inetOrgPerson)" : filter, SearchScope.ONELEVEL, UserView.ATTRIBUTES);
+		List<UserView> result = new ArrayList<UserView>();
+		
+		for(Entry entry : search(request, conn)) {
+			result.add(new UserView(entry));
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Finds groups under ou=groups as read only views, without their members.
+	 * @param filter LDAP filter, values must already be escaped. Null finds every group.
+	 * @param conn LdapConnection
+	 * @return List of views in the order returned by the server
+	 * @throws LdapException
+	 */
+	public List<GroupView> findGroupViews(String filter, LdapConnection conn) throws LdapException {
+		SearchRequest request = searchRequest(LdapManager.getDirectoryBase().getGroupsDn(),
+				filter == null ? "(objectClass=groupOfUniqueNames)" : filter, SearchScope.ONELEVEL, GroupView.ATTRIBUTES);
+		List<GroupView> result = new ArrayList<GroupView>();
+		
+		for(Entry entry : search(request, conn)) {
+			result.add(new GroupView(entry));
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Finds one page of users under ou=People sorted and paged by the server, see {@link UserQuery}.
+	 * Pass the cookie of the page to the query to get the next one, from this or any other connection.
+	 * The next page starts after the last user of this one, it does not read the pages before it again.
+	 * @param query UserQuery
+	 * @param conn LdapConnection
+	 * @return UserPage with at most {@link UserQuery#getPageSize()} users
+	 * @throws LdapException if the cookie is not valid for the query, the group does not exist or the server can't sort
+	 */
+	public UserPage findUsers(UserQuery query, LdapConnection conn) throws LdapException {
+		log.debug("Searching users. $filter: {} - $sortBy: {}", query.filter(), query.getSortBy());
+		List<Entry> entries = new ArrayList<Entry>(query.getPageSize());
+		UserSearch search = new UserSearch(query, conn, query.getPageSize() + 1);
+		
+		try {
+			while(entries.size() < query.getPageSize() && search.hasNext()) {
+				entries.add(search.next());
+			}
+			
+			return new UserPage(entries, search.hasNext() ? search.getCookie() : null);
+		} catch (LdapRuntimeException e) {
+			throw e.getCause();
+		} finally {
+			search.close();
+		}
+	}
+	
+	/**
+	 * Streams the users of a query, from its cookie to the end, reading one page of {@link UserQuery#getPageSize()}
+	 * users at a time. Close the stream, or use try-with-resources, to release the search when it is not read to the end.
+	 * @param query UserQuery
+	 * @param conn LdapConnection, it must stay open while the stream is consumed
+	 * @return Stream of entries, it throws LdapRuntimeException if a page can't be read
+	 * @throws LdapException if the cookie is not valid for the query or the group does not exist
+	 */
+	public Stream<Entry> streamUsers(UserQuery query, LdapConnection conn) throws LdapException {
+		UserSearch search = new UserSearch(query, conn, query.getPageSize());
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(search, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(search::close);
+	}
+	
+	private List<Entry> search(SearchRequest request, LdapConnection conn) throws LdapException {
+		List<Entry> result = new ArrayList<Entry>();
+		PagedSearch search = new PagedSearch(conn, request, VIEW_PAGE_SIZE);
+		
+		try {
+			while(search.hasNext()) {
+				result.add(search.next());
+			}
+		} catch (LdapRuntimeException e) {
+			throw e.getCause();
+		} finally {
+			search.close();
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Key used to compare Dns. Type and values are compared ignoring case, which is the matching rule of the
+	 * naming attributes used in this directory (uid, cn, ou, dc). Schema aware Dns, from embedded or schema aware
+	 * connections, normalize their types to OIDs, they are read again without schema so both give the same key.
+	 * @param dn Dn
+	 * @return normalized Dn as String
+	 */
+	public static String normalize(Dn dn) {
+		if(dn.isSchemaAware()) {
+			try {
+				return new Dn(dn.getName()).getNormName().toLowerCase(Locale.ROOT);
+			} catch (LdapInvalidDnException e) {
+				log.debug("Failed to read Dn without schema. $dn: {}", dn.getName());
+			}
+		}
+		
+		return dn.getNormName().toLowerCase(Locale.ROOT);
+	}
+	
+	/**
+	 * @param base Dn where the search starts
+	 * @param filter LDAP filter, values must already be escaped
+	 * @param scope SearchScope
+	 * @param attributes Attributes returned for each entry
+	 * @return SearchRequest, controls like paged results can be added before sending it
+	 * @throws LdapException if the filter is not valid
+	 */
+	public SearchRequest searchRequest(Dn base, String filter, SearchScope scope, String... attributes) throws LdapException {
+		SearchRequest result = new SearchRequestImpl();
+		result.setBase(base);
+		result.setFilter(filter);
+		result.setScope(scope);
+		result.setDerefAliases(AliasDerefMode.DEREF_ALWAYS);
+		result.addAttributes(attributes);
+		return result;
+	}
+	
+	void closeCursor(Cursor<?> cursor) {
+		try {
+			if(cursor != null && !cursor.isClosed()) {
+				cursor.close();
+			}
+		}catch(IOException e) {
+			log.warn("Failed to close ldap search cursor.", e);
+		}
+	}
 }
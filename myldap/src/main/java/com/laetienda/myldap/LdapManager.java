@@ -1,50 +1,268 @@
 package com.laetienda.myldap;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.directory.api.ldap.model.exception.LdapAuthenticationException;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapAsyncConnection;
 import org.apache.directory.ldap.client.api.LdapConnection;
-import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+import org.apache.directory.ldap.client.api.LdapConnectionWrapper;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 public class LdapManager {
 	final static Logger log = LogManager.getLogger(LdapManager.class);
 	
-	private static Dn domainDn;
-	private List<LdapConnection> connections = new ArrayList<LdapConnection>();
+	private static volatile Dn domainDn;
+	private static volatile DirectoryBase directoryBase;
+	private static volatile LdapPoolConfig poolConfig = new LdapPoolConfig();
+	private static volatile EntryCache entryCache;
+	private static volatile MembershipIndex membershipIndex;
+	private static volatile NegativeCache negativeCache;
+	private static volatile CredentialCache credentialCache;
+	private static volatile int dnCacheSize = 0;
+	private static volatile LdapMetrics metrics;
+	private static volatile EmbeddedDirectory embeddedDirectory;
+	private static final ConcurrentHashMap<String, LdapPool> pools = new ConcurrentHashMap<String, LdapPool>();
+	/** Key of the pool whose credentials last worked, by pool name */
+	private static final ConcurrentHashMap<String, String> currentPools = new ConcurrentHashMap<String, String>();
+	/** Pools are keyed by an HMAC of their password with this random key, so the password is not kept in the key */
+	private static final byte[] credentialsKey = randomKey();
+	private static final ConcurrentHashMap<LdapConnection, LdapPool> leases = new ConcurrentHashMap<LdapConnection, LdapPool>();
+	/** Identity of the open embedded connections, pooled connections have the name of their pool */
+	private static final ConcurrentHashMap<LdapConnection, String> identities = new ConcurrentHashMap<LdapConnection, String>();
+	private static final ReentrantLock domainLock = new ReentrantLock();
 	
-	private static void setDomainDn(Dn dn) {
-		domainDn = dn;
+	/**
+	 * Called on every connect. It only reads the current domain unless it changes, the change is made under
+	 * a lock, not a monitor, so virtual threads calling it do not pin their carrier.
+	 */
+	private static void setDomainDn(Dn dn) throws LdapInvalidDnException {
+		Dn current = domainDn;
+		
+		if(dn == current || dn.equals(current)) {
+			return;
+		}
+		
+		DirectoryBase previous = null;
+		domainLock.lock();
+		try {
+			if(!dn.equals(domainDn)) {
+				previous = directoryBase;
+				directoryBase = new DirectoryBase(dn);
+				domainDn = dn;
+			}
+		} finally {
+			domainLock.unlock();
+		}
+		
+		if(previous != null) {
+			previous.shutdown();
+		}
 	}
 	
 	public static Dn getDomainDn() {
 		return domainDn;
 	}
 	
-	public synchronized LdapConnection getLdapConnection(String address, int port, Dn domainDn, Dn userdn, String password) throws LdapException {
-		log.info("Creating ldap connection...");
-		log.debug("Connecting to ldap. $address: {} - $port {} - $userdn: {}", address, Integer.toString(port), userdn.getName());
+	/**
+	 * @return Dns and entries of ou=People and ou=groups of the current domain
+	 */
+	public static DirectoryBase getDirectoryBase() {
+		return directoryBase;
+	}
+	
+	/**
+	 * @return DnFactory of the current domain
+	 */
+	public static DnFactory getDnFactory() {
+		return directoryBase.getDnFactory();
+	}
+	
+	public static int getDnCacheSize() {
+		return dnCacheSize;
+	}
+	
+	/**
+	 * Number of Dns kept by the {@link DnFactory} of the domain, zero or less disables the cache. It applies
+	 * to the current domain and to the domains set later.
+	 * @param size Number of Dns
+	 */
+	public static void setDnCacheSize(int size) {
+		dnCacheSize = size;
+		DirectoryBase current = directoryBase;
 		
-		setDomainDn(domainDn);
+		if(current != null) {
+			current.getDnFactory().setCacheSize(size);
+		}
+	}
+	
+	public static LdapPoolConfig getPoolConfig() {
+		return poolConfig;
+	}
+	
+	/**
+	 * Settings used by pools created after this call. Pools already open keep their settings.
+	 * @param config LdapPoolConfig
+	 */
+	public static void setPoolConfig(LdapPoolConfig config) {
+		poolConfig = config;
+	}
+	
+	/**
+	 * @return cache of ldap entries or null when entries are not cached
+	 */
+	public static EntryCache getEntryCache() {
+		return entryCache;
+	}
+	
+	/**
+	 * Caches the entries read with {@link Ldap#lookup(Dn, LdapConnection)}. Null disables the cache.
+	 * @param cache EntryCache
+	 */
+	public static void setEntryCache(EntryCache cache) {
+		entryCache = cache;
+	}
+	
+	/**
+	 * @return reverse membership index or null when group memberships are searched every time
+	 */
+	public static MembershipIndex getMembershipIndex() {
+		return membershipIndex;
+	}
+	
+	/**
+	 * Keeps the groups of the users read with {@link Ldap#findGroupDns(Dn, LdapConnection)}. Null disables the index.
+	 * @param index MembershipIndex
+	 */
+	public static void setMembershipIndex(MembershipIndex index) {
+		membershipIndex = index;
+	}
+	
+	/**
+	 * @return cache of the names known not to exist or null when every lookup goes to the server
+	 */
+	public static NegativeCache getNegativeCache() {
+		return negativeCache;
+	}
+	
+	/**
+	 * Answers locally the lookups and existence checks of users, groups and emails known not to exist. Null disables it.
+	 * @param cache NegativeCache
+	 */
+	public static void setNegativeCache(NegativeCache cache) {
+		negativeCache = cache;
+	}
+	
+	/**
+	 * @return cache of verified passwords or null when every authentication binds
+	 */
+	public static CredentialCache getCredentialCache() {
+		return credentialCache;
+	}
+	
+	/**
+	 * Verifies locally the passwords {@link Authenticator} checked recently. Null disables the cache.
+	 * @param cache CredentialCache
+	 */
+	public static void setCredentialCache(CredentialCache cache) {
+		credentialCache = cache;
+	}
+	
+	public static LdapMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Enables the metrics of the connections borrowed from now on, null disables them.
+	 * @param ldapMetrics for example a {@link DefaultLdapMetrics}
+	 */
+	public static void setMetrics(LdapMetrics ldapMetrics) {
+		metrics = ldapMetrics;
+	}
+	
+	/**
+	 * Enables the first {@link LdapMetrics} implementation registered with the ServiceLoader.
+	 * @return true if an implementation was found
+	 */
+	public static boolean loadMetrics() {
+		LdapMetrics result = ServiceLoader.load(LdapMetrics.class).findFirst().orElse(null);
 		
-		LdapConnection result = new LdapNetworkConnection(address, port, true);
+		if(result != null) {
+			log.info("Enabling ldap metrics. $implementation: {}", result.getClass().getName());
+			metrics = result;
+		}
+		
+		return result != null;
+	}
+	
+	/**
+	 * Records an operation that did not go through an instrumented connection, for example an asynchronous one.
+	 * @param operation type of operation
+	 * @param start System.nanoTime() when the operation started
+	 * @param failed whether the operation failed
+	 */
+	static void record(LdapOperation operation, long start, boolean failed) {
+		LdapMetrics current = metrics;
+		
+		if(current != null) {
+			current.record(operation, System.nanoTime() - start, failed);
+		}
+	}
+	
+	/**
+	 * Borrows a connection bound as userdn from the pool of this server for userdn and password. The pool is created on first use,
+	 * it is meant for the accounts of the application. Check the passwords of end users with {@link #getAuthenticator(String, int, String)},
+	 * which does not keep a pool per user.
+	 * <p>
+	 * Pools are kept by bind dn and password, a wrong password never gets a connection of a pool that was bound with the right one.
+	 * A pool whose bind fails is closed, and the pools of older passwords of userdn are closed when a new one works.
+	 * The connection must be given back with {@link #closeLdapConnection(LdapConnection)}.
+	 */
+	public LdapConnection getLdapConnection(String address, int port, Dn domainDn, Dn userdn, String password) throws LdapException {
+		if(log.isDebugEnabled()) {
+			log.debug("Borrowing ldap connection. $address: {} - $port {} - $userdn: {}", address, port, userdn);
+		}
+		
+		setDomainDn(domainDn);
+		String key = poolKey(address, port, userdn.getName(), password, false);
+		LdapPool pool = getPool(key, address, port, userdn.getName(), password, false);
 		
 		try {
-			result.bind(userdn, password);
-			log.debug("$RootDSE: {}", result.getRootDse().getDn().getName());
-			connections.add(result);
-			log.info("...ldap connection created succesfully");
+			LdapConnection result = lease(pool);
+			
+			if(!key.equals(currentPools.get(pool.getName()))) {
+				retire(pool.getName(), key);
+			}
+			
+			return result;
+		} catch (LdapAuthenticationException e) {
+			log.error("Failed to bind to ldap server. $pool: {}", pool.getName());
+			
+			if(pools.remove(key, pool)) {
+				pool.close();
+			}
+			throw e;
 		} catch (LdapException e) {
 			log.error("Failed to connect to ldap server");
 			throw e;
 		}
-		
-		return result;
 	}
 	
 	public LdapConnection getLdapConnection(String address, int port, String domain, String user, String password) throws LdapException {
@@ -56,33 +274,330 @@ public class LdapManager {
 			Dn domainDn = new Dn(domain);
 			result = getLdapConnection(address, port, domainDn, userdn, password);
 		} catch (LdapInvalidDnException e) {
-			log.error("Invalid user format. $user: " + user);
+			log.error("Invalid user format. $user: {}", user);
 			throw e;
 		}
 		
 		return result;
 	}
 	
-	public void closeLdapConnection(LdapConnection connection){
-		log.info("Closing Ldap Connection...");
+	/**
+	 * Pool of connections bound as userdn, for code that borrows several connections like {@link BulkImporter}.
+	 * The pool is created on first use and shared with {@link #getLdapConnection(String, int, Dn, Dn, String)}.
+	 */
+	public LdapPool getLdapPool(String address, int port, Dn domainDn, Dn userdn, String password) throws LdapInvalidDnException {
+		setDomainDn(domainDn);
+		return getPool(address, port, userdn.getName(), password);
+	}
+	
+	/**
+	 * Borrows a connection from pool the way {@link #getLdapConnection(String, int, Dn, Dn, String)} does: timed when metrics
+	 * are enabled and tracked, so it is given back with {@link #closeLdapConnection(LdapConnection)} and entries read with it
+	 * are cached for its pool.
+	 * @param pool LdapPool, see {@link #getLdapPool(String, int, Dn, Dn, String)}
+	 */
+	public LdapConnection getLdapConnection(LdapPool pool) throws LdapException {
+		return lease(pool);
+	}
+	
+	/**
+	 * Authenticator of the users of this server. Its bind only pool is created on first use,
+	 * its connections are bound as each user instead of being opened for every login.
+	 */
+	public Authenticator getAuthenticator(String address, int port, String domain) throws LdapInvalidDnException {
+		setDomainDn(new Dn(domain));
+		return new Authenticator(getPool(address, port, "", "", true));
+	}
+	
+	/**
+	 * Borrows an anonymously bound connection from the read only pool of this server.
+	 * The connection must be given back with {@link #closeLdapConnection(LdapConnection)}.
+	 */
+	public LdapConnection getReadOnlyConnection(String address, int port, String domain) throws LdapException {
+		if(log.isDebugEnabled()) {
+			log.debug("Borrowing read only ldap connection. $address: {} - $port {}", address, port);
+		}
 		
 		try {
-			if(connection != null) {
-				if(connection.isConnected() || connection.isAuthenticated()) {
-						connection.unBind();
-				}
-				
-				if(connection.isConnected()){
-					connection.close();
-				}
+			setDomainDn(new Dn(domain));
+			return lease(getPool(address, port, "", ""));
+		} catch (LdapException e) {
+			log.error("Failed to connect to ldap server");
+			throw e;
+		}
+	}
+	
+	/**
+	 * @return the embedded directory started with {@link #startEmbedded(EmbeddedDirectory)} or null
+	 */
+	public static EmbeddedDirectory getEmbeddedDirectory() {
+		return embeddedDirectory;
+	}
+	
+	/**
+	 * Starts an in-process directory and makes its domain the current one. Embedded connections are not pooled,
+	 * they are cheap to open. They do not support asynchronous operations, so bulk imports and pipelined modifies need a server.
+	 * @param directory EmbeddedDirectory, it replaces the previous one which is stopped
+	 * @throws LdapException if the directory can't be started
+	 */
+	public static void startEmbedded(EmbeddedDirectory directory) throws LdapException {
+		EmbeddedDirectory previous = embeddedDirectory;
+		
+		if(previous != null && previous != directory) {
+			previous.stop();
+		}
+		
+		directory.start();
+		setDomainDn(directory.getDomainDn());
+		embeddedDirectory = directory;
+	}
+	
+	public static void stopEmbedded() {
+		EmbeddedDirectory previous = embeddedDirectory;
+		embeddedDirectory = null;
+		
+		if(previous != null) {
+			previous.stop();
+		}
+	}
+	
+	/**
+	 * Opens a connection to the embedded directory bound as its administrator.
+	 * The connection must be given back with {@link #closeLdapConnection(LdapConnection)}.
+	 */
+	public LdapConnection getEmbeddedConnection() throws LdapException {
+		return identify(instrument(embedded().getAdminConnection()), "embedded/admin");
+	}
+	
+	/**
+	 * Opens a connection to the embedded directory bound as user.
+	 * The connection must be given back with {@link #closeLdapConnection(LdapConnection)}.
+	 */
+	public LdapConnection getEmbeddedConnection(Dn user, String password) throws LdapException {
+		return identify(instrument(embedded().getConnection(user, password)), "embedded/" + Ldap.normalize(user));
+	}
+	
+	/**
+	 * Opens an anonymous connection to the embedded directory.
+	 * The connection must be given back with {@link #closeLdapConnection(LdapConnection)}.
+	 */
+	public LdapConnection getEmbeddedReadOnlyConnection() throws LdapException {
+		return identify(instrument(embedded().getAnonymousConnection()), "embedded/anonymous");
+	}
+	
+	private EmbeddedDirectory embedded() throws LdapOtherException {
+		EmbeddedDirectory result = embeddedDirectory;
+		
+		if(result == null) {
+			throw new LdapOtherException("Embedded directory is not started");
+		}
+		
+		return result;
+	}
+	
+	private LdapConnection identify(LdapConnection connection, String identity) {
+		identities.put(connection, identity);
+		return connection;
+	}
+	
+	/**
+	 * Identity a connection given by this class is bound with, the name of its pool or of the embedded user.
+	 * Connections with the same identity get the same answers from the server, {@link EntryCache} is scoped by it.
+	 * @param connection connection given by this class
+	 * @return identity of connection or null if it was not given by this class or it was closed
+	 */
+	static String scope(LdapConnection connection) {
+		LdapPool pool = leases.get(connection);
+		return pool == null ? identities.get(connection) : pool.getName();
+	}
+	
+	private LdapConnection instrument(LdapConnection connection) {
+		LdapMetrics current = metrics;
+		return current == null ? connection : new InstrumentedLdapConnection(connection, current);
+	}
+	
+	/**
+	 * Borrows a connection from pool and remembers where it has to go back. With metrics enabled the
+	 * connection is wrapped so its operations are timed.
+	 */
+	private LdapConnection lease(LdapPool pool) throws LdapException {
+		LdapMetrics current = metrics;
+		LdapConnection result;
+		
+		if(current == null) {
+			result = pool.borrow();
+		}else {
+			long start = System.nanoTime();
+			boolean failed = true;
+			try {
+				result = new InstrumentedLdapConnection(pool.borrow(), current);
+				failed = false;
+			} finally {
+				current.record(LdapOperation.BORROW, System.nanoTime() - start, failed);
 			}
+		}
+		
+		leases.put(result, pool);
+		return result;
+	}
+	
+	private LdapPool getPool(String address, int port, String user, String password) {
+		return getPool(address, port, user, password, false);
+	}
+	
+	private LdapPool getPool(String address, int port, String user, String password, boolean bindOnly) {
+		return getPool(poolKey(address, port, user, password, bindOnly), address, port, user, password, bindOnly);
+	}
+	
+	private LdapPool getPool(String key, String address, int port, String user, String password, boolean bindOnly) {
+		return pools.computeIfAbsent(key, k -> {
+			String name = poolName(address, port, user, bindOnly);
+			log.info("Creating ldap connection pool. $pool: {}", name);
+			LdapPoolConfig config = poolConfig;
+			return new LdapPool(name, LdapPool.connectionConfig(address, port, user, password, config), config, bindOnly);
+		});
+	}
+	
+	private static byte[] randomKey() {
+		byte[] result = new byte[32];
+		new SecureRandom().nextBytes(result);
+		return result;
+	}
+	
+	private static String poolName(String address, int port, String user, boolean bindOnly) {
+		return bindOnly ? address + ":" + port + "/bind" : user.isEmpty() ? address + ":" + port + "/anonymous" : address + ":" + port + "/" + user;
+	}
+	
+	/**
+	 * Name of the pool plus, for bound pools, a digest of the password.
+	 */
+	private static String poolKey(String address, int port, String user, String password, boolean bindOnly) {
+		String name = poolName(address, port, user, bindOnly);
+		
+		if(bindOnly || user.isEmpty()) {
+			return name;
+		}
+		
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(credentialsKey, "HmacSHA256"));
+			byte[] digest = mac.doFinal((password == null ? "" : password).getBytes(StandardCharsets.UTF_8));
+			return name + "#" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("HmacSHA256 is not available", e);
+		}
+	}
+	
+	/**
+	 * Closes the pools of name bound with other passwords, the credentials of key have just worked.
+	 */
+	private static void retire(String name, String key) {
+		String previous = currentPools.put(name, key);
 		
-			connections.remove(connection);
+		if(previous == null || previous.equals(key)) {
+			return;
+		}
+		
+		LdapPool old = pools.remove(previous);
+		
+		if(old != null) {
+			log.info("Closing ldap connection pool of a previous password. $pool: {}", name);
+			old.close();
+		}
+	}
+	
+	/**
+	 * Unwraps a pooled connection to the asynchronous connection underneath it.
+	 * @param connection LdapConnection
+	 * @return LdapAsyncConnection
+	 * @throws LdapOtherException if the connection does not support asynchronous operations
+	 */
+	public static LdapAsyncConnection toAsync(LdapConnection connection) throws LdapOtherException {
+		LdapConnection result = connection;
+		
+		while(!(result instanceof LdapAsyncConnection) && result instanceof LdapConnectionWrapper) {
+			result = ((LdapConnectionWrapper)result).wrapped();
+		}
+		
+		if(result instanceof LdapAsyncConnection) {
+			return (LdapAsyncConnection)result;
+		}
+		
+		throw new LdapOtherException("Ldap connection does not support asynchronous operations");
+	}
+	
+	/**
+	 * @return Pools opened so far keyed by server and bind dn. Used to read pool metrics.
+	 */
+	public static Map<String, LdapPool> getPools() {
+		Map<String, LdapPool> result = new LinkedHashMap<String, LdapPool>();
+		
+		for(LdapPool pool : pools.values()) {
+			result.put(pool.getName(), pool);
+		}
+		
+		return Collections.unmodifiableMap(result);
+	}
+	
+	/**
+	 * Closes every pool and stops the embedded directory. Connections still borrowed are closed when they are given back.
+	 */
+	public static void closePools() {
+		log.info("Closing ldap connection pools...");
+		
+		for(LdapPool pool : pools.values()) {
+			pool.close();
+		}
+		
+		pools.clear();
+		currentPools.clear();
+		
+		if(directoryBase != null) {
+			directoryBase.shutdown();
+		}
+		
+		if(membershipIndex != null) {
+			membershipIndex.shutdown();
+		}
+		
+		if(negativeCache != null) {
+			negativeCache.shutdown();
+		}
+		
+		stopEmbedded();
+		
+		log.info("... ldap connection pools closed succesfully");
+	}
+	
+	public void closeLdapConnection(LdapConnection connection){
+		
+		if(connection == null) {
+			return;
+		}
+		
+		LdapPool pool = leases.remove(connection);
+		
+		if(pool != null) {
+			pool.release(connection instanceof InstrumentedLdapConnection ? ((InstrumentedLdapConnection)connection).wrapped() : connection);
+			return;
+		}
+		
+		log.debug("Closing Ldap Connection...");
+		identities.remove(connection);
+		
+		try {
+			if(connection.isConnected() || connection.isAuthenticated()) {
+					connection.unBind();
+			}
+			
+			if(connection.isConnected()){
+				connection.close();
+			}
 		} catch (LdapException | IOException e) {
 			log.error("Failed to close connection", e);
 		}
 		
-		log.info("...Ldap Connection closed succesfully");
+		log.debug("...Ldap Connection closed succesfully");
 	}
 	
 	public static void main(String args[]) {
@@ -98,6 +613,7 @@ public class LdapManager {
 			log.error("Failed to test connection to LDAP server", e);
 		}finally {
 			manager.closeLdapConnection(conn);
+			closePools();
 		}		
 	}
 }
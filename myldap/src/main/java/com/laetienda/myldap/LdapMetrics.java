@@ -0,0 +1,19 @@
+package com.laetienda.myldap;
+
+/**
+ * Receives the latency and outcome of every directory operation. Set an implementation with
+ * {@link LdapManager#setMetrics(LdapMetrics)} or register one in
+ * META-INF/services/com.laetienda.myldap.LdapMetrics and call {@link LdapManager#loadMetrics()}.
+ * When no metrics are set connections are not instrumented at all.
+ * <p>
+ * Implementations are called from every thread doing ldap operations, they must be thread safe and fast.
+ */
+public interface LdapMetrics {
+
+	/**
+	 * @param operation type of operation
+	 * @param nanos time the operation took
+	 * @param failed true if the operation threw an exception or the server answered with an error
+	 */
+	void record(LdapOperation operation, long nanos, boolean failed);
+}
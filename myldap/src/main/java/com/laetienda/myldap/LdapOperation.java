@@ -0,0 +1,20 @@
+package com.laetienda.myldap;
+
+/**
+ * Types of directory operations recorded by {@link LdapMetrics}.
+ */
+public enum LdapOperation {
+	/** Opening and binding a new pooled connection */
+	CONNECT,
+	/** Getting a connection from a pool, including the wait when the pool is exhausted */
+	BORROW,
+	BIND,
+	LOOKUP,
+	EXISTS,
+	/** From the search request until the cursor is exhausted or closed */
+	SEARCH,
+	ADD,
+	MODIFY,
+	DELETE,
+	COMPARE
+}
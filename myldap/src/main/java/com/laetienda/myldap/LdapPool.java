@@ -0,0 +1,373 @@
+package com.laetienda.myldap;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.ldap.client.api.DefaultLdapConnectionFactory;
+import org.apache.directory.ldap.client.api.DefaultLdapConnectionValidator;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapConnectionConfig;
+import org.apache.directory.ldap.client.api.LdapConnectionPool;
+import org.apache.directory.ldap.client.api.LookupLdapConnectionValidator;
+import org.apache.directory.ldap.client.api.MonitoringLdapConnection;
+import org.apache.directory.ldap.client.api.ValidatingPoolableLdapConnectionFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Bounded pool of bound ldap connections with validation on borrow, idle eviction and a maximum
+ * connection lifetime. It keeps counters of borrowed connections and of the time spent waiting for them.
+ * <p>
+ * With {@link LdapPoolConfig#setVirtualThreads(boolean)} a borrower first takes one of maxActive permits of a fair
+ * semaphore, so it only reaches the pool when a connection is free or can be opened and never waits on its monitor.
+ * <p>
+ * A bind only pool hands out connections to check credentials with, see {@link Authenticator}. Whoever borrows one binds
+ * it again, so they are not bound back to the identity of the pool when they are released and they are only checked to be connected.
+ */
+public class LdapPool {
+	private static final Logger log = LogManager.getLogger(LdapPool.class);
+
+	private final String name;
+	private final boolean bindOnly;
+	private final LdapPoolConfig config;
+	private final LdapConnectionPool pool;
+	private final Semaphore permits;
+	private final ReentrantLock schemaLock = new ReentrantLock();
+	private volatile SchemaManager schemaManager;
+	private final Map<LdapConnection, Long> createdAt = new ConcurrentHashMap<LdapConnection, Long>();
+
+	private final LongAdder borrowCount = new LongAdder();
+	private final LongAdder waitNanos = new LongAdder();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	public LdapPool(String name, LdapConnectionConfig connectionConfig, LdapPoolConfig config) {
+		this(name, connectionConfig, config, false);
+	}
+
+	/**
+	 * @param name name of the pool
+	 * @param connectionConfig client configuration, see {@link #connectionConfig(String, int, String, String, LdapPoolConfig)}
+	 * @param config pool settings
+	 * @param bindOnly true for a pool of connections that are bound again by every borrower
+	 */
+	public LdapPool(String name, LdapConnectionConfig connectionConfig, LdapPoolConfig config, boolean bindOnly) {
+		this.name = name;
+		this.config = config;
+		this.bindOnly = bindOnly;
+
+		LifetimeFactory factory = bindOnly ? new LifetimeFactory(new UnboundConnectionFactory(connectionConfig)) : new LifetimeFactory(connectionConfig);
+
+		if(bindOnly) {
+			factory.setValidator(LdapConnection::isConnected);
+		}else if(config.isValidateWithLookup()) {
+			factory.setValidator(new LookupLdapConnectionValidator());
+		}else {
+			factory.setValidator(new DefaultLdapConnectionValidator());
+		}
+
+		GenericObjectPool.Config poolConfig = new GenericObjectPool.Config();
+		poolConfig.minIdle = config.getMinIdle();
+		poolConfig.maxIdle = config.getMaxIdle();
+		poolConfig.maxActive = config.getMaxActive();
+		poolConfig.maxWait = config.getMaxWaitMillis();
+		poolConfig.whenExhaustedAction = GenericObjectPool.WHEN_EXHAUSTED_BLOCK;
+		poolConfig.testOnBorrow = config.isTestOnBorrow();
+		poolConfig.testWhileIdle = true;
+		poolConfig.timeBetweenEvictionRunsMillis = config.getEvictionRunMillis();
+		poolConfig.minEvictableIdleTimeMillis = config.getMinEvictableIdleMillis();
+		poolConfig.numTestsPerEvictionRun = config.getMaxIdle();
+		poolConfig.lifo = true;
+
+		pool = new LdapConnectionPool(factory, poolConfig);
+		permits = config.isVirtualThreads() && config.getMaxActive() > 0 ? new Semaphore(config.getMaxActive(), true) : null;
+	}
+
+	/**
+	 * Builds the client configuration of a pool
+	 * @param address ldap server host
+	 * @param port ldap server port
+	 * @param user bind dn, empty for anonymous connections
+	 * @param password bind password, empty for anonymous connections
+	 * @param config pool settings, ssl and trust managers are read from it
+	 * @return LdapConnectionConfig
+	 */
+	public static LdapConnectionConfig connectionConfig(String address, int port, String user, String password, LdapPoolConfig config) {
+		LdapConnectionConfig result = new LdapConnectionConfig();
+		result.setLdapHost(address);
+		result.setLdapPort(port);
+		result.setUseSsl(config.isUseSsl());
+		result.setTimeout(config.getTimeoutMillis());
+		result.setName(user);
+		result.setCredentials(password);
+
+		if(config.getTrustManagers() != null) {
+			result.setTrustManagers(config.getTrustManagers());
+		}
+
+		return result;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isBindOnly() {
+		return bindOnly;
+	}
+
+	public LdapConnection borrow() throws LdapException {
+		long start = System.nanoTime();
+		boolean permitted = false;
+		boolean borrowed = false;
+
+		try {
+			acquire();
+			permitted = true;
+			LdapConnection result = pool.getConnection();
+			borrowCount.increment();
+			borrowed = true;
+			return result;
+		} catch (LdapException e) {
+			log.warn("Failed to borrow ldap connection. $pool: {} - $error: {}", name, e.getMessage());
+			throw e;
+		} finally {
+			if(permitted && !borrowed) {
+				returnPermit();
+			}
+
+			long waited = System.nanoTime() - start;
+			waitNanos.add(waited);
+			maxWaitNanos.accumulateAndGet(waited, Math::max);
+		}
+	}
+
+	private void acquire() throws LdapException {
+		if(permits == null) {
+			return;
+		}
+
+		try {
+			long maxWait = config.getMaxWaitMillis();
+
+			if(maxWait < 0) {
+				permits.acquire();
+			}else if(!permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+				throw new LdapOtherException("Timed out waiting for a free connection after " + maxWait + " ms");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new LdapOtherException("Interrupted while waiting for a free connection", e);
+		}
+	}
+
+	private void returnPermit() {
+		if(permits != null) {
+			permits.release();
+		}
+	}
+
+	public void release(LdapConnection connection) {
+		try {
+			if(isExpired(connection) || !connection.isConnected()) {
+				destroy(connection);
+			}else {
+				pool.releaseConnection(connection);
+			}
+		} catch (LdapException e) {
+			log.warn("Failed to release ldap connection. $pool: {} - $error: {}", name, e.getMessage());
+			log.debug("Failed to release ldap connection.", e);
+		} finally {
+			returnPermit();
+		}
+	}
+
+	/**
+	 * Removes a broken connection from the pool. The connection is closed.
+	 * @param connection it must have been borrowed from this pool
+	 */
+	public void invalidate(LdapConnection connection) {
+		destroy(connection);
+		returnPermit();
+	}
+
+	private void destroy(LdapConnection connection) {
+		try {
+			pool.invalidateObject(connection);
+		} catch (Exception e) {
+			log.warn("Failed to invalidate ldap connection. $pool: {} - $error: {}", name, e.getMessage());
+			log.debug("Failed to invalidate ldap connection.", e);
+		}
+	}
+
+	public void close() {
+		log.info("Closing ldap connection pool. $pool: {}", name);
+
+		try {
+			pool.close();
+		} catch (Exception e) {
+			log.warn("Failed to close ldap connection pool. $pool: {} - $error: {}", name, e.getMessage());
+			log.debug("Failed to close ldap connection pool.", e);
+		}
+	}
+
+	public LdapPoolConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * @return Number of connections currently borrowed
+	 */
+	public int getBorrowed() {
+		return pool.getNumActive();
+	}
+
+	/**
+	 * @return Number of connections waiting in the pool
+	 */
+	public int getIdle() {
+		return pool.getNumIdle();
+	}
+
+	/**
+	 * @return Number of successful borrows since the pool was created
+	 */
+	public long getBorrowCount() {
+		return borrowCount.sum();
+	}
+
+	/**
+	 * @return Number of borrowers waiting for a free connection, only counted with virtual threads enabled
+	 */
+	public int getWaiting() {
+		return permits == null ? 0 : permits.getQueueLength();
+	}
+
+	public double getAverageWaitMillis() {
+		long count = borrowCount.sum();
+		return count == 0 ? 0 : waitNanos.sum() / 1000000.0 / count;
+	}
+
+	public double getMaxWaitMillis() {
+		return maxWaitNanos.get() / 1000000.0;
+	}
+
+	/**
+	 * @return Schema shared by the connections of this pool, null until the first one is opened or if the pool is not schema aware
+	 */
+	public SchemaManager getSchemaManager() {
+		return schemaManager;
+	}
+
+	/**
+	 * Reads the schema of the server with the first connection, the following ones reuse it.
+	 */
+	private SchemaManager schemaManager(LdapConnection connection) throws LdapException {
+		SchemaManager result = schemaManager;
+
+		if(result == null) {
+			schemaLock.lock();
+			try {
+				result = schemaManager;
+
+				if(result == null) {
+					log.info("Loading schema of ldap server. $pool: {}", name);
+					connection.loadSchemaRelaxed();
+					result = connection.getSchemaManager();
+					schemaManager = result;
+					log.info("... schema of ldap server loaded succesfully. $pool: {}", name);
+				}
+			} finally {
+				schemaLock.unlock();
+			}
+		}
+
+		return result;
+	}
+
+	private boolean isExpired(LdapConnection connection) {
+		Long created = createdAt.get(connection);
+		return config.getMaxLifetimeMillis() > 0 && created != null
+				&& System.currentTimeMillis() - created > config.getMaxLifetimeMillis();
+	}
+
+	private class LifetimeFactory extends ValidatingPoolableLdapConnectionFactory {
+
+		private LifetimeFactory(LdapConnectionConfig connectionConfig) {
+			super(connectionConfig);
+		}
+
+		private LifetimeFactory(DefaultLdapConnectionFactory connectionFactory) {
+			super(connectionFactory);
+		}
+
+		@Override
+		public MonitoringLdapConnection makeObject() throws LdapException {
+			long start = System.nanoTime();
+			boolean failed = true;
+
+			try {
+				MonitoringLdapConnection result = super.makeObject();
+
+				if(config.isSchemaAware() && !bindOnly) {
+					result.setSchemaManager(schemaManager(result));
+				}
+
+				createdAt.put(result, System.currentTimeMillis());
+				failed = false;
+				return result;
+			} finally {
+				LdapManager.record(LdapOperation.CONNECT, start, failed);
+			}
+		}
+
+		/**
+		 * Connections of a bind only pool keep the identity of their last borrower, or none if its bind failed.
+		 */
+		@Override
+		public void passivateObject(LdapConnection connection) throws LdapException {
+			if(!bindOnly) {
+				super.passivateObject(connection);
+			}
+		}
+
+		@Override
+		public boolean validateObject(LdapConnection connection) {
+			return !isExpired(connection) && super.validateObject(connection);
+		}
+
+		@Override
+		public void destroyObject(LdapConnection connection) throws LdapException {
+			createdAt.remove(connection);
+			super.destroyObject(connection);
+		}
+	}
+
+	/**
+	 * Opens the connections of a bind only pool without binding them, the server may not allow anonymous binds.
+	 */
+	private static class UnboundConnectionFactory extends DefaultLdapConnectionFactory {
+
+		private UnboundConnectionFactory(LdapConnectionConfig connectionConfig) {
+			super(connectionConfig);
+			setTimeOut(connectionConfig.getTimeout());
+		}
+
+		@Override
+		public LdapConnection bindConnection(LdapConnection connection) throws LdapException {
+			if(!connection.connect()) {
+				throw new LdapOtherException("Failed to connect to ldap server");
+			}
+
+			return connection;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package com.laetienda.myldap;
+
+import javax.net.ssl.TrustManager;
+
+/**
+ * Sizing and health-check settings shared by the connection pools of {@link LdapManager}.
+ * Setters return this object so a configuration can be built in one statement.
+ */
+public class LdapPoolConfig {
+
+	private int minIdle = 2;
+	private int maxIdle = 8;
+	private int maxActive = 16;
+	private long maxWaitMillis = 5000;
+	private boolean testOnBorrow = true;
+	private boolean validateWithLookup = false;
+	private long evictionRunMillis = 30000;
+	private long minEvictableIdleMillis = 300000;
+	private long maxLifetimeMillis = 1800000;
+	private long timeoutMillis = 30000;
+	private boolean useSsl = true;
+	private boolean virtualThreads = false;
+	private boolean schemaAware = false;
+	private TrustManager[] trustManagers;
+
+	public int getMinIdle() {
+		return minIdle;
+	}
+
+	public LdapPoolConfig setMinIdle(int minIdle) {
+		this.minIdle = minIdle;
+		return this;
+	}
+
+	public int getMaxIdle() {
+		return maxIdle;
+	}
+
+	public LdapPoolConfig setMaxIdle(int maxIdle) {
+		this.maxIdle = maxIdle;
+		return this;
+	}
+
+	public int getMaxActive() {
+		return maxActive;
+	}
+
+	/**
+	 * @param maxActive Maximum number of connections borrowed at the same time, it bounds the pool.
+	 * @return this
+	 */
+	public LdapPoolConfig setMaxActive(int maxActive) {
+		this.maxActive = maxActive;
+		return this;
+	}
+
+	public long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+
+	/**
+	 * @param maxWaitMillis How long a borrower waits for a free connection before failing.
+	 * @return this
+	 */
+	public LdapPoolConfig setMaxWaitMillis(long maxWaitMillis) {
+		this.maxWaitMillis = maxWaitMillis;
+		return this;
+	}
+
+	public boolean isTestOnBorrow() {
+		return testOnBorrow;
+	}
+
+	public LdapPoolConfig setTestOnBorrow(boolean testOnBorrow) {
+		this.testOnBorrow = testOnBorrow;
+		return this;
+	}
+
+	public boolean isValidateWithLookup() {
+		return validateWithLookup;
+	}
+
+	/**
+	 * @param validateWithLookup When true connections are validated with a RootDSE lookup
+	 * instead of only checking the connected and authenticated flags. It costs a round trip.
+	 * @return this
+	 */
+	public LdapPoolConfig setValidateWithLookup(boolean validateWithLookup) {
+		this.validateWithLookup = validateWithLookup;
+		return this;
+	}
+
+	public long getEvictionRunMillis() {
+		return evictionRunMillis;
+	}
+
+	public LdapPoolConfig setEvictionRunMillis(long evictionRunMillis) {
+		this.evictionRunMillis = evictionRunMillis;
+		return this;
+	}
+
+	public long getMinEvictableIdleMillis() {
+		return minEvictableIdleMillis;
+	}
+
+	public LdapPoolConfig setMinEvictableIdleMillis(long minEvictableIdleMillis) {
+		this.minEvictableIdleMillis = minEvictableIdleMillis;
+		return this;
+	}
+
+	public long getMaxLifetimeMillis() {
+		return maxLifetimeMillis;
+	}
+
+	/**
+	 * @param maxLifetimeMillis Connections older than this are closed instead of being reused.
+	 * Zero or less disables the limit.
+	 * @return this
+	 */
+	public LdapPoolConfig setMaxLifetimeMillis(long maxLifetimeMillis) {
+		this.maxLifetimeMillis = maxLifetimeMillis;
+		return this;
+	}
+
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	public LdapPoolConfig setTimeoutMillis(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+		return this;
+	}
+
+	public boolean isUseSsl() {
+		return useSsl;
+	}
+
+	public LdapPoolConfig setUseSsl(boolean useSsl) {
+		this.useSsl = useSsl;
+		return this;
+	}
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * @param virtualThreads When true borrowers wait for a free connection on a fair semaphore instead of
+	 * inside the pool monitor, so virtual threads waiting for a connection do not pin their carrier thread.
+	 * It needs a bounded pool, maxActive greater than zero.
+	 * @return this
+	 */
+	public LdapPoolConfig setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+		return this;
+	}
+
+	public boolean isSchemaAware() {
+		return schemaAware;
+	}
+
+	/**
+	 * @param schemaAware When true the schema of the server is read once per pool, by its first connection,
+	 * and shared by all its connections, so the entries they return are schema aware and compare values,
+	 * like the Dns of uniqueMember, with the matching rules of the server.
+	 * @return this
+	 */
+	public LdapPoolConfig setSchemaAware(boolean schemaAware) {
+		this.schemaAware = schemaAware;
+		return this;
+	}
+
+	public TrustManager[] getTrustManagers() {
+		return trustManagers;
+	}
+
+	public LdapPoolConfig setTrustManagers(TrustManager... trustManagers) {
+		this.trustManagers = trustManagers;
+		return this;
+	}
+}
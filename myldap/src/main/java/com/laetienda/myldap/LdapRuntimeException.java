@@ -0,0 +1,19 @@
+package com.laetienda.myldap;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+
+/**
+ * Unchecked wrapper of an LdapException, thrown by iterators and streams that read from ldap lazily.
+ */
+public class LdapRuntimeException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public LdapRuntimeException(LdapException cause) {
+		super(cause.getMessage(), cause);
+	}
+
+	@Override
+	public LdapException getCause() {
+		return (LdapException)super.getCause();
+	}
+}
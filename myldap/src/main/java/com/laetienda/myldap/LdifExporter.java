@@ -0,0 +1,370 @@
+package com.laetienda.myldap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.ldif.LdifUtils;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes subtrees of the directory as LDIF files. Each subtree is read one level at a time, base first, with a
+ * one level paged search under every entry that has children, so parents are written before their children by
+ * construction and the files can be imported as they are. Every page is written to the file before the next one is
+ * requested, only the current page and the Dns of the entries whose children are not read yet are held.
+ * Files are written under a temporary name and moved in place when complete, readers never see a partial export.
+ */
+public class LdifExporter {
+	private static final Logger log = LogManager.getLogger(LdifExporter.class);
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	/** Operational attributes that tell whether an entry has children: standard, most servers and ApacheDS */
+	private static final List<String> SUBORDINATES = List.of("hasSubordinates", "numSubordinates", "nbChildren");
+
+	private final Ldap ldap = new Ldap();
+	private int pageSize = 500;
+	private boolean gzip = false;
+	private String filter = "(objectClass=*)";
+	private String[] attributes = { SchemaConstants.ALL_USER_ATTRIBUTES };
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * @param pageSize Number of entries requested in each page of the search
+	 * @return this
+	 */
+	public LdifExporter setPageSize(int pageSize) {
+		if(pageSize < 1) {
+			throw new IllegalArgumentException("Page size must be at least 1");
+		}
+		this.pageSize = pageSize;
+		return this;
+	}
+
+	public boolean isGzip() {
+		return gzip;
+	}
+
+	/**
+	 * @param gzip Compress the files, their names get a .gz extension
+	 * @return this
+	 */
+	public LdifExporter setGzip(boolean gzip) {
+		this.gzip = gzip;
+		return this;
+	}
+
+	public String getFilter() {
+		return filter;
+	}
+
+	/**
+	 * @param filter LDAP filter of the entries exported, values must already be escaped
+	 * @return this
+	 */
+	public LdifExporter setFilter(String filter) {
+		this.filter = filter;
+		return this;
+	}
+
+	public String[] getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * @param attributes Attributes exported, add "+" to include operational attributes
+	 * @return this
+	 */
+	public LdifExporter setAttributes(String... attributes) {
+		this.attributes = attributes;
+		return this;
+	}
+
+	/**
+	 * Exports ou=People and ou=groups of the current domain in parallel, one file each, named people.ldif
+	 * and groups.ldif (plus .gz when compressed).
+	 * @param directory Directory of the files
+	 * @param pool LdapPool connections are borrowed from
+	 * @param executor ExecutorService that runs the exports
+	 * @return results keyed by subtree
+	 * @throws LdapException if a subtree can't be exported
+	 */
+	public Map<Dn, ExportResult> exportDirectory(Path directory, LdapPool pool, ExecutorService executor) throws LdapException {
+		DirectoryBase base = LdapManager.getDirectoryBase();
+		return export(List.of(base.getPeopleDn(), base.getGroupsDn()), directory, pool, executor);
+	}
+
+	/**
+	 * Exports each subtree to its own file, named after the value of its Rdn, on its own connection.
+	 * @param bases Dn of the subtrees
+	 * @param directory Directory of the files
+	 * @param pool LdapPool connections are borrowed from
+	 * @param executor ExecutorService that runs the exports
+	 * @return results keyed by subtree, in the order of bases
+	 * @throws LdapException if a subtree can't be exported, the other exports are cancelled
+	 */
+	public Map<Dn, ExportResult> export(List<Dn> bases, Path directory, LdapPool pool, ExecutorService executor) throws LdapException {
+		List<Future<ExportResult>> futures = new ArrayList<Future<ExportResult>>(bases.size());
+
+		for(Dn base : bases) {
+			Path file = directory.resolve(base.getRdn().getValue().toLowerCase(Locale.ROOT) + ".ldif");
+
+			futures.add(executor.submit(() -> {
+				LdapConnection conn = pool.borrow();
+				try {
+					return export(base, file, conn);
+				} finally {
+					pool.release(conn);
+				}
+			}));
+		}
+
+		Map<Dn, ExportResult> result = new LinkedHashMap<Dn, ExportResult>();
+
+		try {
+			for(Future<ExportResult> future : futures) {
+				ExportResult exported = future.get();
+				result.put(exported.getBase(), exported);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new LdapOtherException("Interrupted while exporting", e);
+		} catch (ExecutionException e) {
+			for(Future<ExportResult> future : futures) {
+				future.cancel(true);
+			}
+
+			if(e.getCause() instanceof LdapException) {
+				throw (LdapException)e.getCause();
+			}
+			throw new LdapOtherException("Failed to export", e.getCause());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Exports a subtree. The base entry is written first, then its children, then theirs. Entries the server says
+	 * have no children, with hasSubordinates, numSubordinates or nbChildren, are not searched. Servers that do not say
+	 * have every entry searched. The filter applies to every level, the children of an entry it leaves out are not exported.
+	 * @param base Dn of the subtree
+	 * @param file LDIF file, .gz is appended when compressed
+	 * @param conn LdapConnection
+	 * @return ExportResult
+	 * @throws LdapException if the subtree can't be read or the file can't be written
+	 */
+	public ExportResult export(Dn base, Path file, LdapConnection conn) throws LdapException {
+		Path target = gzip ? file.resolveSibling(file.getFileName() + ".gz") : file;
+		Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+		long start = System.nanoTime();
+		long entries = 0;
+		String[] requested = requested();
+		List<String> added = Arrays.asList(requested).subList(attributes.length, requested.length);
+
+		log.info("Exporting subtree. $base: {} - $file: {}", base, target);
+
+		try {
+			try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				ChannelWriter writer = new ChannelWriter(channel, gzip);
+				writer.write("version: 1\n\n");
+
+				Entry baseEntry = conn.lookup(base, attributes);
+				if(baseEntry == null) {
+					throw new LdapNoSuchObjectException("Subtree does not exist. $base: " + base.getName());
+				}
+
+				write(writer, baseEntry);
+				entries++;
+
+				Deque<Dn> parents = new ArrayDeque<Dn>();
+				parents.add(base);
+
+				while(!parents.isEmpty()) {
+					PagedSearch search = new PagedSearch(conn, ldap.searchRequest(parents.poll(), filter, SearchScope.ONELEVEL, requested), pageSize);
+
+					try {
+						while(search.hasNext()) {
+							Entry entry = search.next();
+
+							if(hasChildren(entry)) {
+								parents.add(entry.getDn());
+							}
+
+							for(String type : added) {
+								entry.removeAttributes(type);
+							}
+
+							write(writer, entry);
+							entries++;
+						}
+					} finally {
+						search.close();
+					}
+				}
+
+				writer.finish();
+			}
+
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (LdapRuntimeException e) {
+			delete(temp);
+			log.error("Failed to export subtree. $base: {} - $error: {}", base, e.getMessage());
+			throw e.getCause();
+		} catch (LdapException e) {
+			delete(temp);
+			log.error("Failed to export subtree. $base: {} - $error: {}", base, e.getMessage());
+			throw e;
+		} catch (IOException e) {
+			delete(temp);
+			log.error("Failed to write LDIF file. $file: {} - $error: {}", target, e.getMessage());
+			throw new LdapOtherException("Failed to write LDIF file " + target, e);
+		}
+
+		ExportResult result = new ExportResult(base, target, entries, size(target), (System.nanoTime() - start) / 1000000);
+		log.info("... subtree exported. $base: {} - $entries: {} - $bytes: {} - $entriesPerSecond: {}",
+				base, entries, result.getBytes(), (long)result.getEntriesPerSecond());
+
+		return result;
+	}
+
+	/**
+	 * @return attributes exported followed by the subordinate attributes they do not include
+	 */
+	private String[] requested() {
+		List<String> result = new ArrayList<String>(Arrays.asList(attributes));
+
+		if(!result.contains(SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES)) {
+			for(String type : SUBORDINATES) {
+				if(result.stream().noneMatch(type::equalsIgnoreCase)) {
+					result.add(type);
+				}
+			}
+		}
+
+		return result.toArray(new String[result.size()]);
+	}
+
+	/**
+	 * @return false only if the server says the entry has no children
+	 */
+	private boolean hasChildren(Entry entry) throws LdapException {
+		for(String type : SUBORDINATES) {
+			Attribute attribute = entry.get(type);
+
+			if(attribute != null) {
+				String value = attribute.getString();
+				return !"FALSE".equalsIgnoreCase(value) && !"0".equals(value);
+			}
+		}
+
+		return true;
+	}
+
+	private void write(ChannelWriter writer, Entry entry) throws IOException, LdapException {
+		writer.write(LdifUtils.convertToLdif(entry));
+		writer.write("\n");
+	}
+
+	private long size(Path file) {
+		try {
+			return Files.size(file);
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	private void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			log.warn("Failed to remove partial export. $file: {} - $error: {}", file, e.getMessage());
+		}
+	}
+
+	/**
+	 * Encodes text as UTF-8 into one reusable buffer that is written to the file, through gzip or not, when it is full.
+	 */
+	private static class ChannelWriter {
+		private final FileChannel file;
+		private final GZIPOutputStream gzip;
+		private final WritableByteChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		private ChannelWriter(FileChannel file, boolean compress) throws IOException {
+			this.file = file;
+			this.gzip = compress ? new GZIPOutputStream(Channels.newOutputStream(file), BUFFER_SIZE) : null;
+			this.channel = compress ? Channels.newChannel(gzip) : file;
+		}
+
+		private void write(String text) throws IOException {
+			byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+
+			if(bytes.length > buffer.remaining()) {
+				flush();
+			}
+
+			if(bytes.length > buffer.capacity()) {
+				writeFully(ByteBuffer.wrap(bytes));
+			}else {
+				buffer.put(bytes);
+			}
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			writeFully(buffer);
+			buffer.clear();
+		}
+
+		private void writeFully(ByteBuffer source) throws IOException {
+			while(source.hasRemaining()) {
+				channel.write(source);
+			}
+		}
+
+		/**
+		 * Writes what is left in the buffer, ends the gzip stream and forces the file to disk. The file is not closed.
+		 */
+		private void finish() throws IOException {
+			flush();
+
+			if(gzip != null) {
+				gzip.finish();
+				gzip.flush();
+			}
+
+			file.force(false);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package com.laetienda.myldap;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Resolves the members of a group lazily, one page of {@link MemberResolver#getBatchSize()} members at a time.
+ * Only the current page is held in memory. Pages that are never reached are never requested.
+ * @param <T> {@link User} or {@link UserView}
+ */
+public class MemberIterator<T> implements Iterator<T>, Closeable {
+	private static final Logger log = LogManager.getLogger(MemberIterator.class);
+
+	private final Iterator<Value<?>> values;
+	private final MemberResolver resolver;
+	private final LdapConnection conn;
+	private final Mapper<T> mapper;
+	private Iterator<Entry> page = Collections.emptyIterator();
+	private boolean closed = false;
+
+	interface Mapper<T> {
+		T map(Entry entry) throws LdapException;
+	}
+
+	MemberIterator(Attribute members, MemberResolver resolver, LdapConnection conn, Mapper<T> mapper) {
+		this.values = members == null ? Collections.<Value<?>>emptyIterator() : members.iterator();
+		this.resolver = resolver;
+		this.conn = conn;
+		this.mapper = mapper;
+	}
+
+	@Override
+	public boolean hasNext() {
+
+		try {
+			while(!closed && !page.hasNext() && values.hasNext()) {
+				page = resolver.resolveBatch(nextBatch(), conn).stream().filter(MemberResolver::isUser).iterator();
+			}
+		} catch (LdapException e) {
+			close();
+			throw new LdapRuntimeException(e);
+		}
+
+		return !closed && page.hasNext();
+	}
+
+	@Override
+	public T next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		try {
+			return mapper.map(page.next());
+		} catch (LdapException e) {
+			throw new LdapRuntimeException(e);
+		}
+	}
+
+	private List<Dn> nextBatch() {
+		List<Dn> result = new ArrayList<Dn>(resolver.getBatchSize());
+
+		while(result.size() < resolver.getBatchSize() && values.hasNext()) {
+			Value<?> val = values.next();
+			try {
+				result.add(new Dn(val.getString()));
+			} catch (LdapInvalidDnException e) {
+				log.warn("Invalid member of group. $member: {}", val.getString());
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Stops the iteration, pages not read yet are not requested.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		page = Collections.emptyIterator();
+	}
+}
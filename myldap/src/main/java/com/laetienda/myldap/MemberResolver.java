@@ -0,0 +1,207 @@
+package com.laetienda.myldap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.filter.FilterEncoder;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Resolves group members with a few OR-filter searches under ou=People instead of one lookup per member.
+ * Members are searched in batches of {@link #getBatchSize()} uids with the paged results control.
+ * Members outside ou=People are looked up one by one.
+ */
+public class MemberResolver {
+	private static final Logger log = LogManager.getLogger(MemberResolver.class);
+
+	public static final int DEFAULT_BATCH_SIZE = 200;
+
+	private final Ldap ldap = new Ldap();
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private String[] attributes = { SchemaConstants.ALL_USER_ATTRIBUTES };
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @param batchSize Number of uids in each OR filter. Keep it under the size limit of the server.
+	 * @return this
+	 */
+	public MemberResolver setBatchSize(int batchSize) {
+		if(batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be at least 1");
+		}
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	public String[] getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * @param attributes Attributes requested for each member. uid is always requested because User needs it.
+	 * @return this
+	 */
+	public MemberResolver setAttributes(String... attributes) {
+		List<String> temp = new ArrayList<String>(List.of(attributes));
+		if(!temp.contains(SchemaConstants.ALL_USER_ATTRIBUTES) && !temp.contains(SchemaConstants.UID_AT)) {
+			temp.add(SchemaConstants.UID_AT);
+		}
+		this.attributes = temp.toArray(new String[temp.size()]);
+		return this;
+	}
+
+	/**
+	 * Resolves the members sequentially over one connection.
+	 * @param members Dn of the members
+	 * @param conn LdapConnection
+	 * @return Entries in the order of members. Members that do not exist are skipped.
+	 * @throws LdapException
+	 */
+	public List<Entry> resolve(Collection<Dn> members, LdapConnection conn) throws LdapException {
+		List<Entry> result = new ArrayList<Entry>(members.size());
+
+		for(List<Dn> batch : batches(members)) {
+			result.addAll(resolveBatch(batch, conn));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Resolves the batches in parallel, each batch on its own connection borrowed from pool.
+	 * @param members Dn of the members
+	 * @param pool LdapPool connections are borrowed from
+	 * @param executor ExecutorService that runs the searches
+	 * @return Entries in the order of members. Members that do not exist are skipped.
+	 * @throws LdapException
+	 */
+	public List<Entry> resolve(Collection<Dn> members, LdapPool pool, ExecutorService executor) throws LdapException {
+		List<Future<List<Entry>>> futures = new ArrayList<Future<List<Entry>>>();
+
+		for(List<Dn> batch : batches(members)) {
+			futures.add(executor.submit(() -> {
+				LdapConnection conn = pool.borrow();
+				try {
+					return resolveBatch(batch, conn);
+				} finally {
+					pool.release(conn);
+				}
+			}));
+		}
+
+		List<Entry> result = new ArrayList<Entry>(members.size());
+
+		try {
+			for(Future<List<Entry>> future : futures) {
+				result.addAll(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new LdapOtherException("Interrupted while resolving group members", e);
+		} catch (ExecutionException e) {
+			for(Future<List<Entry>> future : futures) {
+				future.cancel(true);
+			}
+
+			if(e.getCause() instanceof LdapException) {
+				throw (LdapException)e.getCause();
+			}
+			throw new LdapOtherException("Failed to resolve group members", e.getCause());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Groups can be members of other groups, only entries with a uid are users.
+	 * @param entry Entry resolved, uid is always requested
+	 * @return true if the entry is a user
+	 */
+	static boolean isUser(Entry entry) {
+		return entry.containsAttribute(SchemaConstants.UID_AT);
+	}
+	
+	List<List<Dn>> batches(Collection<Dn> members) {
+		List<List<Dn>> result = new ArrayList<List<Dn>>();
+		List<Dn> batch = new ArrayList<Dn>(Math.min(batchSize, members.size()));
+
+		for(Dn member : members) {
+			batch.add(member);
+			if(batch.size() == batchSize) {
+				result.add(batch);
+				batch = new ArrayList<Dn>(batchSize);
+			}
+		}
+
+		if(!batch.isEmpty()) {
+			result.add(batch);
+		}
+
+		return result;
+	}
+
+	List<Entry> resolveBatch(List<Dn> batch, LdapConnection conn) throws LdapException {
+		Dn people = LdapManager.getDirectoryBase().getPeopleDn();
+		String peopleKey = Ldap.normalize(people);
+		Map<String, Entry> found = new HashMap<String, Entry>();
+		StringBuilder filter = new StringBuilder("(|");
+		int uids = 0;
+
+		for(Dn member : batch) {
+			if(member.size() > 1 && SchemaConstants.UID_AT.equalsIgnoreCase(member.getRdn().getType())
+					&& peopleKey.equals(Ldap.normalize(member.getParent()))) {
+				filter.append("(uid=").append(FilterEncoder.encodeFilterValue(member.getRdn().getValue())).append(')');
+				uids++;
+			}else {
+				Entry entry = conn.lookup(member, attributes);
+				if(entry != null) {
+					found.put(Ldap.normalize(member), entry);
+				}
+			}
+		}
+		filter.append(')');
+
+		if(uids > 0) {
+			PagedSearch search = new PagedSearch(conn, ldap.searchRequest(people, filter.toString(), SearchScope.ONELEVEL, attributes), batchSize);
+			try {
+				while(search.hasNext()) {
+					Entry entry = search.next();
+					found.put(Ldap.normalize(entry.getDn()), entry);
+				}
+			} catch (LdapRuntimeException e) {
+				throw e.getCause();
+			} finally {
+				search.close();
+			}
+		}
+
+		List<Entry> result = new ArrayList<Entry>(found.size());
+		for(Dn member : batch) {
+			Entry entry = found.get(Ldap.normalize(member));
+			if(entry == null) {
+				log.debug("Group member does not exist. $member: {}", member);
+			}else {
+				result.add(entry);
+			}
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,356 @@
+package com.laetienda.myldap;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.GeneralizedTime;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * In memory reverse membership index: Dn of a user to the Dns of the groups it is a member of.
+ * Users are loaded the first time they are asked for, see {@link Ldap#findGroupDns(Dn, LdapConnection)},
+ * and kept until ttlMillis after they were loaded or until maxUsers more recent users push them out.
+ * <p>
+ * Changes made through {@link Ldap} are applied to the index as they are sent. Changes made by other
+ * clients are picked up by {@link #refresh(LdapConnection)}, which only reads the groups created or
+ * modified since the previous refresh. Enable it with {@link LdapManager#setMembershipIndex(MembershipIndex)}.
+ */
+public class MembershipIndex {
+	private static final Logger log = LogManager.getLogger(MembershipIndex.class);
+
+	/** Margin for clock differences with the server when asking for the groups changed since the last refresh */
+	private static final long REFRESH_OVERLAP_MILLIS = 5000;
+
+	private final int maxUsers;
+	private final long ttlMillis;
+	private final LinkedHashMap<String, Item> users;
+	private final Ldap ldap = new Ldap();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private volatile long lastRefresh = System.currentTimeMillis();
+	private ScheduledExecutorService scheduler;
+	private ScheduledFuture<?> refreshTask;
+
+	public MembershipIndex(int maxUsers, long ttlMillis) {
+		this.maxUsers = maxUsers;
+		this.ttlMillis = ttlMillis;
+		this.users = new LinkedHashMap<String, Item>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Item> eldest) {
+				return size() > MembershipIndex.this.maxUsers;
+			}
+		};
+	}
+
+	/**
+	 * @param user Dn of the user
+	 * @return Dns of the groups of the user, or null if the user is not indexed or has expired
+	 */
+	public Collection<Dn> get(Dn user) {
+		Item item = item(user);
+		return item == null ? null : item.groups.values();
+	}
+
+	/**
+	 * @param user Dn of the user
+	 * @param group Dn of the group
+	 * @return whether the user is in the group, or null if the user is not indexed or has expired
+	 */
+	public Boolean isMember(Dn user, Dn group) {
+		Item item = item(user);
+		return item == null ? null : item.groups.containsKey(Ldap.normalize(group));
+	}
+
+	private Item item(Dn user) {
+		String key = Ldap.normalize(user);
+		Item item;
+
+		synchronized(users) {
+			item = users.get(key);
+
+			if(item != null && System.currentTimeMillis() - item.loaded > ttlMillis) {
+				users.remove(key);
+				item = null;
+			}
+		}
+
+		if(item == null) {
+			misses.increment();
+		}else {
+			hits.increment();
+		}
+
+		return item;
+	}
+
+	public void put(Dn user, Collection<Dn> groups) {
+		Map<String, Dn> temp = new HashMap<String, Dn>();
+
+		for(Dn group : groups) {
+			temp.put(Ldap.normalize(group), group);
+		}
+
+		Item item = new Item(Collections.unmodifiableMap(temp), System.currentTimeMillis());
+
+		synchronized(users) {
+			users.put(Ldap.normalize(user), item);
+		}
+	}
+
+	public void invalidate(Dn user) {
+		synchronized(users) {
+			users.remove(Ldap.normalize(user));
+		}
+	}
+
+	public void clear() {
+		synchronized(users) {
+			users.clear();
+		}
+	}
+
+	public int size() {
+		synchronized(users) {
+			return users.size();
+		}
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Updates the users of the index that are members of a group that was just added.
+	 * @param entry entry of the new group
+	 */
+	public void groupAdded(Entry entry) {
+		Attribute members = entry.get("uniqueMember");
+
+		if(members != null) {
+			for(Value<?> value : members) {
+				update(value.getString(), entry.getDn(), true);
+			}
+		}
+	}
+
+	public void groupDeleted(Dn group) {
+		String groupKey = Ldap.normalize(group);
+
+		synchronized(users) {
+			for(Map.Entry<String, Item> user : users.entrySet()) {
+				if(user.getValue().groups.containsKey(groupKey)) {
+					user.setValue(user.getValue().without(groupKey));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Applies the uniqueMember changes of a modify request that succeeded.
+	 * @param dn Dn of the modified entry
+	 * @param modifications coalesced modifications, see {@link ModificationCoalescer}
+	 */
+	public void modified(Dn dn, List<Modification> modifications) {
+		for(Modification modification : modifications) {
+			Attribute attribute = modification.getAttribute();
+
+			if(!"uniquemember".equalsIgnoreCase(attribute.getUpId())) {
+				continue;
+			}
+
+			switch(modification.getOperation()) {
+				case ADD_ATTRIBUTE:
+					for(Value<?> value : attribute) {
+						update(value.getString(), dn, true);
+					}
+					break;
+				case REMOVE_ATTRIBUTE:
+					for(Value<?> value : attribute) {
+						update(value.getString(), dn, false);
+					}
+					break;
+				default:
+					groupDeleted(dn);
+					for(Value<?> value : attribute) {
+						update(value.getString(), dn, true);
+					}
+			}
+		}
+	}
+
+	private void update(String member, Dn group, boolean add) {
+		String key;
+
+		try {
+			key = Ldap.normalize(new Dn(member));
+		} catch (LdapInvalidDnException e) {
+			log.debug("Invalid member in membership update. $member: {}", member);
+			return;
+		}
+
+		String groupKey = Ldap.normalize(group);
+
+		synchronized(users) {
+			Item item = users.get(key);
+
+			if(item != null) {
+				users.put(key, add ? item.with(groupKey, group) : item.without(groupKey));
+			}
+		}
+	}
+
+	/**
+	 * Reads the groups created or modified since the previous refresh and updates the indexed users with them.
+	 * Groups deleted by other clients are not seen, they disappear when the users expire.
+	 * @param conn LdapConnection
+	 * @throws LdapException
+	 */
+	public void refresh(LdapConnection conn) throws LdapException {
+		long started = System.currentTimeMillis();
+		String since = new GeneralizedTime(new Date(lastRefresh - REFRESH_OVERLAP_MILLIS)).toGeneralizedTime();
+		String filter = "(&(objectClass=groupOfUniqueNames)(|(modifyTimestamp>=" + since + ")(createTimestamp>=" + since + ")))";
+		PagedSearch search = new PagedSearch(conn, ldap.searchRequest(LdapManager.getDirectoryBase().getGroupsDn(), filter, SearchScope.ONELEVEL, "uniqueMember"), 100);
+		int groups = 0;
+
+		try {
+			while(search.hasNext()) {
+				Entry group = search.next();
+				Set<String> members = new HashSet<String>();
+				Attribute attribute = group.get("uniqueMember");
+
+				if(attribute != null) {
+					for(Value<?> value : attribute) {
+						try {
+							members.add(Ldap.normalize(new Dn(value.getString())));
+						} catch (LdapInvalidDnException e) {
+							log.debug("Invalid member in group. $group: {} - $member: {}", group.getDn(), value.getString());
+						}
+					}
+				}
+
+				refreshGroup(group.getDn(), members);
+				groups++;
+			}
+		} catch (LdapRuntimeException e) {
+			throw e.getCause();
+		} finally {
+			search.close();
+		}
+
+		lastRefresh = started;
+		log.debug("Membership index refreshed. $changedGroups: {}", groups);
+	}
+
+	private void refreshGroup(Dn group, Set<String> members) {
+		String groupKey = Ldap.normalize(group);
+
+		synchronized(users) {
+			for(Map.Entry<String, Item> user : users.entrySet()) {
+				boolean member = members.contains(user.getKey());
+
+				if(member != user.getValue().groups.containsKey(groupKey)) {
+					user.setValue(member ? user.getValue().with(groupKey, group) : user.getValue().without(groupKey));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Refreshes the index every periodMillis with a connection borrowed from pool.
+	 * Calling it again replaces the previous schedule.
+	 * @param pool LdapPool
+	 * @param periodMillis time between refreshes
+	 */
+	public synchronized void scheduleRefresh(LdapPool pool, long periodMillis) {
+		stopRefresh();
+
+		if(scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread result = new Thread(runnable, "myldap-membership-refresh");
+				result.setDaemon(true);
+				return result;
+			});
+		}
+
+		refreshTask = scheduler.scheduleWithFixedDelay(() -> {
+			LdapConnection conn = null;
+			try {
+				conn = pool.borrow();
+				refresh(conn);
+			} catch (LdapException | LdapRuntimeException e) {
+				log.warn("Failed to refresh membership index. $error: {}", e.getMessage());
+			} finally {
+				if(conn != null) {
+					pool.release(conn);
+				}
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stopRefresh() {
+		if(refreshTask != null) {
+			refreshTask.cancel(false);
+			refreshTask = null;
+		}
+	}
+
+	public synchronized void shutdown() {
+		stopRefresh();
+
+		if(scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	private static class Item {
+		private final Map<String, Dn> groups;
+		private final long loaded;
+
+		private Item(Map<String, Dn> groups, long loaded) {
+			this.groups = groups;
+			this.loaded = loaded;
+		}
+
+		private Item with(String key, Dn group) {
+			Map<String, Dn> temp = new HashMap<String, Dn>(groups);
+			temp.put(key, group);
+			return new Item(Collections.unmodifiableMap(temp), loaded);
+		}
+
+		private Item without(String key) {
+			Map<String, Dn> temp = new HashMap<String, Dn>(groups);
+			temp.remove(key);
+			return new Item(Collections.unmodifiableMap(temp), loaded);
+		}
+	}
+}
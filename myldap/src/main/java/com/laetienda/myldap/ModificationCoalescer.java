@@ -0,0 +1,195 @@
+package com.laetienda.myldap;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.Value;
+
+/**
+ * Merges the modifications of an entity so they can be sent in one modify request.
+ * The result has the same effect as applying the modifications one by one:
+ * <ul>
+ * <li>a REPLACE discards what was done before to the attribute, later ADDs and REMOVEs are folded into its values;</li>
+ * <li>ADDs and REMOVEs of the same attribute are merged, a value added and then removed (or the opposite) cancels out;</li>
+ * <li>a REMOVE without values is a REPLACE without values.</li>
+ * </ul>
+ * Attributes keep the order in which they were first modified.
+ */
+public class ModificationCoalescer {
+
+	private ModificationCoalescer() {
+
+	}
+
+	public static List<Modification> coalesce(List<Modification> modifications) {
+		Map<String, Change> changes = new LinkedHashMap<String, Change>();
+
+		for(Modification modification : modifications) {
+			Attribute attribute = modification.getAttribute();
+			String key = attribute.getUpId().toLowerCase(Locale.ROOT);
+			Change change = changes.computeIfAbsent(key, k -> new Change(attribute.getUpId()));
+
+			switch(modification.getOperation()) {
+				case REPLACE_ATTRIBUTE:
+					change.replace(attribute);
+					break;
+				case ADD_ATTRIBUTE:
+					change.add(attribute);
+					break;
+				case REMOVE_ATTRIBUTE:
+					change.remove(attribute);
+					break;
+				default:
+					change.other.add(modification);
+			}
+		}
+
+		List<Modification> result = new ArrayList<Modification>();
+
+		for(Change change : changes.values()) {
+			change.appendTo(result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Splits modifications so no group has more than maxValues values, to stay under the limits of the server
+	 * on the size of one request. Large ADDs and REMOVEs are split in several modifications of the same attribute.
+	 * A REPLACE is never split because each part would undo the previous one.
+	 * @param modifications coalesced modifications
+	 * @param maxValues maximum number of values in a group, at least 1
+	 * @return groups of modifications in the original order, each one can be sent in its own modify request
+	 */
+	public static List<List<Modification>> chunk(List<Modification> modifications, int maxValues) {
+		if(maxValues < 1) {
+			throw new IllegalArgumentException("maxValues must be at least 1");
+		}
+
+		List<List<Modification>> result = new ArrayList<List<Modification>>();
+		List<Modification> current = new ArrayList<Modification>();
+		int size = 0;
+
+		for(Modification modification : modifications) {
+			Attribute attribute = modification.getAttribute();
+			int values = Math.max(1, attribute.size());
+			boolean splittable = modification.getOperation() != ModificationOperation.REPLACE_ATTRIBUTE && attribute.size() > 0;
+
+			if(size + values <= maxValues || !splittable) {
+				if(size > 0 && size + values > maxValues) {
+					result.add(current);
+					current = new ArrayList<Modification>();
+					size = 0;
+				}
+				current.add(modification);
+				size += values;
+				continue;
+			}
+
+			if(size >= maxValues) {
+				result.add(current);
+				current = new ArrayList<Modification>();
+				size = 0;
+			}
+
+			List<Value<?>> part = new ArrayList<Value<?>>();
+			for(Value<?> value : attribute) {
+				part.add(value);
+
+				if(size + part.size() == maxValues) {
+					current.add(new DefaultModification(modification.getOperation(), new DefaultAttribute(attribute.getUpId(), part.toArray(new Value<?>[part.size()]))));
+					result.add(current);
+					current = new ArrayList<Modification>();
+					size = 0;
+					part.clear();
+				}
+			}
+
+			if(!part.isEmpty()) {
+				current.add(new DefaultModification(modification.getOperation(), new DefaultAttribute(attribute.getUpId(), part.toArray(new Value<?>[part.size()]))));
+				size += part.size();
+			}
+		}
+
+		if(!current.isEmpty()) {
+			result.add(current);
+		}
+
+		return result;
+	}
+
+	private static class Change {
+		private final String upId;
+		private Set<Value<?>> replace;
+		private final Set<Value<?>> added = new LinkedHashSet<Value<?>>();
+		private final Set<Value<?>> removed = new LinkedHashSet<Value<?>>();
+		private final List<Modification> other = new ArrayList<Modification>();
+
+		private Change(String upId) {
+			this.upId = upId;
+		}
+
+		private void replace(Attribute attribute) {
+			replace = new LinkedHashSet<Value<?>>();
+			added.clear();
+			removed.clear();
+			other.clear();
+
+			for(Value<?> value : attribute) {
+				replace.add(value);
+			}
+		}
+
+		private void add(Attribute attribute) {
+			for(Value<?> value : attribute) {
+				if(replace != null) {
+					replace.add(value);
+				}else if(!removed.remove(value)) {
+					added.add(value);
+				}
+			}
+		}
+
+		private void remove(Attribute attribute) {
+			if(attribute.size() == 0) {
+				replace(attribute);
+				return;
+			}
+
+			for(Value<?> value : attribute) {
+				if(replace != null) {
+					replace.remove(value);
+				}else if(!added.remove(value)) {
+					removed.add(value);
+				}
+			}
+		}
+
+		private void appendTo(List<Modification> result) {
+			if(replace != null) {
+				result.add(new DefaultModification(ModificationOperation.REPLACE_ATTRIBUTE, new DefaultAttribute(upId, replace.toArray(new Value<?>[replace.size()]))));
+				return;
+			}
+
+			if(!removed.isEmpty()) {
+				result.add(new DefaultModification(ModificationOperation.REMOVE_ATTRIBUTE, new DefaultAttribute(upId, removed.toArray(new Value<?>[removed.size()]))));
+			}
+
+			if(!added.isEmpty()) {
+				result.add(new DefaultModification(ModificationOperation.ADD_ATTRIBUTE, new DefaultAttribute(upId, added.toArray(new Value<?>[added.size()]))));
+			}
+
+			result.addAll(other);
+		}
+	}
+}
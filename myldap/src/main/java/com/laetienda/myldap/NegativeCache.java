@@ -0,0 +1,552 @@
+package com.laetienda.myldap;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Answers locally that a Dn or an email address does not exist, so registrations and member checks of names that are
+ * not taken don't need a round trip. It has two parts:
+ * <ul>
+ * <li>The Dns and emails looked up and not found, kept ttlMillis or until maxSize more recent misses push them out.</li>
+ * <li>Optionally a Bloom filter of every user, group and email, built by {@link #rebuild(LdapConnection)} with a paged
+ * scan of ou=People and ou=groups. A user or group Dn the filter doesn't know does not exist, the other answers go to the server.</li>
+ * </ul>
+ * Entries added and emails set through {@link Ldap} and {@link BulkImporter} are known at once. Entries added by other clients are
+ * reported missing until the misses expire and the filter is rebuilt, keep ttlMillis short and the refresh period in line with it.
+ * Enable it with {@link LdapManager#setNegativeCache(NegativeCache)}.
+ */
+public class NegativeCache {
+	private static final Logger log = LogManager.getLogger(NegativeCache.class);
+
+	private static final int MIN_BITS = 1 << 10;
+	/** More hashes barely lower the false positive rate and every lookup pays for them, small sets would get hundreds */
+	private static final int MAX_HASHES = 16;
+
+	private final int maxSize;
+	private final long ttlMillis;
+	private final LinkedHashMap<String, Long> missing;
+	private final Ldap ldap = new Ldap();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/** Changes every time something is added, a miss seen before an addition is not recorded */
+	private final AtomicLong version = new AtomicLong();
+
+	private final ReentrantLock rebuildLock = new ReentrantLock();
+	private final ReentrantLock filterLock = new ReentrantLock();
+	private volatile Filter filter;
+	private Set<String> addedWhileRebuilding;
+	private double falsePositiveRate = 0.01;
+
+	private ScheduledExecutorService scheduler;
+	private ScheduledFuture<?> refreshTask;
+
+	public NegativeCache(int maxSize, long ttlMillis) {
+		this.maxSize = maxSize;
+		this.ttlMillis = ttlMillis;
+		this.missing = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+				return size() > NegativeCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * @param dn Dn of the entry
+	 * @return true if the entry is known not to exist, false if only the server knows
+	 */
+	public boolean isMissing(Dn dn) {
+		String key = dnKey(dn);
+		Filter current = filter;
+		boolean result = isRecorded(key) || (current != null && current.covers(dn) && !current.mightContain(key));
+		count(result);
+		return result;
+	}
+
+	/**
+	 * @param mail email address, compared ignoring case
+	 * @return true if no user is known to have the email address, false if only the server knows
+	 */
+	public boolean isMissingMail(String mail) {
+		String key = mailKey(mail);
+		Filter current = filter;
+		boolean result = isRecorded(key) || (current != null && !current.mightContain(key));
+		count(result);
+		return result;
+	}
+
+	/**
+	 * Take it before asking the server and give it back to {@link #missing(Dn, long)}.
+	 * @return current version of the cache
+	 */
+	public long stamp() {
+		return version.get();
+	}
+
+	/**
+	 * Records that the entry was not found, unless something was added since stamp was taken.
+	 * @param dn Dn of the entry
+	 * @param stamp {@link #stamp()} taken before the lookup
+	 */
+	public void missing(Dn dn, long stamp) {
+		record(dnKey(dn), stamp);
+	}
+
+	/**
+	 * Records that no user has the email address, unless something was added since stamp was taken.
+	 * @param mail email address
+	 * @param stamp {@link #stamp()} taken before the search
+	 */
+	public void missingMail(String mail, long stamp) {
+		record(mailKey(mail), stamp);
+	}
+
+	/**
+	 * Makes the entry and its emails known. Call it before the entry is sent, adding it twice is harmless.
+	 * @param entry Entry being added
+	 */
+	public void added(Entry entry) {
+		Attribute mails = entry.get(SchemaConstants.MAIL_AT);
+		known(dnKey(entry.getDn()));
+
+		if(mails != null) {
+			for(Value<?> value : mails) {
+				known(mailKey(value.getString()));
+			}
+		}
+	}
+
+	/**
+	 * Makes the emails added or replaced by the modifications known.
+	 * @param dn Dn of the modified entry
+	 * @param modifications modifications sent or about to be sent
+	 */
+	public void modified(Dn dn, Iterable<Modification> modifications) {
+		for(Modification modification : modifications) {
+			Attribute attribute = modification.getAttribute();
+
+			if(modification.getOperation() != ModificationOperation.REMOVE_ATTRIBUTE && SchemaConstants.MAIL_AT.equalsIgnoreCase(attribute.getUpId())) {
+				for(Value<?> value : attribute) {
+					known(mailKey(value.getString()));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forgets that the entry was not found.
+	 * @param dn Dn of the entry
+	 */
+	public void invalidate(Dn dn) {
+		String key = dnKey(dn);
+		version.incrementAndGet();
+
+		synchronized(missing) {
+			missing.remove(key);
+		}
+	}
+
+	/**
+	 * Forgets the misses, the Bloom filter is kept.
+	 */
+	public void clear() {
+		version.incrementAndGet();
+
+		synchronized(missing) {
+			missing.clear();
+		}
+	}
+
+	/**
+	 * Reads every user, group and email with a paged scan and replaces the Bloom filter with one sized for them.
+	 * What is added while the scan runs is copied into the new filter. Rebuilds running at the same time wait for each other.
+	 * @param conn LdapConnection
+	 * @throws LdapException
+	 */
+	public void rebuild(LdapConnection conn) throws LdapException {
+		rebuildLock.lock();
+		try {
+			log.debug("Rebuilding negative cache filter...");
+			DirectoryBase base = LdapManager.getDirectoryBase();
+			Set<String> added = ConcurrentHashMap.newKeySet();
+			HashList hashes = new HashList();
+
+			filterLock.lock();
+			try {
+				addedWhileRebuilding = added;
+			} finally {
+				filterLock.unlock();
+			}
+
+			try {
+				scan(base.getPeopleDn(), hashes, conn, SchemaConstants.MAIL_AT);
+				scan(base.getGroupsDn(), hashes, conn, SchemaConstants.NO_ATTRIBUTE);
+			} catch (LdapException | RuntimeException e) {
+				filterLock.lock();
+				try {
+					addedWhileRebuilding = null;
+				} finally {
+					filterLock.unlock();
+				}
+				throw e;
+			}
+
+			Filter result = new Filter(Ldap.normalize(base.getPeopleDn()), Ldap.normalize(base.getGroupsDn()), hashes.size() * 2, falsePositiveRate);
+
+			for(int c = 0; c < hashes.size(); c++) {
+				result.add(hashes.get(c));
+			}
+
+			filterLock.lock();
+			try {
+				for(String key : added) {
+					result.add(hash(key));
+				}
+
+				filter = result;
+				addedWhileRebuilding = null;
+			} finally {
+				filterLock.unlock();
+			}
+
+			log.debug("... negative cache filter rebuilt succesfully. $keys: {} - $bits: {}", hashes.size(), result.size);
+		} finally {
+			rebuildLock.unlock();
+		}
+	}
+
+	/**
+	 * Rebuilds the Bloom filter now and then every periodMillis with a connection borrowed from pool.
+	 * Calling it again replaces the previous schedule.
+	 * @param pool LdapPool
+	 * @param periodMillis time between rebuilds
+	 */
+	public synchronized void scheduleRefresh(LdapPool pool, long periodMillis) {
+		stopRefresh();
+
+		if(scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread result = new Thread(runnable, "myldap-negative-cache-refresh");
+				result.setDaemon(true);
+				return result;
+			});
+		}
+
+		refreshTask = scheduler.scheduleWithFixedDelay(() -> {
+			LdapConnection conn = null;
+			try {
+				conn = pool.borrow();
+				rebuild(conn);
+			} catch (LdapException | LdapRuntimeException e) {
+				log.warn("Failed to rebuild negative cache filter. $error: {}", e.getMessage());
+			} finally {
+				if(conn != null) {
+					pool.release(conn);
+				}
+			}
+		}, 0, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stopRefresh() {
+		if(refreshTask != null) {
+			refreshTask.cancel(false);
+			refreshTask = null;
+		}
+	}
+
+	public synchronized void shutdown() {
+		stopRefresh();
+
+		if(scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * Removes expired misses. Expired misses are also removed when they are read.
+	 */
+	public void purge() {
+		long now = System.currentTimeMillis();
+
+		synchronized(missing) {
+			Iterator<Long> iterator = missing.values().iterator();
+			while(iterator.hasNext()) {
+				if(iterator.next() < now) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	public int size() {
+		synchronized(missing) {
+			return missing.size();
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	public double getFalsePositiveRate() {
+		return falsePositiveRate;
+	}
+
+	/**
+	 * @param falsePositiveRate share of missing names the Bloom filter sends to the server anyway, used from the next rebuild
+	 * @return this
+	 */
+	public NegativeCache setFalsePositiveRate(double falsePositiveRate) {
+		if(falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+		}
+		this.falsePositiveRate = falsePositiveRate;
+		return this;
+	}
+
+	/**
+	 * @return true once the Bloom filter has been built
+	 */
+	public boolean hasFilter() {
+		return filter != null;
+	}
+
+	/**
+	 * @return number of times a name was answered missing locally
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return number of times the server had to be asked
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	private void count(boolean hit) {
+		if(hit) {
+			hits.increment();
+		}else {
+			misses.increment();
+		}
+	}
+
+	private boolean isRecorded(String key) {
+		synchronized(missing) {
+			Long expires = missing.get(key);
+
+			if(expires != null && expires < System.currentTimeMillis()) {
+				missing.remove(key);
+				expires = null;
+			}
+
+			return expires != null;
+		}
+	}
+
+	private void record(String key, long stamp) {
+		synchronized(missing) {
+			if(version.get() == stamp) {
+				missing.put(key, System.currentTimeMillis() + ttlMillis);
+			}
+		}
+	}
+
+	private void known(String key) {
+		long hash = hash(key);
+		version.incrementAndGet();
+
+		synchronized(missing) {
+			missing.remove(key);
+		}
+
+		filterLock.lock();
+		try {
+			Filter current = filter;
+			if(current != null) {
+				current.add(hash);
+			}
+
+			if(addedWhileRebuilding != null) {
+				addedWhileRebuilding.add(key);
+			}
+		} finally {
+			filterLock.unlock();
+		}
+	}
+
+	private void scan(Dn base, HashList hashes, LdapConnection conn, String attribute) throws LdapException {
+		PagedSearch search = new PagedSearch(conn, ldap.searchRequest(base, "(objectClass=*)", SearchScope.ONELEVEL, attribute), 500);
+
+		try {
+			while(search.hasNext()) {
+				Entry entry = search.next();
+				hashes.add(hash(dnKey(entry.getDn())));
+				Attribute mails = entry.get(SchemaConstants.MAIL_AT);
+
+				if(mails != null) {
+					for(Value<?> value : mails) {
+						hashes.add(hash(mailKey(value.getString())));
+					}
+				}
+			}
+		} catch (LdapRuntimeException e) {
+			throw e.getCause();
+		} finally {
+			search.close();
+		}
+	}
+
+	private static String dnKey(Dn dn) {
+		return "d" + Ldap.normalize(dn);
+	}
+
+	private static String mailKey(String mail) {
+		return "m" + mail.trim().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * 64 bit FNV-1a of the key, mixed with the finalizer of MurmurHash3 so every bit depends on every char.
+	 */
+	static long hash(String key) {
+		long result = 0xcbf29ce484222325L;
+
+		for(int c = 0; c < key.length(); c++) {
+			result = (result ^ key.charAt(c)) * 0x100000001b3L;
+		}
+
+		return mix(result);
+	}
+
+	private static long mix(long value) {
+		value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+		value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return value ^ (value >>> 33);
+	}
+
+	/**
+	 * Bloom filter over the hashes of the keys, the bit positions come from two hashes (Kirsch and Mitzenmacher).
+	 * Bits are only ever set, so it can be read while it is written.
+	 */
+	static class Filter {
+		private final String peopleKey;
+		private final String groupsKey;
+		private final AtomicLongArray bits;
+		private final long size;
+		private final int hashes;
+
+		Filter(String peopleKey, String groupsKey, int expectedKeys, double falsePositiveRate) {
+			long wanted = (long) Math.ceil(-Math.max(expectedKeys, 1) * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+			long words = (Math.max(wanted, MIN_BITS) + 63) / 64;
+
+			this.peopleKey = peopleKey;
+			this.groupsKey = groupsKey;
+			this.bits = new AtomicLongArray((int) Math.min(words, Integer.MAX_VALUE - 8));
+			this.size = bits.length() * 64L;
+			this.hashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round((double) size / Math.max(expectedKeys, 1) * Math.log(2))));
+		}
+
+		int getHashes() {
+			return hashes;
+		}
+
+		/**
+		 * Only users and groups are scanned, other Dns are not known by the filter.
+		 */
+		boolean covers(Dn dn) {
+			if(dn.size() < 2) {
+				return false;
+			}
+
+			String parent = Ldap.normalize(dn.getParent());
+			return parent.equals(peopleKey) || parent.equals(groupsKey);
+		}
+
+		boolean mightContain(String key) {
+			long hash = hash(key);
+			long second = second(hash);
+
+			for(int c = 0; c < hashes; c++) {
+				long bit = Long.remainderUnsigned(hash + c * second, size);
+				if((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		void add(long hash) {
+			long second = second(hash);
+
+			for(int c = 0; c < hashes; c++) {
+				long bit = Long.remainderUnsigned(hash + c * second, size);
+				bits.accumulateAndGet((int) (bit >>> 6), 1L << bit, (a, b) -> a | b);
+			}
+		}
+
+		private static long second(long hash) {
+			return mix(hash ^ 0x9e3779b97f4a7c15L) | 1;
+		}
+	}
+
+	/**
+	 * Growable list of hashes, the keys themselves are not kept while scanning.
+	 */
+	private static class HashList {
+		private long[] values = new long[1024];
+		private int size;
+
+		private void add(long value) {
+			if(size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		private long get(int index) {
+			return values[index];
+		}
+
+		private int size() {
+			return size;
+		}
+	}
+}
@@ -0,0 +1,376 @@
+package com.laetienda.myldap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.filter.FilterEncoder;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Expands nested groups breadth first. The groups of one nesting level are read together with a few
+ * OR-filter searches under ou=groups, members that are not under ou=groups are taken as users.
+ * Each group is expanded once per call, so diamonds are read once and cycles are detected and cut.
+ * Nesting deeper than {@link #getMaxDepth()} is not followed and the expansion is marked as truncated.
+ * <p>
+ * The direct members of the groups read and the complete expansions are kept for ttlMillis and shared
+ * by every call on the same resolver, reuse one instance to benefit from them. Changes to groups are seen
+ * once they expire or after {@link #clear()}.
+ */
+public class NestedGroupResolver {
+	private static final Logger log = LogManager.getLogger(NestedGroupResolver.class);
+
+	public static final int DEFAULT_MAX_DEPTH = 16;
+
+	private final Ldap ldap = new Ldap();
+	private final int maxGroups;
+	private final long ttlMillis;
+	private final LinkedHashMap<String, Item<Members>> direct;
+	private final LinkedHashMap<String, Item<GroupExpansion>> expanded;
+	private int maxDepth = DEFAULT_MAX_DEPTH;
+	private int batchSize = MemberResolver.DEFAULT_BATCH_SIZE;
+
+	public NestedGroupResolver() {
+		this(10000, 60000);
+	}
+
+	/**
+	 * @param maxGroups maximum number of groups kept, for direct members and for expansions each
+	 * @param ttlMillis how long what was read is reused, 0 reads every group on every call
+	 */
+	public NestedGroupResolver(int maxGroups, long ttlMillis) {
+		this.maxGroups = maxGroups;
+		this.ttlMillis = ttlMillis;
+		this.direct = lru();
+		this.expanded = lru();
+	}
+
+	private <T> LinkedHashMap<String, Item<T>> lru() {
+		return new LinkedHashMap<String, Item<T>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Item<T>> eldest) {
+				return size() > maxGroups;
+			}
+		};
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @param maxDepth Number of nesting levels followed, 0 takes only the direct members
+	 * @return this
+	 */
+	public NestedGroupResolver setMaxDepth(int maxDepth) {
+		if(maxDepth < 0) {
+			throw new IllegalArgumentException("Max depth can not be negative");
+		}
+		this.maxDepth = maxDepth;
+		return this;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @param batchSize Number of groups in each OR filter
+	 * @return this
+	 */
+	public NestedGroupResolver setBatchSize(int batchSize) {
+		if(batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be at least 1");
+		}
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * @param group Dn of the group
+	 * @param conn LdapConnection
+	 * @return GroupExpansion, without members if the group does not exist
+	 * @throws LdapException
+	 */
+	public GroupExpansion expand(Dn group, LdapConnection conn) throws LdapException {
+		return expand(group, null, conn);
+	}
+
+	/**
+	 * Expands a group that was already read, its direct members are taken from its entry.
+	 * @param group Group
+	 * @param conn LdapConnection
+	 * @return GroupExpansion
+	 * @throws LdapException
+	 */
+	public GroupExpansion expand(Group group, LdapConnection conn) throws LdapException {
+		return expand(group.getLdapEntry().getDn(), members(group.getLdapEntry()), conn);
+	}
+
+	private GroupExpansion expand(Dn root, Members rootMembers, LdapConnection conn) throws LdapException {
+		String rootKey = Ldap.normalize(root);
+		GroupExpansion result = get(expanded, rootKey);
+
+		if(result != null) {
+			return result;
+		}
+
+		Map<String, Dn> users = new LinkedHashMap<String, Dn>();
+		Map<String, Dn> groups = new LinkedHashMap<String, Dn>();
+		Map<String, String> parents = new HashMap<String, String>();
+		Set<String> visited = new HashSet<String>();
+		List<Dn> cycles = new ArrayList<Dn>();
+		List<Dn> frontier = new ArrayList<Dn>();
+		boolean truncated = false;
+		int depth = 0;
+		int deepest = 0;
+
+		visited.add(rootKey);
+		frontier.add(root);
+
+		while(!frontier.isEmpty()) {
+			Map<String, Members> level = rootMembers != null && depth == 0 ? Map.of(rootKey, rootMembers) : load(frontier, conn);
+			List<Dn> next = new ArrayList<Dn>();
+
+			for(Dn group : frontier) {
+				String key = Ldap.normalize(group);
+				Members members = level.get(key);
+
+				if(members == null) {
+					log.debug("Nested group does not exist. $group: {}", group);
+					continue;
+				}
+
+				for(Dn user : members.users) {
+					users.putIfAbsent(Ldap.normalize(user), user);
+				}
+
+				for(Dn subgroup : members.groups) {
+					String subKey = Ldap.normalize(subgroup);
+
+					if(!visited.add(subKey)) {
+						if(isAncestor(subKey, key, parents)) {
+							log.warn("Group membership cycle. $group: {} - $member: {}", group, subgroup);
+							cycles.add(subgroup);
+						}
+						continue;
+					}
+
+					groups.put(subKey, subgroup);
+					GroupExpansion memo = get(expanded, subKey);
+
+					// A memo deeper than the levels left is expanded again, so the result is truncated as it would be without it
+					if(memo == null || depth + 1 + memo.getDepth() > maxDepth) {
+						parents.put(subKey, key);
+						next.add(subgroup);
+						continue;
+					}
+
+					for(Dn user : memo.getUserDns()) {
+						users.putIfAbsent(Ldap.normalize(user), user);
+					}
+
+					for(Dn nested : memo.getGroupDns()) {
+						String nestedKey = Ldap.normalize(nested);
+
+						// The memo of a group in a cycle with root reaches root, which is not a nested group of itself
+						if(nestedKey.equals(rootKey)) {
+							if(!cycles.contains(root)) {
+								log.warn("Group membership cycle. $group: {} - $member: {}", subgroup, root);
+								cycles.add(root);
+							}
+							continue;
+						}
+
+						visited.add(nestedKey);
+						groups.putIfAbsent(nestedKey, nested);
+					}
+
+					for(Dn cycle : memo.getCycles()) {
+						if(!cycles.contains(cycle)) {
+							cycles.add(cycle);
+						}
+					}
+
+					deepest = Math.max(deepest, depth + 1 + memo.getDepth());
+				}
+			}
+
+			if(next.isEmpty()) {
+				break;
+			}
+
+			if(depth == maxDepth) {
+				log.warn("Nested groups deeper than max depth were not expanded. $group: {} - $maxDepth: {}", root, maxDepth);
+				truncated = true;
+				break;
+			}
+
+			depth++;
+			frontier = next;
+		}
+
+		result = new GroupExpansion(root, new ArrayList<Dn>(users.values()), new ArrayList<Dn>(groups.values()), cycles, Math.max(depth, deepest), truncated);
+
+		if(!truncated) {
+			put(expanded, rootKey, result);
+		}
+
+		return result;
+	}
+
+	private boolean isAncestor(String candidate, String group, Map<String, String> parents) {
+		for(String current = group; current != null; current = parents.get(current)) {
+			if(current.equals(candidate)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private Map<String, Members> load(List<Dn> groups, LdapConnection conn) throws LdapException {
+		Dn groupsDn = LdapManager.getDirectoryBase().getGroupsDn();
+		String groupsKey = Ldap.normalize(groupsDn);
+		Map<String, Members> result = new HashMap<String, Members>();
+		List<String> cns = new ArrayList<String>();
+
+		for(Dn group : groups) {
+			String key = Ldap.normalize(group);
+			Members members = get(direct, key);
+
+			if(members != null) {
+				result.put(key, members);
+			}else if(group.size() > 1 && "cn".equalsIgnoreCase(group.getRdn().getType()) && groupsKey.equals(Ldap.normalize(group.getParent()))) {
+				cns.add(group.getRdn().getValue());
+			}else {
+				Entry entry = conn.lookup(group, "uniqueMember");
+				if(entry != null) {
+					cache(result, key, members(entry));
+				}
+			}
+		}
+
+		for(int start = 0; start < cns.size(); start += batchSize) {
+			StringBuilder filter = new StringBuilder("(&(objectClass=groupOfUniqueNames)(|");
+			for(String cn : cns.subList(start, Math.min(cns.size(), start + batchSize))) {
+				filter.append("(cn=").append(FilterEncoder.encodeFilterValue(cn)).append(')');
+			}
+			filter.append("))");
+
+			PagedSearch search = new PagedSearch(conn, ldap.searchRequest(groupsDn, filter.toString(), SearchScope.ONELEVEL, "uniqueMember"), batchSize);
+			try {
+				while(search.hasNext()) {
+					Entry entry = search.next();
+					cache(result, Ldap.normalize(entry.getDn()), members(entry));
+				}
+			} catch (LdapRuntimeException e) {
+				throw e.getCause();
+			} finally {
+				search.close();
+			}
+		}
+
+		return result;
+	}
+
+	private void cache(Map<String, Members> result, String key, Members members) {
+		result.put(key, members);
+		put(direct, key, members);
+	}
+
+	private Members members(Entry entry) {
+		String groupsKey = Ldap.normalize(LdapManager.getDirectoryBase().getGroupsDn());
+		Attribute attribute = entry.get("uniqueMember");
+		Members result = new Members();
+
+		if(attribute != null) {
+			for(Value<?> value : attribute) {
+				try {
+					Dn member = new Dn(value.getString());
+
+					if(member.size() > 1 && groupsKey.equals(Ldap.normalize(member.getParent()))) {
+						result.groups.add(member);
+					}else {
+						result.users.add(member);
+					}
+				} catch (LdapInvalidDnException e) {
+					log.warn("Invalid member of group. $group: {} - $member: {}", entry.getDn(), value.getString());
+				}
+			}
+		}
+
+		return result;
+	}
+
+	private <T> T get(LinkedHashMap<String, Item<T>> map, String key) {
+		synchronized(map) {
+			Item<T> item = map.get(key);
+
+			if(item == null) {
+				return null;
+			}
+
+			if(System.currentTimeMillis() > item.expires) {
+				map.remove(key);
+				return null;
+			}
+
+			return item.value;
+		}
+	}
+
+	private <T> void put(LinkedHashMap<String, Item<T>> map, String key, T value) {
+		if(ttlMillis <= 0) {
+			return;
+		}
+
+		synchronized(map) {
+			map.put(key, new Item<T>(value, System.currentTimeMillis() + ttlMillis));
+		}
+	}
+
+	/**
+	 * Forgets every group read, the next calls read them again.
+	 */
+	public void clear() {
+		synchronized(direct) {
+			direct.clear();
+		}
+
+		synchronized(expanded) {
+			expanded.clear();
+		}
+	}
+
+	private static class Members {
+		private final Collection<Dn> users = new ArrayList<Dn>();
+		private final Collection<Dn> groups = new ArrayList<Dn>();
+	}
+
+	private static class Item<T> {
+		private final T value;
+		private final long expires;
+
+		private Item(T value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package com.laetienda.myldap;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Count, errors and latency histogram of one type of operation.
+ */
+public class OperationStats implements OperationStatsMBean {
+
+	private final LdapOperation operation;
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LongAdder errors = new LongAdder();
+
+	public OperationStats(LdapOperation operation) {
+		this.operation = operation;
+	}
+
+	public LdapOperation getOperation() {
+		return operation;
+	}
+
+	public void record(long nanos, boolean failed) {
+		latency.record(nanos);
+		if(failed) {
+			errors.increment();
+		}
+	}
+
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	@Override
+	public long getCount() {
+		return latency.getCount();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	@Override
+	public double getMeanMicros() {
+		return latency.getMean() / 1000;
+	}
+
+	@Override
+	public long getP50Micros() {
+		return latency.getValueAtPercentile(50) / 1000;
+	}
+
+	@Override
+	public long getP90Micros() {
+		return latency.getValueAtPercentile(90) / 1000;
+	}
+
+	@Override
+	public long getP99Micros() {
+		return latency.getValueAtPercentile(99) / 1000;
+	}
+
+	@Override
+	public long getP999Micros() {
+		return latency.getValueAtPercentile(99.9) / 1000;
+	}
+
+	@Override
+	public long getMaxMicros() {
+		return latency.getMax() / 1000;
+	}
+
+	@Override
+	public void reset() {
+		latency.reset();
+		errors.reset();
+	}
+
+	@Override
+	public String toString() {
+		return operation + " $count: " + getCount() + " - $errors: " + getErrors() + " - $p50: " + getP50Micros()
+				+ "us - $p99: " + getP99Micros() + "us - $max: " + getMaxMicros() + "us";
+	}
+}
@@ -0,0 +1,25 @@
+package com.laetienda.myldap;
+
+/**
+ * JMX view of the statistics of one type of operation. Times are in microseconds.
+ */
+public interface OperationStatsMBean {
+
+	long getCount();
+
+	long getErrors();
+
+	double getMeanMicros();
+
+	long getP50Micros();
+
+	long getP90Micros();
+
+	long getP99Micros();
+
+	long getP999Micros();
+
+	long getMaxMicros();
+
+	void reset();
+}
@@ -0,0 +1,150 @@
+package com.laetienda.myldap;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.SearchCursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchResultDone;
+import org.apache.directory.api.ldap.model.message.controls.PagedResults;
+import org.apache.directory.api.ldap.model.message.controls.PagedResultsImpl;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Iterates the result of a search with the Simple Paged Results control (RFC 2696).
+ * Only one page is held in the client at a time and the next page is requested when the current one is consumed.
+ * Closing it before the end releases the paged search in the server.
+ * <p>
+ * A search that does not end with success, a base that does not exist or a size or time limit reached,
+ * throws the LdapException of its result code instead of looking like a complete result.
+ */
+public class PagedSearch implements Iterator<Entry>, Closeable {
+	private static final Logger log = LogManager.getLogger(PagedSearch.class);
+
+	private final LdapConnection conn;
+	private final SearchRequest request;
+	private final int pageSize;
+	private final Ldap ldap = new Ldap();
+
+	private SearchCursor cursor;
+	private byte[] cookie;
+	private Entry next;
+	private boolean done = false;
+
+	public PagedSearch(LdapConnection conn, SearchRequest request, int pageSize) {
+		this.conn = conn;
+		this.request = request;
+		this.pageSize = pageSize;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if(next != null) {
+			return true;
+		}
+
+		try {
+			next = fetch();
+		} catch (LdapException e) {
+			close();
+			throw new LdapRuntimeException(e);
+		}
+
+		return next != null;
+	}
+
+	@Override
+	public Entry next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		Entry result = next;
+		next = null;
+		return result;
+	}
+
+	/**
+	 * @return Cookie returned with the last page read, empty when the search has finished
+	 */
+	public byte[] getCookie() {
+		return cookie;
+	}
+
+	private Entry fetch() throws LdapException {
+
+		try {
+			while(!done) {
+				if(cursor == null) {
+					cursor = conn.search(page(pageSize));
+				}
+
+				while(cursor.next()) {
+					if(cursor.isEntry()) {
+						return cursor.getEntry();
+					}
+				}
+
+				SearchResultDone result = cursor.getSearchResultDone();
+				ldap.closeCursor(cursor);
+				cursor = null;
+
+				if(result == null) {
+					done = true;
+					throw new LdapOtherException("Search ended without a result. $base: " + request.getBase());
+				}
+
+				if(result.getLdapResult().getResultCode() != ResultCodeEnum.SUCCESS) {
+					done = true;
+					ResultCodeEnum.processResponse(result);
+				}
+
+				PagedResults control = (PagedResults)result.getControl(PagedResults.OID);
+				cookie = control == null ? null : control.getCookie();
+				done = cookie == null || cookie.length == 0;
+			}
+		} catch (CursorException e) {
+			throw new LdapOtherException(e.getMessage(), e);
+		}
+
+		return null;
+	}
+
+	private SearchRequest page(int size) {
+		PagedResults control = new PagedResultsImpl();
+		control.setSize(size);
+		control.setCookie(cookie == null ? new byte[0] : cookie);
+		request.addControl(control);
+		return request;
+	}
+
+	@Override
+	public void close() {
+		ldap.closeCursor(cursor);
+		cursor = null;
+
+		if(!done && cookie != null && cookie.length > 0) {
+			SearchCursor abandon = null;
+			try {
+				abandon = conn.search(page(0));
+				while(abandon.next()) {
+					log.trace("Discarding entry of abandoned paged search");
+				}
+			} catch (LdapException | CursorException e) {
+				log.debug("Failed to release paged search. $error: {}", e.getMessage());
+			} finally {
+				ldap.closeCursor(abandon);
+			}
+		}
+
+		done = true;
+	}
+}
@@ -0,0 +1,193 @@
+package com.laetienda.myldap;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.directory.api.ldap.model.cursor.ClosureMonitor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.SearchCursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.IntermediateResponse;
+import org.apache.directory.api.ldap.model.message.Referral;
+import org.apache.directory.api.ldap.model.message.Response;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchResultDone;
+
+/**
+ * Search cursor that records a {@link LdapOperation#SEARCH} when the last response is read or the cursor is closed,
+ * whichever comes first.
+ */
+class TimedSearchCursor implements SearchCursor {
+
+	private final SearchCursor cursor;
+	private final LdapMetrics metrics;
+	private final long start;
+	private boolean recorded;
+
+	TimedSearchCursor(SearchCursor cursor, LdapMetrics metrics, long start) {
+		this.cursor = cursor;
+		this.metrics = metrics;
+		this.start = start;
+	}
+
+	private void record(boolean failed) {
+		if(!recorded) {
+			recorded = true;
+			SearchResultDone done = cursor.getSearchResultDone();
+			boolean error = failed || (done != null && done.getLdapResult().getResultCode() != ResultCodeEnum.SUCCESS);
+			metrics.record(LdapOperation.SEARCH, System.nanoTime() - start, error);
+		}
+	}
+
+	@Override
+	public boolean next() throws LdapException, CursorException {
+		try {
+			boolean result = cursor.next();
+			if(!result) {
+				record(false);
+			}
+			return result;
+		} catch (LdapException | CursorException | RuntimeException e) {
+			record(true);
+			throw e;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		record(false);
+		cursor.close();
+	}
+
+	@Override
+	public void close(Exception cause) throws IOException {
+		record(true);
+		cursor.close(cause);
+	}
+
+	@Override
+	public boolean available() {
+		return cursor.available();
+	}
+
+	@Override
+	public void before(Response element) throws LdapException, CursorException {
+		cursor.before(element);
+	}
+
+	@Override
+	public void after(Response element) throws LdapException, CursorException {
+		cursor.after(element);
+	}
+
+	@Override
+	public void beforeFirst() throws LdapException, CursorException {
+		cursor.beforeFirst();
+	}
+
+	@Override
+	public void afterLast() throws LdapException, CursorException {
+		cursor.afterLast();
+	}
+
+	@Override
+	public boolean first() throws LdapException, CursorException {
+		return cursor.first();
+	}
+
+	@Override
+	public boolean isFirst() {
+		return cursor.isFirst();
+	}
+
+	@Override
+	public boolean isBeforeFirst() {
+		return cursor.isBeforeFirst();
+	}
+
+	@Override
+	public boolean last() throws LdapException, CursorException {
+		return cursor.last();
+	}
+
+	@Override
+	public boolean isLast() {
+		return cursor.isLast();
+	}
+
+	@Override
+	public boolean isAfterLast() {
+		return cursor.isAfterLast();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return cursor.isClosed();
+	}
+
+	@Override
+	public boolean previous() throws LdapException, CursorException {
+		return cursor.previous();
+	}
+
+	@Override
+	public Response get() throws CursorException {
+		return cursor.get();
+	}
+
+	@Override
+	public void setClosureMonitor(ClosureMonitor monitor) {
+		cursor.setClosureMonitor(monitor);
+	}
+
+	@Override
+	public String toString(String tabs) {
+		return cursor.toString(tabs);
+	}
+
+	@Override
+	public Iterator<Response> iterator() {
+		return cursor.iterator();
+	}
+
+	@Override
+	public boolean isDone() {
+		return cursor.isDone();
+	}
+
+	@Override
+	public SearchResultDone getSearchResultDone() {
+		return cursor.getSearchResultDone();
+	}
+
+	@Override
+	public boolean isReferral() {
+		return cursor.isReferral();
+	}
+
+	@Override
+	public Referral getReferral() throws LdapException {
+		return cursor.getReferral();
+	}
+
+	@Override
+	public boolean isEntry() {
+		return cursor.isEntry();
+	}
+
+	@Override
+	public Entry getEntry() throws LdapException {
+		return cursor.getEntry();
+	}
+
+	@Override
+	public boolean isIntermediate() {
+		return cursor.isIntermediate();
+	}
+
+	@Override
+	public IntermediateResponse getIntermediate() throws LdapException {
+		return cursor.getIntermediate();
+	}
+}
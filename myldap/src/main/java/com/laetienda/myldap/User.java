@@ -2,6 +2,7 @@ package com.laetienda.myldap;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 
@@ -10,7 +11,9 @@ import org.apache.logging.log4j.Logger;
 import com.laetienda.myapptools.FormBeanInterface;
 import com.laetienda.myapptools.MyAppTools;
 
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.EntryCursor;
+import org.apache.directory.api.ldap.model.cursor.SearchCursor;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
@@ -18,6 +21,8 @@ import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
+import org.apache.directory.api.ldap.model.filter.FilterEncoder;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.ldap.client.api.LdapConnection;
@@ -36,22 +41,21 @@ public class User implements Serializable, FormBeanInterface, LdapEntity{
 	private String uid;
 	private Entry ldapEntry;
 	private List<Modification> modifications = new ArrayList<Modification>();
-	private Ldap ldap;
+	private static final Ldap ldap = new Ldap();
+
 	private HashMap<String, List<String>> errors = new HashMap<String, List<String>>();
 	private MyAppTools tools;
 	
 	public User() {
-		ldap = new Ldap();
 		tools = new MyAppTools();
 	}
 	
 	public User(String username, LdapConnection conn) throws LdapException {
-		ldap = new Ldap();
 		tools = new MyAppTools();
 		
 		try {
-			Dn dn = new Dn("uid=" + username, "ou=people", LdapManager.getDomainDn().getName());
-			ldapEntry = conn.lookup(dn);
+			Dn dn = LdapManager.getDnFactory().user(username);
+			ldapEntry = ldap.lookup(dn, conn);
 			this.uid = username;
 		} catch (LdapException e) {
 			log.error("Invalid attribute (harcoded). $attribute: uid & $error: {}", e.getMessage());
@@ -59,10 +63,12 @@ public class User implements Serializable, FormBeanInterface, LdapEntity{
 		}
 	}
 	
+	/**
+	 * Wraps an entry found in ldap. Used for listings, so MyAppTools is only created when an error is added.
+	 * @param entry ldap entry, it must have the uid attribute
+	 * @throws LdapInvalidAttributeValueException
+	 */
 	public User(Entry entry) throws LdapInvalidAttributeValueException {
-		ldap = new Ldap();
-		tools = new MyAppTools();
-		
 		try {
 			this.uid = entry.get("uid").getString();
 			this.ldapEntry = entry;
@@ -86,29 +92,36 @@ public class User implements Serializable, FormBeanInterface, LdapEntity{
 	 * @throws DapException
 	 */
 	public User(String username, String name, String lastname, String email, LdapConnection conn) throws Exception {
-		ldap = new Ldap();
 		tools = new MyAppTools();
 		
-		setUid(username, conn);
+		Registered registered = findRegistered(username, email, conn);
+		
+		this.uid = username;
+		if(validateUid(username)) {
+			if(registered.uid) {
+				addError("uid", "Username already exists");
+			}
+			ldapEntry = newLdapEntry(LdapManager.getDnFactory().user(uid));
+		}
+		
 		setCn(name);
 		setSn(lastname);
-		setEmail(email, conn);
+		
+		if(putEmail(email) && registered.mail) {
+			addError("email", "This email address has already been registered");
+		}
 	}
 
 	public User setLdapEntry(LdapConnection conn) throws Exception {
-		log.info("Setting user LDAP entry ...");		
+		log.debug("Setting user LDAP entry ...");		
 		try {
-			Dn dn = new Dn("uid=" + uid, "ou=People", LdapManager.getDomainDn().getName());
-			ldapEntry = conn.lookup(dn);
+			Dn dn = LdapManager.getDnFactory().user(uid);
+			ldapEntry = ldap.lookup(dn, conn);
 			
 			if(ldapEntry == null) {				
-				ldapEntry = new DefaultEntry(dn);
-				ldapEntry.add("objectclass", "person")
-					.add("objectclass", "inetOrgPerson")
-					.add("uid", dn.getRdn(0).getValue())
-					.add("ou", "People");
+				ldapEntry = newLdapEntry(dn);
 			}
-			log.info("... user LDAP entry has been set succesfully");
+			log.debug("... user LDAP entry has been set succesfully");
 		} catch (Exception e) {
 			log.warn("Failed to set user LDAP entry");
 			throw e;
@@ -116,34 +129,99 @@ public class User implements Serializable, FormBeanInterface, LdapEntity{
 		
 		return this;
 	}
+	
+	private Entry newLdapEntry(Dn dn) throws LdapException {
+		Entry result = new DefaultEntry(dn);
+		result.add("objectclass", "person")
+			.add("objectclass", "inetOrgPerson")
+			.add("uid", dn.getRdn(0).getValue())
+			.add("ou", "People");
+		return result;
+	}
+	
+	/**
+	 * Finds out with one search whether the username or the email are already registered. Only Dns are returned and
+	 * the search is not size limited, the matches are at most the entry of the username plus the owners of the email.
+	 * An entry with the Dn of the username means the uid is taken, any other entry means the email is taken.
+	 * Names the negative cache knows are free are not searched,
+	 * see {@link LdapManager#setNegativeCache(NegativeCache)}.
+	 */
+	private Registered findRegistered(String username, String email, LdapConnection conn) throws Exception {
+		Registered result = new Registered();
+		NegativeCache negative = LdapManager.getNegativeCache();
+		Dn people = LdapManager.getDirectoryBase().getPeopleDn();
+		Dn userDn = username == null || username.isEmpty() ? null : LdapManager.getDnFactory().user(username);
+		boolean searchUid = userDn != null && (negative == null || !negative.isMissing(userDn));
+		boolean searchMail = email != null && !email.isEmpty() && email.length() <= 254 && (negative == null || !negative.isMissingMail(email));
+		StringBuilder filter = new StringBuilder("(|");
+		
+		if(searchUid) {
+			filter.append("(uid=").append(FilterEncoder.encodeFilterValue(username)).append(')');
+		}
+		
+		if(searchMail) {
+			filter.append("(mail=").append(FilterEncoder.encodeFilterValue(email)).append(')');
+		}
+		
+		if(filter.length() == 2) {
+			return result;
+		}
+		filter.append(')');
+		
+		String userKey = userDn == null ? null : Ldap.normalize(userDn);
+		SearchRequest request = ldap.searchRequest(people, filter.toString(), SearchScope.ONELEVEL, SchemaConstants.NO_ATTRIBUTE);
+		SearchCursor cursor = null;
+		long stamp = negative == null ? 0 : negative.stamp();
+		
+		try {
+			cursor = conn.search(request);
+			
+			while(cursor.next()) {
+				if(cursor.isEntry()) {
+					if(Ldap.normalize(cursor.getEntry().getDn()).equals(userKey)) {
+						result.uid = true;
+					}else {
+						result.mail = true;
+					}
+				}
+			}
+		} catch (Exception e) {
+			log.warn("Failed to find out if user is registered. $error: {}", e.getMessage());
+			addError("uid", "Internal error");
+			throw e;
+		} finally {
+			ldap.closeCursor(cursor);
+		}
+		
+		if(negative != null) {
+			if(searchUid && !result.uid) {
+				negative.missing(userDn, stamp);
+			}
+			
+			// The entry of the username may have the email too, the email is only free when nothing was found
+			if(searchMail && !result.mail && !result.uid) {
+				negative.missingMail(email, stamp);
+			}
+		}
+		
+		return result;
+	}
 
 	public String getUid() {
 		return uid;
 	}
 	
 	public void setUid(String username, LdapConnection conn) throws Exception{
-		log.info("Seting username (uid)...");
+		log.debug("Seting username (uid)...");
 		this.uid = username;
 		
 		try {
-			if(uid == null || uid.isEmpty()) {
-				addError("uid", "Username can't be empty");
-			}else {
-				if(uid.length() < 4) {
-					addError("uid", "Username must have at least 4 characters");
-				}
-				
-				if(uid.length() > 64) {
-					addError("uid", "Username can't have more than 64 characters");
-				}
-				
-				if(conn.lookup("uid=" + username + ", ou=people, " + LdapManager.getDomainDn().getName()) != null) {
+			if(validateUid(uid)) {
+				if(ldap.exists(LdapManager.getDnFactory().user(username), conn)) {
 					addError("uid", "Username already exists");
-				}else {
-								
 				}
 				setLdapEntry(conn);
-				log.info("... username (uid) has been set succesfully");
+				log.debug("... username (uid) has been set succesfully");
 			}
 		}catch(Exception e) {
 			log.warn("Failed to set username (uid). $error: {}", e.getMessage());
@@ -152,6 +230,26 @@ public class User implements Serializable, FormBeanInterface, LdapEntity{
 		}
 	}
 	
+	/**
+	 * @return false if the username is empty, the entry of the user can't be built
+	 */
+	private boolean validateUid(String uid) {
+		if(uid == null || uid.isEmpty()) {
+			addError("uid", "Username can't be empty");
+			return false;
+		}
+		
+		if(uid.length() < 4) {
+			addError("uid", "Username must have at least 4 characters");
+		}
+		
+		if(uid.length() > 64) {
+			addError("uid", "Username can't have more than 64 characters");
+		}
+		
+		return true;
+	}
+	
 	public String getEmail() throws LdapInvalidAttributeValueException {
 		try {
 			return ldapEntry.get("mail").getString();
@@ -162,24 +260,13 @@ public class User implements Serializable, FormBeanInterface, LdapEntity{
 	}
 	
 	public void setEmail(String email, LdapConnection conn) throws Exception {
+		EntryCursor search = null;
 		
 		try {
+			if(putEmail(email)) {	
+				search = conn.search(LdapManager.getDirectoryBase().getPeopleDn(), "(mail=" + FilterEncoder.encodeFilterValue(email) + ")", SearchScope.ONELEVEL, SchemaConstants.NO_ATTRIBUTE);
 			
-			if(ldapEntry.get("mail") == null) {
-				ldapEntry.add("mail", email);
-			}else {
-				Modification modification = new DefaultModification(ModificationOperation.REPLACE_ATTRIBUTE, "mail", email);
-				modifications.add(modification);
-			}
-			
-			if(email == null || email.isEmpty()) {
-				addError("email", "The email can't be empty");
-			}else if(email.length() > 254) {
-				addError("email", "The mail can't have more than 255 charcters");
-			}else {	
-				EntryCursor search = conn.search(ldap.getPeopleLdapEntry(conn).getDn(), "(mail=" + email + ")", SearchScope.ONELEVEL);
-			
-				if(search.iterator().hasNext()) {
+				if(search.next()) {
 					addError("email", "This email address has already been registered");
 				}
 			}			
@@ -187,7 +274,39 @@ public class User implements Serializable, FormBeanInterface, LdapEntity{
 			log.warn("Failed to se email. $error: {}", e.getMessage());
 			addError("email", "The application were not able to find out if email has been registered");
 			throw e;
+		} finally {
+			ldap.closeCursor(search);
+		}
+	}
+	
+	/**
+	 * Sets the email in the entry and validates it.
+	 * @return true if the email is valid and it must be checked in ldap
+	 */
+	private boolean putEmail(String email) {
+		
+		try {
+			if(ldapEntry.get("mail") == null) {
+				ldapEntry.add("mail", email);
+			}else {
+				Modification modification = new DefaultModification(ModificationOperation.REPLACE_ATTRIBUTE, "mail", email);
+				modifications.add(modification);
+			}
+		} catch (LdapException e) {
+			log.warn("Failed to se email. $error: {}", e.getMessage());
+			addError("email", "The email is not valid");
+			return false;
+		}
+		
+		if(email == null || email.isEmpty()) {
+			addError("email", "The email can't be empty");
+		}else if(email.length() > 254) {
+			addError("email", "The mail can't have more than 255 charcters");
+		}else {
+			return true;
 		}
+		
+		return false;
 	}
 
 	/**
@@ -352,13 +471,35 @@ public class User implements Serializable, FormBeanInterface, LdapEntity{
 			result = ldapEntry.get("description").getString();
 		} catch (LdapInvalidAttributeValueException e) {
 			result = new String();
-			log.warn("EXCEPTION: while getting description from person ldap attribute. $error: ", e.getMessage());
+			log.warn("EXCEPTION: while getting description from person ldap attribute. $error: {}", e.getMessage());
 		}
 		return result;
 	}
 	
+	/**
+	 * @param conn LdapConnection
+	 * @return Dns of the groups the user is a direct member of, see {@link Ldap#findGroupDns(Dn, LdapConnection)}
+	 * @throws LdapException
+	 */
+	public Collection<Dn> getGroupDns(LdapConnection conn) throws LdapException {
+		return new Ldap().findGroupDns(ldapEntry.getDn(), conn);
+	}
+	
+	/**
+	 * @param group Dn of the group
+	 * @param conn LdapConnection
+	 * @return true if the user is a direct member of the group
+	 * @throws LdapException
+	 */
+	public boolean isMemberOf(Dn group, LdapConnection conn) throws LdapException {
+		return new Ldap().isMember(ldapEntry.getDn(), group, conn);
+	}
+	
 	@Override
 	public void addError(String list, String error) {
+		if(tools == null) {
+			tools = new MyAppTools();
+		}
 		errors = tools.addError(list, error, this.errors);
 	}
 	
@@ -380,4 +521,9 @@ public class User implements Serializable, FormBeanInterface, LdapEntity{
 	public void clearModifications() {
 		modifications = new ArrayList<Modification>();
 	}
+	
+	private static class Registered {
+		private boolean uid = false;
+		private boolean mail = false;
+	}
 }
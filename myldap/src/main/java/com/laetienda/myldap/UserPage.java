@@ -0,0 +1,39 @@
+package com.laetienda.myldap;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+
+/**
+ * One page of a user search, see {@link Ldap#findUsers}.
+ */
+public class UserPage {
+
+	private final List<Entry> entries;
+	private final String cookie;
+
+	UserPage(List<Entry> entries, String cookie) {
+		this.entries = Collections.unmodifiableList(entries);
+		this.cookie = cookie;
+	}
+
+	/**
+	 * @return Users of the page with the attributes requested, in the order of the query
+	 */
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @return Opaque value to request the next page with {@link UserQuery#setCookie(String)}, null on the last page.
+	 * It is the position in the results, any connection of any pool can serve the next page.
+	 */
+	public String getCookie() {
+		return cookie;
+	}
+
+	public boolean hasMore() {
+		return cookie != null;
+	}
+}
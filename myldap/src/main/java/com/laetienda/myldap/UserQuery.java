@@ -0,0 +1,199 @@
+package com.laetienda.myldap;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.filter.FilterEncoder;
+import org.apache.directory.api.ldap.model.name.Dn;
+
+/**
+ * Criteria of a user search, see {@link Ldap#findUsers}. Criteria are combined with AND,
+ * the ones not set are ignored. Values are raw, they are escaped when the filter is built.
+ * <p>
+ * Results are sorted on the sort attribute and then on uid. The cookie is the sort value and uid of the last user
+ * of a page, the next page asks the server for the users after them, so any connection can serve it and every page
+ * costs the same. Users added or removed meanwhile show up, or not, where their place in the order is.
+ */
+public class UserQuery {
+
+	public static final int DEFAULT_PAGE_SIZE = 50;
+
+	/** Attributes users can be sorted on, they are present in every user entry */
+	public static final List<String> SORT_ATTRIBUTES = List.of("uid", "cn", "sn");
+
+	private String uidPrefix;
+	private String cnPrefix;
+	private String snPrefix;
+	private String mail;
+	private Dn group;
+	private String sortBy = "uid";
+	private boolean reverse = false;
+	private String[] attributes = UserView.ATTRIBUTES;
+	private int pageSize = DEFAULT_PAGE_SIZE;
+	private String cookie;
+
+	public String getUidPrefix() {
+		return uidPrefix;
+	}
+
+	/**
+	 * @param uidPrefix Users whose uid starts with it
+	 * @return this
+	 */
+	public UserQuery setUidPrefix(String uidPrefix) {
+		this.uidPrefix = uidPrefix;
+		return this;
+	}
+
+	public String getCnPrefix() {
+		return cnPrefix;
+	}
+
+	/**
+	 * @param cnPrefix Users whose cn (name) starts with it
+	 * @return this
+	 */
+	public UserQuery setCnPrefix(String cnPrefix) {
+		this.cnPrefix = cnPrefix;
+		return this;
+	}
+
+	public String getSnPrefix() {
+		return snPrefix;
+	}
+
+	/**
+	 * @param snPrefix Users whose sn (last name) starts with it
+	 * @return this
+	 */
+	public UserQuery setSnPrefix(String snPrefix) {
+		this.snPrefix = snPrefix;
+		return this;
+	}
+
+	public String getMail() {
+		return mail;
+	}
+
+	/**
+	 * @param mail Users with this email address, compared ignoring case
+	 * @return this
+	 */
+	public UserQuery setMail(String mail) {
+		this.mail = mail;
+		return this;
+	}
+
+	public Dn getGroup() {
+		return group;
+	}
+
+	/**
+	 * @param group Users that are direct members of this group, its members are read before searching them
+	 * @return this
+	 */
+	public UserQuery setGroup(Dn group) {
+		this.group = group;
+		return this;
+	}
+
+	public String getSortBy() {
+		return sortBy;
+	}
+
+	/**
+	 * @param sortBy One of {@link #SORT_ATTRIBUTES}, uid by default
+	 * @return this
+	 */
+	public UserQuery setSortBy(String sortBy) {
+		if(!SORT_ATTRIBUTES.contains(sortBy)) {
+			throw new IllegalArgumentException("Users can only be sorted by " + SORT_ATTRIBUTES);
+		}
+		this.sortBy = sortBy;
+		return this;
+	}
+
+	public boolean isReverse() {
+		return reverse;
+	}
+
+	/**
+	 * @param reverse Sort in descending order
+	 * @return this
+	 */
+	public UserQuery setReverse(boolean reverse) {
+		this.reverse = reverse;
+		return this;
+	}
+
+	/**
+	 * @return Attributes requested, uid and the sort attribute are always included
+	 */
+	public String[] getAttributes() {
+		Set<String> result = new LinkedHashSet<String>(List.of(attributes));
+		result.add("uid");
+		result.add(sortBy);
+		return result.toArray(new String[result.size()]);
+	}
+
+	/**
+	 * @param attributes Attributes returned for each user, {@link UserView#ATTRIBUTES} by default
+	 * @return this
+	 */
+	public UserQuery setAttributes(String... attributes) {
+		this.attributes = attributes;
+		return this;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * @param pageSize Number of users in a page
+	 * @return this
+	 */
+	public UserQuery setPageSize(int pageSize) {
+		if(pageSize < 1) {
+			throw new IllegalArgumentException("Page size must be at least 1");
+		}
+		this.pageSize = pageSize;
+		return this;
+	}
+
+	public String getCookie() {
+		return cookie;
+	}
+
+	/**
+	 * @param cookie {@link UserPage#getCookie()} of the previous page, null for the first page
+	 * @return this
+	 */
+	public UserQuery setCookie(String cookie) {
+		this.cookie = cookie;
+		return this;
+	}
+
+	/**
+	 * @return LDAP filter of the criteria, without the position of the cookie
+	 */
+	String filter() {
+		StringBuilder result = new StringBuilder("(&(objectClass=inetOrgPerson)");
+		prefix(result, "uid", uidPrefix);
+		prefix(result, "cn", cnPrefix);
+		prefix(result, "sn", snPrefix);
+
+		if(mail != null && !mail.isEmpty()) {
+			result.append("(mail=").append(FilterEncoder.encodeFilterValue(mail)).append(')');
+		}
+
+		return result.append(')').toString();
+	}
+
+	private void prefix(StringBuilder filter, String attribute, String value) {
+		if(value != null && !value.isEmpty()) {
+			filter.append('(').append(attribute).append('=').append(FilterEncoder.encodeFilterValue(value)).append("*)");
+		}
+	}
+}
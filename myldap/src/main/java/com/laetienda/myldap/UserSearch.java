@@ -0,0 +1,325 @@
+package com.laetienda.myldap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.exception.LdapOperationErrorException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.filter.FilterEncoder;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.message.controls.SortRequest;
+import org.apache.directory.api.ldap.model.message.controls.SortRequestControlImpl;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Iterates the users of a {@link UserQuery} sorted by the server (Server Side Sort, RFC 2891) and read one page
+ * at a time (Simple Paged Results, RFC 2696). Users are ordered by the sort attribute and then by uid, the cookie is the
+ * sort value and uid of the last user returned. A search started from a cookie asks only for the users after that key,
+ * so it does not need the paged search state of the server, which is bound to the connection, every page costs the same
+ * and users added or removed before the key do not move the next page.
+ * <p>
+ * The server sorts on one attribute only, users with the same sort value are read together and ordered by uid here.
+ * uid, cn and sn have no ORDERING rule in the standard schema, a &gt;= filter on them is undefined for servers that
+ * follow RFC 4511, so the key is asked with an extensible match on caseIgnoreOrderingMatch. Servers that can't evaluate
+ * it, like ApacheDS, fail the search and it is sent again with &gt;=, which they evaluate anyway. They are remembered by
+ * the scope of the connection, see {@link LdapManager#scope(LdapConnection)}. Users that are not after the key are
+ * dropped, so a server that matches more only costs entries.
+ * <p>
+ * Group members are read first and searched by uid, see {@link #members(Dn, LdapConnection)}.
+ */
+class UserSearch implements Iterator<Entry>, Closeable {
+	private static final Logger log = LogManager.getLogger(UserSearch.class);
+
+	private static final int COOKIE_VERSION = 3;
+
+	/** caseIgnoreOrderingMatch, the ordering of the caseIgnoreMatch attributes users are sorted on */
+	private static final String ORDERING_RULE = "2.5.13.3";
+
+	/** Scopes of the servers that fail extensible matches */
+	private static final Set<String> lenient = ConcurrentHashMap.newKeySet();
+
+	private final UserQuery query;
+	private final Comparator<String> order;
+	private PagedSearch search;
+
+	private String lastValue;
+	private String lastUid;
+	private final List<Entry> ties = new ArrayList<Entry>();
+	private String tieValue;
+	private final Deque<Entry> ready = new ArrayDeque<Entry>();
+
+	/**
+	 * @param query UserQuery, it starts after its cookie when it has one
+	 * @param conn LdapConnection, it must stay open while iterating
+	 * @param pageSize Number of entries requested in each page
+	 * @throws LdapException if the cookie is not valid for query or the group does not exist
+	 */
+	UserSearch(UserQuery query, LdapConnection conn, int pageSize) throws LdapException {
+		this.query = query;
+		this.order = query.isReverse() ? Comparator.<String>reverseOrder() : Comparator.<String>naturalOrder();
+
+		if(query.getCookie() != null) {
+			decode(query.getCookie());
+		}
+
+		String criteria = query.filter();
+
+		if(query.getGroup() != null) {
+			String members = members(query.getGroup(), conn);
+
+			if(members == null) {
+				return;
+			}
+			criteria = "(&" + criteria + members + ")";
+		}
+
+		String scope = LdapManager.scope(conn);
+		boolean extensible = lastValue != null && (scope == null || !lenient.contains(scope));
+		search = search(conn, filter(criteria, extensible), pageSize);
+
+		if(extensible) {
+			try {
+				search.hasNext();
+			} catch (LdapRuntimeException e) {
+				search.close();
+
+				if(!(e.getCause() instanceof LdapOperationErrorException || e.getCause() instanceof LdapUnwillingToPerformException)) {
+					throw e.getCause();
+				}
+
+				log.debug("Server can't evaluate extensible matches, searching with >= instead. $scope: {} - $error: {}", scope, e.getCause().getMessage());
+				if(scope != null) {
+					lenient.add(scope);
+				}
+				search = search(conn, filter(criteria, false), pageSize);
+			}
+		}
+	}
+
+	private PagedSearch search(LdapConnection conn, String filter, int pageSize) throws LdapException {
+		SearchRequest request = new Ldap().searchRequest(LdapManager.getDirectoryBase().getPeopleDn(), filter, SearchScope.ONELEVEL, query.getAttributes());
+		SortRequest sort = new SortRequestControlImpl();
+		sort.addSortKey(new SortKey(query.getSortBy(), null, query.isReverse()));
+		sort.setCritical(true);
+		request.addControl(sort);
+
+		return new PagedSearch(conn, request, pageSize);
+	}
+
+	/**
+	 * @return Filter of the users that match criteria and are not before the key of the cookie
+	 */
+	private String filter(String criteria, boolean extensible) {
+		if(lastValue == null) {
+			return criteria;
+		}
+
+		StringBuilder result = new StringBuilder("(&").append(criteria).append(from(query.getSortBy(), lastValue, extensible));
+
+		if(!query.getSortBy().equals(SchemaConstants.UID_AT)) {
+			result.append("(|(!").append(equal(query.getSortBy(), lastValue)).append(')').append(from(SchemaConstants.UID_AT, lastUid, extensible)).append(')');
+		}
+
+		return result.append(')').toString();
+	}
+
+	@Override
+	public boolean hasNext() {
+		while(ready.isEmpty() && search != null && (search.hasNext() || !ties.isEmpty())) {
+			if(!search.hasNext()) {
+				flush();
+				continue;
+			}
+
+			Entry entry = search.next();
+			String value = key(entry, query.getSortBy());
+
+			if(!isAfter(value, key(entry, SchemaConstants.UID_AT))) {
+				continue;
+			}
+
+			if(tieValue != null && !tieValue.equals(value)) {
+				flush();
+			}
+			tieValue = value;
+			ties.add(entry);
+		}
+
+		return !ready.isEmpty();
+	}
+
+	@Override
+	public Entry next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		Entry result = ready.poll();
+		lastValue = key(result, query.getSortBy());
+		lastUid = key(result, SchemaConstants.UID_AT);
+		return result;
+	}
+
+	/**
+	 * @return Cookie of the key of the last entry returned by {@link #next()}
+	 */
+	String getCookie() {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(COOKIE_VERSION);
+			out.writeInt(fingerprint());
+			out.writeUTF(lastValue == null ? "" : lastValue);
+			out.writeUTF(lastUid == null ? "" : lastUid);
+			out.flush();
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to write cookie", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		if(search != null) {
+			search.close();
+		}
+	}
+
+	/**
+	 * Users with the same sort value, read in the order of the server, go out ordered by uid.
+	 */
+	private void flush() {
+		ties.sort(Comparator.comparing((Entry entry) -> key(entry, SchemaConstants.UID_AT), order));
+		ready.addAll(ties);
+		ties.clear();
+		tieValue = null;
+	}
+
+	private boolean isAfter(String value, String uid) {
+		if(lastValue == null) {
+			return true;
+		}
+
+		int result = order.compare(value, lastValue);
+		return result > 0 || (result == 0 && order.compare(uid, lastUid) > 0);
+	}
+
+	/**
+	 * @return Filter of the values of attribute from value on in the order of the query, value included.
+	 * The extensible match is true for the values less than value.
+	 */
+	private String from(String attribute, String value, boolean extensible) {
+		String encoded = FilterEncoder.encodeFilterValue(value);
+
+		if(!extensible) {
+			return "(" + attribute + (query.isReverse() ? "<=" : ">=") + encoded + ")";
+		}
+
+		String less = "(" + attribute + ":" + ORDERING_RULE + ":=" + encoded + ")";
+		return "(|" + equal(attribute, value) + (query.isReverse() ? less : "(!" + less + ")") + ")";
+	}
+
+	private static String equal(String attribute, String value) {
+		return "(" + attribute + "=" + FilterEncoder.encodeFilterValue(value) + ")";
+	}
+
+	private void decode(String cookie) throws LdapException {
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(cookie)));
+
+			if(in.readByte() != COOKIE_VERSION || in.readInt() != fingerprint()) {
+				throw new LdapUnwillingToPerformException("Cookie does not belong to this query");
+			}
+
+			lastValue = in.readUTF();
+			lastUid = in.readUTF();
+		} catch (IOException | IllegalArgumentException e) {
+			throw new LdapUnwillingToPerformException("Invalid cookie");
+		}
+	}
+
+	/**
+	 * Cookies are only accepted by queries with the same criteria and order.
+	 */
+	private int fingerprint() {
+		return (query.filter() + "|" + query.getSortBy() + "|" + query.isReverse() + "|"
+				+ (query.getGroup() == null ? "" : Ldap.normalize(query.getGroup()))).hashCode();
+	}
+
+	/**
+	 * Reads the members of the group and turns the ones under ou=People into an OR filter of their uids,
+	 * so the server only returns members. Members elsewhere are not users and are left out.
+	 * @return Filter or null if the group has no users
+	 */
+	private String members(Dn group, LdapConnection conn) throws LdapException {
+		Entry entry = conn.lookup(group, SchemaConstants.UNIQUE_MEMBER_AT);
+
+		if(entry == null) {
+			throw new LdapNoSuchObjectException("Group does not exist. $group: " + group.getName());
+		}
+
+		String peopleKey = Ldap.normalize(LdapManager.getDirectoryBase().getPeopleDn());
+		StringBuilder result = new StringBuilder("(|");
+		int uids = 0;
+		Attribute values = entry.get(SchemaConstants.UNIQUE_MEMBER_AT);
+
+		if(values != null) {
+			for(Value<?> value : values) {
+				try {
+					Dn member = new Dn(value.getString());
+
+					if(member.size() > 1 && SchemaConstants.UID_AT.equalsIgnoreCase(member.getRdn().getType())
+							&& peopleKey.equals(Ldap.normalize(member.getParent()))) {
+						result.append(equal(SchemaConstants.UID_AT, member.getRdn().getValue()));
+						uids++;
+					}
+				} catch (LdapInvalidDnException e) {
+					log.warn("Invalid member of group. $group: {} - $member: {}", group, value.getString());
+				}
+			}
+		}
+
+		log.debug("Group members read. $group: {} - $users: {}", group, uids);
+		return uids == 0 ? null : result.append(')').toString();
+	}
+
+	/**
+	 * @return Value of attribute compared like caseIgnoreMatch does: lower case, without leading, trailing or repeated spaces
+	 */
+	private static String key(Entry entry, String attribute) {
+		try {
+			Attribute result = entry.get(attribute);
+			return result == null ? "" : result.getString().trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+		} catch (LdapInvalidAttributeValueException e) {
+			return "";
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package com.laetienda.myldap;
+
+import java.io.Serializable;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
+import org.apache.directory.api.ldap.model.name.Dn;
+
+/**
+ * Read only projection of a user with the attributes needed by listings: uid, cn, sn and mail.
+ * It is immutable, it can be cached and shared between threads. Search with {@link #ATTRIBUTES} so the
+ * server only returns what the view keeps. Use {@link User} to modify the entry.
+ */
+public final class UserView implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/** Attributes requested for a view */
+	public static final String[] ATTRIBUTES = { "uid", "cn", "sn", "mail" };
+
+	private final Dn dn;
+	private final String uid;
+	private final String cn;
+	private final String sn;
+	private final String mail;
+
+	public UserView(Entry entry) throws LdapInvalidAttributeValueException {
+		this.dn = entry.getDn();
+		this.uid = value(entry, "uid");
+		this.cn = value(entry, "cn");
+		String temp = value(entry, "sn");
+		this.sn = "Snless".equals(temp) ? "" : temp;
+		this.mail = value(entry, "mail");
+	}
+
+	static String value(Entry entry, String attribute) throws LdapInvalidAttributeValueException {
+		Attribute result = entry.get(attribute);
+		return result == null ? "" : result.getString();
+	}
+
+	public Dn getDn() {
+		return dn;
+	}
+
+	public String getUid() {
+		return uid;
+	}
+
+	public String getCn() {
+		return cn;
+	}
+
+	/**
+	 * @return sn, empty if it is not set
+	 */
+	public String getSn() {
+		return sn;
+	}
+
+	public String getMail() {
+		return mail;
+	}
+
+	/**
+	 * @return cn and sn, as {@link User#getName()}
+	 */
+	public String getName() {
+		return sn.isEmpty() ? cn : cn + " " + sn;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof UserView && Ldap.normalize(dn).equals(Ldap.normalize(((UserView)obj).dn));
+	}
+
+	@Override
+	public int hashCode() {
+		return Ldap.normalize(dn).hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "UserView $uid: " + uid + " - $name: " + getName() + " - $mail: " + mail;
+	}
+}
@@ -0,0 +1,161 @@
+package com.laetienda.myldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.exception.LdapEntryAlreadyExistsException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class AsyncLdapTest {
+
+	private static NetworkDirectory directory;
+	private static ExecutorService executor;
+
+	@BeforeClass
+	public static void start() throws Exception {
+		directory = new NetworkDirectory().start();
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@AfterClass
+	public static void stop() {
+		executor.shutdownNow();
+		directory.stop();
+	}
+
+	@Test
+	public void leasesConnectionsThroughTheManager() throws Exception {
+		DefaultLdapMetrics metrics = new DefaultLdapMetrics();
+		LdapManager.setMetrics(metrics);
+
+		try {
+			AsyncLdap async = new AsyncLdap(directory.pool(), executor);
+			LdapConnection conn = directory.getManager().getEmbeddedConnection();
+			Ldap ldap = new Ldap();
+			Dn groupDn;
+
+			try {
+				User user = new User("async", "Async", "User", "async@example.com", conn);
+				ldap.insertLdapEntity(user, conn);
+				Group group = new Group().setName("Async Group", conn).setOwner("async", conn);
+				group.addMember("async", conn);
+				ldap.insertLdapEntity(group, conn);
+				groupDn = group.getLdapEntry().getDn();
+			} finally {
+				directory.getManager().closeLdapConnection(conn);
+			}
+
+			Dn userDn = LdapManager.getDnFactory().user("async");
+			CompletableFuture<User> user = async.findUser("async");
+			CompletableFuture<Collection<Dn>> groups = async.findGroupDns(userDn);
+			CompletableFuture<Boolean> member = async.isMember(userDn, groupDn);
+
+			assertEquals("async", user.get(10, TimeUnit.SECONDS).getUid());
+			assertEquals(1, groups.get(10, TimeUnit.SECONDS).size());
+			assertTrue(member.get(10, TimeUnit.SECONDS));
+			assertNull(async.findUser("nobody").get(10, TimeUnit.SECONDS));
+
+			assertTrue(metrics.getStats(LdapOperation.BORROW).getCount() >= 4);
+			assertEquals(0, async.getPool().getBorrowed());
+			assertEquals(async.getPool().getName(), async.call(LdapManager::scope).get(10, TimeUnit.SECONDS));
+		} finally {
+			LdapManager.setMetrics(null);
+		}
+	}
+
+	@Test
+	public void writesAndReadsBack() throws Exception {
+		AsyncLdap async = new AsyncLdap(directory.pool(), executor);
+		LdapConnection conn = directory.getManager().getEmbeddedConnection();
+		User user;
+
+		try {
+			user = new User("async3", "Async", "User", "async3@example.com", conn);
+		} finally {
+			directory.getManager().closeLdapConnection(conn);
+		}
+
+		async.insertLdapEntity(user).get(10, TimeUnit.SECONDS);
+		User found = async.findUser(user.getLdapEntry().getDn()).get(10, TimeUnit.SECONDS);
+		assertEquals("User", found.getSn());
+
+		found.setSn("Modified");
+		async.modify(found).get(10, TimeUnit.SECONDS);
+		assertTrue(found.getModifications().isEmpty());
+		assertEquals("Modified", async.findUser("async3").get(10, TimeUnit.SECONDS).getSn());
+
+		async.delete(found).get(10, TimeUnit.SECONDS);
+		assertNull(async.findUser("async3").get(10, TimeUnit.SECONDS));
+		assertEquals(0, async.getPool().getBorrowed());
+	}
+
+	@Test
+	public void sendsWithoutExecutorThreads() throws Exception {
+		BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<Runnable>();
+		AsyncLdap async = new AsyncLdap(directory.pool(), tasks::add);
+		LdapConnection conn = directory.getManager().getEmbeddedConnection();
+		User user;
+
+		try {
+			user = new User("async4", "Async", "User", "async4@example.com", conn);
+		} finally {
+			directory.getManager().closeLdapConnection(conn);
+		}
+
+		CompletableFuture<Void> inserted = async.insertLdapEntity(user);
+
+		// Nothing runs the tasks, the response is read and only its completion waits for the executor
+		Runnable completion = tasks.poll(10, TimeUnit.SECONDS);
+		assertFalse(inserted.isDone());
+		assertEquals(0, async.getPool().getBorrowed());
+
+		conn = directory.getManager().getEmbeddedConnection();
+		try {
+			assertTrue(conn.exists(user.getLdapEntry().getDn()));
+		} finally {
+			directory.getManager().closeLdapConnection(conn);
+		}
+
+		completion.run();
+		assertTrue(inserted.isDone());
+	}
+
+	@Test
+	public void completesWithTheLdapException() throws Exception {
+		AsyncLdap async = new AsyncLdap(directory.pool(), executor);
+		LdapConnection conn = directory.getManager().getEmbeddedConnection();
+		User user;
+
+		try {
+			user = new User("async2", "Async", "User", "async2@example.com", conn);
+			new Ldap().insertLdapEntity(user, conn);
+		} finally {
+			directory.getManager().closeLdapConnection(conn);
+		}
+
+		try {
+			async.insertLdapEntity(user).get(10, TimeUnit.SECONDS);
+			fail("Adding an existing entry must fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause().getClass().getName(), e.getCause() instanceof LdapEntryAlreadyExistsException);
+		}
+
+		assertEquals(0, async.getPool().getBorrowed());
+	}
+}
@@ -0,0 +1,58 @@
+package com.laetienda.myldap;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class AuthenticatorTest {
+
+	private static NetworkDirectory directory;
+
+	@BeforeClass
+	public static void start() throws Exception {
+		directory = new NetworkDirectory().start();
+	}
+
+	@AfterClass
+	public static void stop() {
+		LdapManager.setNegativeCache(null);
+		directory.stop();
+	}
+
+	@Test
+	public void bindsUsersTheNegativeCacheMisses() throws Exception {
+		NegativeCache negative = new NegativeCache(10, 60000);
+		LdapConnection conn = directory.getManager().getEmbeddedConnection();
+
+		try {
+			negative.rebuild(conn);
+			User user = new User("latecomer", "Late", "Comer", "latecomer@example.com", conn);
+			user.setPassword("latecomer1", "latecomer1");
+			new Ldap().insertLdapEntity(user, conn);
+		} finally {
+			directory.getManager().closeLdapConnection(conn);
+		}
+
+		Dn dn = LdapManager.getDnFactory().user("latecomer");
+		Dn nobody = LdapManager.getDnFactory().user("nobody");
+		negative.missing(nobody, negative.stamp());
+		assertTrue(negative.isMissing(dn));
+		LdapManager.setNegativeCache(negative);
+
+		try {
+			Authenticator authenticator = directory.getManager().getAuthenticator("localhost", directory.getPort(), directory.getDomain().getName());
+
+			assertFalse(authenticator.authenticate("latecomer", "wrong password"));
+			assertTrue(authenticator.authenticate("latecomer", "latecomer1"));
+			assertFalse(negative.isMissing(dn));
+			assertFalse(authenticator.authenticate("nobody", "latecomer1"));
+		} finally {
+			LdapManager.setNegativeCache(null);
+		}
+	}
+}
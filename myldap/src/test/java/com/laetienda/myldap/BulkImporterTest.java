@@ -0,0 +1,179 @@
+package com.laetienda.myldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class BulkImporterTest {
+
+	private static NetworkDirectory directory;
+
+	@BeforeClass
+	public static void start() throws Exception {
+		directory = new NetworkDirectory().start();
+	}
+
+	@AfterClass
+	public static void stop() {
+		directory.stop();
+	}
+
+	private static Entry unit(String dn) throws Exception {
+		return new DefaultEntry(dn, "objectClass: top", "objectClass: organizationalUnit", "ou: " + new Dn(dn).getRdn().getValue());
+	}
+
+	private static String add(String dn) throws Exception {
+		return "dn: " + dn + "\nchangetype: add\nobjectClass: top\nobjectClass: organizationalUnit\nou: " + new Dn(dn).getRdn().getValue() + "\n\n";
+	}
+
+	@Test
+	public void sendsParentsBeforeChildren() throws Exception {
+		List<Entry> entries = new ArrayList<Entry>();
+
+		for(int c = 0; c < 20; c++) {
+			String parent = "ou=tree" + c + ",dc=example,dc=com";
+			entries.add(unit(parent));
+			entries.add(unit("ou=branch," + parent));
+			entries.add(unit("ou=leaf,ou=branch," + parent));
+		}
+
+		BulkResult result = new BulkImporter().setConnections(4).importEntries(entries.iterator(), directory.pool());
+
+		assertEquals(result.getFailures().toString(), 60, result.getSucceeded());
+		assertEquals(0, result.getFailed());
+
+		LdapConnection conn = directory.getManager().getEmbeddedConnection();
+		try {
+			assertNotNull(conn.lookup("ou=leaf,ou=branch,ou=tree19,dc=example,dc=com"));
+		} finally {
+			directory.getManager().closeLdapConnection(conn);
+		}
+	}
+
+	@Test
+	public void reportsFailuresInOrder() throws Exception {
+		List<Entry> entries = new ArrayList<Entry>();
+		entries.add(unit("ou=failures,dc=example,dc=com"));
+		entries.add(new DefaultEntry("ou=noclass,ou=failures,dc=example,dc=com", "ou: noclass"));
+		entries.add(unit("ou=failures,dc=example,dc=com"));
+		entries.add(unit("ou=orphan,ou=missing,dc=example,dc=com"));
+		List<Long> sequences = new ArrayList<Long>();
+
+		BulkResult result = new BulkImporter().setListener((sequence, dn, error) -> sequences.add(sequence))
+				.importEntries(entries.iterator(), directory.pool());
+
+		assertEquals(1, result.getSucceeded());
+		assertEquals(3, result.getFailed());
+		assertTrue(result.getFailures().get("ou=noclass,ou=failures,dc=example,dc=com").contains("objectClass"));
+		assertEquals(List.of(1L, 2L, 3L, 4L), sequences);
+
+		result = new BulkImporter().setIgnoreExisting(true).importEntries(List.of(unit("ou=failures,dc=example,dc=com")).iterator(), directory.pool());
+		assertEquals(1, result.getSucceeded());
+	}
+
+	@Test(timeout = 60000)
+	public void goesOnWhenTheListenerFails() throws Exception {
+		List<Entry> entries = new ArrayList<Entry>();
+		entries.add(unit("ou=listened,dc=example,dc=com"));
+		for(int c = 0; c < 5; c++) {
+			entries.add(unit("ou=child" + c + ",ou=listened,dc=example,dc=com"));
+		}
+
+		BulkResult result = new BulkImporter().setWindow(2).setListener((sequence, dn, error) -> {
+			if(sequence == 2) {
+				throw new IllegalStateException("listener failed");
+			}
+		}).importEntries(entries.iterator(), directory.pool());
+
+		assertEquals(6, result.getSucceeded());
+		assertEquals(1, result.getErrors().size());
+		assertTrue(result.getErrors().get(0).contains("listener failed"));
+	}
+
+	@Test(timeout = 60000)
+	public void stopsWhenTheCollectorDies() throws Exception {
+		Path checkpoint = Files.createTempFile("myldap-import", ".checkpoint");
+		Files.delete(checkpoint);
+		List<Entry> entries = new ArrayList<Entry>();
+		entries.add(unit("ou=collected,dc=example,dc=com"));
+		for(int c = 0; c < 20; c++) {
+			entries.add(unit("ou=child" + c + ",ou=collected,dc=example,dc=com"));
+		}
+
+		try {
+			BulkResult result = new BulkImporter().setWindow(2).setCheckpoint(checkpoint).setListener((sequence, dn, error) -> {
+				if(sequence == 3) {
+					throw new AssertionError("collector died");
+				}
+			}).importEntries(entries.iterator(), directory.pool());
+
+			assertTrue(result.getSucceeded() < 21);
+			assertEquals(1, result.getErrors().size());
+			assertTrue(result.getErrors().get(0).contains("collector died"));
+			assertEquals("2", new String(Files.readAllBytes(checkpoint), StandardCharsets.US_ASCII));
+		} finally {
+			Files.deleteIfExists(checkpoint);
+		}
+	}
+
+	@Test
+	public void resumesFromCheckpoint() throws Exception {
+		Path checkpoint = Files.createTempFile("myldap-import", ".checkpoint");
+		Files.delete(checkpoint);
+		String ldif = add("ou=resumed,dc=example,dc=com") + add("ou=first,ou=resumed,dc=example,dc=com")
+				+ "dn: ou=bad,ou=resumed,dc=example,dc=com\nchangetype: delete\n\n" + add("ou=second,ou=resumed,dc=example,dc=com");
+
+		try {
+			BulkResult result = new BulkImporter().setCheckpoint(checkpoint).setCheckpointInterval(1)
+					.importLdif(new ByteArrayInputStream(ldif.getBytes(StandardCharsets.UTF_8)), directory.pool());
+			assertEquals(3, result.getSucceeded());
+			assertEquals(1, result.getFailed());
+			assertFalse(Files.exists(checkpoint));
+
+			Files.write(checkpoint, "2".getBytes(StandardCharsets.US_ASCII));
+			result = new BulkImporter().setCheckpoint(checkpoint).setIgnoreExisting(true)
+					.importLdif(new ByteArrayInputStream(ldif.getBytes(StandardCharsets.UTF_8)), directory.pool());
+			assertEquals(2, result.getSkipped());
+			assertEquals(1, result.getSucceeded());
+			assertEquals(1, result.getFailed());
+			assertFalse(Files.exists(checkpoint));
+		} finally {
+			Files.deleteIfExists(checkpoint);
+		}
+	}
+
+	@Test
+	public void stopsOnParseErrors() throws Exception {
+		Path checkpoint = Files.createTempFile("myldap-import", ".checkpoint");
+		Files.delete(checkpoint);
+		String ldif = add("ou=parsed,dc=example,dc=com") + add("ou=unparsed,dc=example,dc=com") + "dn: broken\nnot ldif\n";
+
+		try {
+			BulkResult result = new BulkImporter().setCheckpoint(checkpoint)
+					.importLdif(new ByteArrayInputStream(ldif.getBytes(StandardCharsets.UTF_8)), directory.pool());
+
+			assertEquals(1, result.getSucceeded());
+			assertEquals(1, result.getErrors().size());
+			assertTrue(result.getErrors().get(0).contains("broken"));
+			assertEquals("1", new String(Files.readAllBytes(checkpoint), StandardCharsets.US_ASCII));
+		} finally {
+			Files.deleteIfExists(checkpoint);
+		}
+	}
+}
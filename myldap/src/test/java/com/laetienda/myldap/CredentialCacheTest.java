@@ -0,0 +1,51 @@
+package com.laetienda.myldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.junit.Test;
+
+public class CredentialCacheTest {
+
+	private static final String USER = "uid=tomcat,ou=People,dc=example,dc=com";
+
+	private CredentialCache cache(long ttlMillis) {
+		return new CredentialCache(10, ttlMillis).setCost(16, 1);
+	}
+
+	@Test
+	public void verifiesOnlyThePasswordPut() throws Exception {
+		CredentialCache cache = cache(60000);
+		Dn user = new Dn(USER);
+
+		assertFalse(cache.verify(user, "Welcome1"));
+		cache.put(user, "Welcome1");
+		assertTrue(cache.verify(new Dn("UID=Tomcat, ou=people, dc=example, dc=com"), "Welcome1"));
+		assertFalse(cache.verify(user, "welcome1"));
+		assertFalse(cache.verify(new Dn("uid=other,ou=People,dc=example,dc=com"), "Welcome1"));
+		assertEquals(1, cache.getHits());
+		assertEquals(3, cache.getMisses());
+	}
+
+	@Test
+	public void expiresAndInvalidates() throws Exception {
+		CredentialCache cache = cache(0);
+		Dn user = new Dn(USER);
+		cache.put(user, "Welcome1");
+		Thread.sleep(5);
+		assertFalse(cache.verify(user, "Welcome1"));
+		assertEquals(0, cache.size());
+
+		cache = cache(60000);
+		cache.put(user, "Welcome1");
+		cache.invalidate(user);
+		assertFalse(cache.verify(user, "Welcome1"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsCostThatIsNotAPowerOfTwo() {
+		new CredentialCache(10, 60000).setCost(1000, 8);
+	}
+}
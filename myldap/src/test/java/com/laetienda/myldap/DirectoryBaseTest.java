@@ -0,0 +1,18 @@
+package com.laetienda.myldap;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.junit.Test;
+
+public class DirectoryBaseTest {
+
+	@Test
+	public void buildsContainerDns() throws Exception {
+		DirectoryBase base = new DirectoryBase(new Dn("dc=example, dc=com"));
+
+		assertEquals(Ldap.normalize(new Dn("ou=People,dc=example,dc=com")), Ldap.normalize(base.getPeopleDn()));
+		assertEquals(Ldap.normalize(new Dn("ou=groups,dc=example,dc=com")), Ldap.normalize(base.getGroupsDn()));
+		assertEquals(base.getDomainDn(), base.getPeopleDn().getParent());
+	}
+}
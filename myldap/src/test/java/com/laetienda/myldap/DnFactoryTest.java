@@ -0,0 +1,51 @@
+package com.laetienda.myldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.junit.Test;
+
+public class DnFactoryTest {
+
+	private DnFactory factory(int cacheSize) throws Exception {
+		return new DnFactory(new Dn("ou=People,dc=example,dc=com"), new Dn("ou=groups,dc=example,dc=com"), cacheSize);
+	}
+
+	@Test
+	public void buildsChildDns() throws Exception {
+		DnFactory factory = factory(0);
+
+		assertEquals(new Dn("uid=alice,ou=People,dc=example,dc=com"), factory.user("alice"));
+		assertEquals(new Dn("cn=admins,ou=groups,dc=example,dc=com"), factory.group("admins"));
+		assertEquals(Ldap.normalize(new Dn("UID=Alice, ou=people, dc=example, dc=com")), Ldap.normalize(factory.user("Alice")));
+	}
+
+	@Test
+	public void escapesValues() throws Exception {
+		Dn dn = factory(0).group("Sales, East+West");
+
+		assertEquals("Sales, East+West", dn.getRdn().getValue());
+		assertEquals(4, dn.size());
+		assertEquals(dn, new Dn(dn.getName()));
+	}
+
+	@Test
+	public void cachesDns() throws Exception {
+		DnFactory factory = factory(2);
+
+		assertSame(factory.user("alice"), factory.user("alice"));
+		assertNotSame(factory.user("alice"), factory.group("alice"));
+		assertSame(factory.parse("uid=bob,ou=People,dc=example,dc=com"), factory.parse("uid=bob,ou=People,dc=example,dc=com"));
+
+		factory.setCacheSize(0);
+		assertNotSame(factory.user("alice"), factory.user("alice"));
+	}
+
+	@Test(expected = LdapInvalidDnException.class)
+	public void rejectsEmptyValues() throws Exception {
+		factory(10).user("");
+	}
+}
@@ -0,0 +1,236 @@
+package com.laetienda.myldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class EmbeddedDirectoryTest {
+
+	private static final LdapManager manager = new LdapManager();
+
+	@BeforeClass
+	public static void start() throws Exception {
+		LdapManager.startEmbedded(new EmbeddedDirectory(new Dn("dc=example,dc=com")));
+	}
+
+	@AfterClass
+	public static void stop() {
+		LdapManager.stopEmbedded();
+	}
+
+	@Test
+	public void createsBaseEntries() throws Exception {
+		LdapConnection conn = manager.getEmbeddedReadOnlyConnection();
+
+		try {
+			assertNotNull(LdapManager.getDirectoryBase().getPeopleEntry(conn));
+			assertNotNull(LdapManager.getDirectoryBase().getGroupsEntry(conn));
+		} finally {
+			manager.closeLdapConnection(conn);
+		}
+	}
+
+	@Test
+	public void addsUsersAndGroups() throws Exception {
+		Ldap ldap = new Ldap();
+		LdapConnection conn = manager.getEmbeddedConnection();
+
+		try {
+			User user = new User("embedded", "Embedded", "User", "embedded@example.com", conn);
+			user.setPassword("Welcome1", "Welcome1");
+			ldap.insertLdapEntity(user, conn);
+
+			Group group = new Group().setName("Embedded Group", conn).setOwner("embedded", conn);
+			group.addMember("embedded", conn);
+			ldap.insertLdapEntity(group, conn);
+
+			assertTrue(new User("embedded", conn).isMemberOf(group.getLdapEntry().getDn(), conn));
+			assertEquals(1, new Group("Embedded Group", conn).getMembers(conn).size());
+		} finally {
+			manager.closeLdapConnection(conn);
+		}
+
+		conn = manager.getEmbeddedConnection(new Dn("uid=embedded,ou=People,dc=example,dc=com"), "Welcome1");
+		try {
+			assertTrue(conn.isAuthenticated());
+		} finally {
+			manager.closeLdapConnection(conn);
+		}
+
+		conn = manager.getEmbeddedConnection();
+		try {
+			assertFalse(new Group("Embedded Group", conn).getErrors().containsKey("member"));
+		} finally {
+			manager.closeLdapConnection(conn);
+		}
+	}
+
+	@Test
+	public void comparesMembersNormalized() throws Exception {
+		Ldap ldap = new Ldap();
+		LdapConnection conn = manager.getEmbeddedConnection();
+
+		try {
+			for(String uid : new String[] {"normalowner", "normalmember"}) {
+				ldap.insertLdapEntity(new User(uid, "Normal", "User", uid + "@example.com", conn), conn);
+			}
+
+			Group group = new Group().setName("Normal Group", conn).setOwner("normalowner", conn);
+			group.addMember("normalowner", conn).addMember("normalmember", conn);
+			ldap.insertLdapEntity(group, conn);
+
+			group = new Group("Normal Group", conn);
+			Dn spaced = new Dn("UID=NormalMember, ou=people, dc=example, dc=com");
+			assertTrue(group.hasMember(spaced));
+
+			group.addMember(spaced, conn);
+			assertTrue(group.getErrors().containsKey("member"));
+			assertTrue(group.getModifications().isEmpty());
+
+			group.removeMember(new Dn("uid=normalowner, ou=People, dc=example, dc=com"), conn);
+			assertEquals(2, group.getErrors().get("member").size());
+			assertTrue(group.getModifications().isEmpty());
+
+			group = new Group("Normal Group", conn);
+			group.removeMember(spaced, conn);
+			assertFalse(group.hasMember(spaced));
+			ldap.modify(group, conn);
+			assertEquals(1, new Group("Normal Group", conn).getMemberDns().size());
+		} finally {
+			manager.closeLdapConnection(conn);
+		}
+	}
+
+	@Test
+	public void answersMissingNamesLocally() throws Exception {
+		Ldap ldap = new Ldap();
+		NegativeCache negative = new NegativeCache(100, 60000);
+		LdapConnection conn = manager.getEmbeddedConnection();
+		LdapManager.setNegativeCache(negative);
+
+		try {
+			negative.rebuild(conn);
+			assertTrue(negative.hasFilter());
+			Dn dn = LdapManager.getDnFactory().user("negative");
+			assertFalse(ldap.exists(dn, conn));
+			assertTrue(negative.isMissingMail("negative@example.com"));
+
+			User user = new User("negative", "Negative", "User", "negative@example.com", conn);
+			assertTrue(user.getErrors().isEmpty());
+			ldap.insertLdapEntity(user, conn);
+
+			assertTrue(ldap.exists(dn, conn));
+			assertTrue(new User("negative2", "Negative", "User", "negative@example.com", conn).getErrors().containsKey("email"));
+
+			Group group = new Group().setName("Negative Group", conn).setOwner("negative", conn);
+			group.addMember(LdapManager.getDnFactory().user("nobody"), conn);
+			assertTrue(group.getErrors().containsKey("member"));
+
+			negative.rebuild(conn);
+			assertTrue(ldap.exists(dn, conn));
+			assertTrue(negative.getHits() > 0);
+		} finally {
+			LdapManager.setNegativeCache(null);
+			manager.closeLdapConnection(conn);
+		}
+	}
+
+	@Test
+	public void scopesCachedEntriesByIdentity() throws Exception {
+		Ldap ldap = new Ldap();
+		EntryCache cache = new EntryCache(100, 60000);
+		LdapConnection conn = manager.getEmbeddedConnection();
+		LdapConnection anonymous = manager.getEmbeddedReadOnlyConnection();
+		LdapManager.setEntryCache(cache);
+
+		try {
+			User user = new User("scoped", "Scoped", "User", "scoped@example.com", conn);
+			user.setPassword("Welcome1", "Welcome1");
+			ldap.insertLdapEntity(user, conn);
+			Dn dn = LdapManager.getDnFactory().user("scoped");
+
+			assertTrue(ldap.lookup(dn, conn).containsAttribute("userPassword"));
+			assertTrue(ldap.lookup(dn, conn).containsAttribute("userPassword"));
+			assertEquals(1, cache.getHits());
+
+			assertEquals(anonymous.lookup(dn).containsAttribute("userPassword"), ldap.lookup(dn, anonymous).containsAttribute("userPassword"));
+			assertEquals(1, cache.getHits());
+		} finally {
+			LdapManager.setEntryCache(null);
+			manager.closeLdapConnection(anonymous);
+			manager.closeLdapConnection(conn);
+		}
+	}
+
+	@Test
+	public void findsUsernameAmongSharedEmails() throws Exception {
+		Ldap ldap = new Ldap();
+		LdapConnection conn = manager.getEmbeddedConnection();
+
+		try {
+			for(String uid : new String[] {"shared1", "shared2"}) {
+				conn.add(new DefaultEntry(LdapManager.getDnFactory().user(uid), "objectClass: inetOrgPerson",
+						"uid: " + uid, "cn: Shared", "sn: User", "mail: shared@example.com"));
+			}
+
+			User user = new User("shared3", "Shared", "User", "other@example.com", conn);
+			ldap.insertLdapEntity(user, conn);
+
+			User duplicate = new User("shared3", "Shared", "User", "shared@example.com", conn);
+			assertTrue(duplicate.getErrors().containsKey("uid"));
+			assertTrue(duplicate.getErrors().containsKey("email"));
+			assertFalse(new User("shared4", "Shared", "User", "other@example.com", conn).getErrors().containsKey("uid"));
+		} finally {
+			manager.closeLdapConnection(conn);
+		}
+	}
+
+	@Test
+	public void addsAndRemovesMembersInBulk() throws Exception {
+		Ldap ldap = new Ldap();
+		DnFactory dns = LdapManager.getDnFactory();
+		LdapConnection conn = manager.getEmbeddedConnection();
+
+		try {
+			for(int c = 1; c <= 5; c++) {
+				conn.add(new DefaultEntry(dns.user("bulk" + c), "objectClass: inetOrgPerson", "uid: bulk" + c, "cn: Bulk", "sn: User"));
+			}
+
+			Group group = new Group().setName("Bulk Group", conn).setOwner("bulk1", conn);
+			group.addMembers(Arrays.asList(dns.user("bulk1"), dns.user("bulk2"), dns.user("bulk3"), new Dn("UID=bulk2, ou=People, dc=example, dc=com")), conn);
+			assertTrue(group.getErrors().isEmpty());
+			ldap.insertLdapEntity(group, conn);
+			assertEquals(3, new Group("Bulk Group", conn).getMembers(conn).size());
+
+			group = new Group("Bulk Group", conn).addMembers(Arrays.asList(dns.user("bulk4"), dns.user("bulk2"), dns.user("nobody")), conn);
+			assertEquals(2, group.getErrors().get("member").size());
+			assertEquals(1, group.getModifications().size());
+
+			group = new Group("Bulk Group", conn).addMembers(Arrays.asList(dns.user("bulk4"), dns.user("bulk5")), conn);
+			assertTrue(group.getErrors().isEmpty());
+			ldap.modify(group, 1, conn);
+			assertEquals(5, new Group("Bulk Group", conn).getMembers(conn).size());
+
+			assertTrue(new Group("Bulk Group", conn).removeMembers(Arrays.asList(dns.user("bulk1"))).getErrors().containsKey("member"));
+
+			group = new Group("Bulk Group", conn).removeMembers(Arrays.asList(dns.user("bulk2"), dns.user("bulk4")));
+			assertTrue(group.getErrors().isEmpty());
+			ldap.modify(group, conn);
+			Group saved = new Group("Bulk Group", conn);
+			assertEquals(3, saved.getMembers(conn).size());
+			assertFalse(saved.hasMember(dns.user("bulk4")));
+		} finally {
+			manager.closeLdapConnection(conn);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.laetienda.myldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.junit.Test;
+
+public class EntryCacheTest {
+
+	private Entry entry(String uid) throws Exception {
+		return new DefaultEntry("uid=" + uid + ",ou=People,dc=example,dc=com", "uid: " + uid, "cn: " + uid);
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() throws Exception {
+		EntryCache cache = new EntryCache(2, 60000);
+		Entry first = entry("first");
+		Entry second = entry("second");
+
+		cache.put("admin", first.getDn(), first, cache.stamp());
+		cache.put("admin", second.getDn(), second, cache.stamp());
+		cache.get("admin", first.getDn());
+		cache.put("admin", new Dn("uid=third,ou=People,dc=example,dc=com"), entry("third"), cache.stamp());
+
+		assertNotNull(cache.get("admin", first.getDn()));
+		assertNull(cache.get("admin", second.getDn()));
+		assertEquals(1, cache.getEvictions());
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void keysIgnoreCaseAndSpaces() throws Exception {
+		EntryCache cache = new EntryCache(10, 60000);
+		Entry tomcat = entry("tomcat");
+
+		cache.put("admin", tomcat.getDn(), tomcat, cache.stamp());
+		assertNotNull(cache.get("admin", new Dn("uid=Tomcat, ou=people, dc=example, dc=com")));
+
+		cache.invalidate(new Dn("UID=tomcat,ou=People,dc=example,dc=com"));
+		assertNull(cache.get("admin", tomcat.getDn()));
+	}
+
+	@Test
+	public void expiresAndReturnsCopies() throws Exception {
+		EntryCache cache = new EntryCache(10, 0);
+		Entry tomcat = entry("tomcat");
+
+		cache.put("admin", tomcat.getDn(), tomcat, cache.stamp());
+		Thread.sleep(5);
+		assertNull(cache.get("admin", tomcat.getDn()));
+		assertEquals(1, cache.getExpirations());
+
+		cache = new EntryCache(10, 60000);
+		cache.put("admin", tomcat.getDn(), tomcat, cache.stamp());
+		cache.get("admin", tomcat.getDn()).add("sn", "changed");
+		assertFalse(cache.get("admin", tomcat.getDn()).containsAttribute("sn"));
+	}
+
+	@Test
+	public void skipsReadsStartedBeforeAnInvalidation() throws Exception {
+		EntryCache cache = new EntryCache(10, 60000);
+		Entry tomcat = entry("tomcat");
+
+		long stamp = cache.stamp();
+		cache.invalidate(tomcat.getDn());
+		cache.put("admin", tomcat.getDn(), tomcat, stamp);
+		assertNull(cache.get("admin", tomcat.getDn()));
+
+		stamp = cache.stamp();
+		cache.clear();
+		cache.put("admin", tomcat.getDn(), tomcat, stamp);
+		assertNull(cache.get("admin", tomcat.getDn()));
+
+		cache.put("admin", tomcat.getDn(), tomcat, cache.stamp());
+		assertNotNull(cache.get("admin", tomcat.getDn()));
+	}
+
+	@Test
+	public void keepsScopesApart() throws Exception {
+		EntryCache cache = new EntryCache(10, 60000);
+		Entry tomcat = entry("tomcat");
+		tomcat.add("userPassword", "secret");
+
+		cache.put("admin", tomcat.getDn(), tomcat, cache.stamp());
+		assertNull(cache.get("anonymous", tomcat.getDn()));
+
+		cache.put("anonymous", tomcat.getDn(), entry("tomcat"), cache.stamp());
+		assertFalse(cache.get("anonymous", tomcat.getDn()).containsAttribute("userPassword"));
+		assertTrue(cache.get("admin", tomcat.getDn()).containsAttribute("userPassword"));
+		assertEquals(1, cache.size());
+
+		cache.invalidate(tomcat.getDn());
+		assertNull(cache.get("admin", tomcat.getDn()));
+		assertNull(cache.get("anonymous", tomcat.getDn()));
+	}
+}
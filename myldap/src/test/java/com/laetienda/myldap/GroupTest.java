@@ -125,6 +125,7 @@ public class GroupTest {
 			log.error("Test failed.", e);
 		} finally {
 			manager.closeLdapConnection(conn);
+			LdapManager.closePools();
 		}
 		
 		log.info("Java has closed");
@@ -0,0 +1,112 @@
+package com.laetienda.myldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class InstallerTest {
+
+	private static NetworkDirectory directory;
+
+	@BeforeClass
+	public static void start() throws Exception {
+		directory = new NetworkDirectory().start();
+	}
+
+	@AfterClass
+	public static void stop() {
+		directory.stop();
+	}
+
+	private static String unit(String ou) {
+		return "dn: ou=" + ou + ",dc=example,dc=com\nobjectClass: top\nobjectClass: organizationalUnit\nou: " + ou + "\n\n";
+	}
+
+	@Test
+	public void keepsOneCheckpointPerFile() throws Exception {
+		Path folder = Files.createTempDirectory("myldap-installer");
+		Path first = folder.resolve("first.ldif");
+		Path second = folder.resolve("second.ldif");
+		Files.write(first, (unit("install1") + unit("install2") + "dn: broken\nnot ldif\n").getBytes(StandardCharsets.UTF_8));
+		Files.write(second, (unit("install3") + unit("install4")).getBytes(StandardCharsets.UTF_8));
+		Installer installer = new Installer();
+		installer.getImporter().setCheckpointInterval(1).setCheckpoint(folder.resolve("shared.checkpoint"));
+		LdapConnection conn = directory.getManager().getEmbeddedConnection();
+
+		try {
+			assertEquals(0, installer.createBase(directory.getDomain(), conn));
+
+			BulkResult result = installer.load(first, directory.pool());
+			assertFalse(result.getErrors().isEmpty());
+			assertTrue(Files.exists(folder.resolve("first.ldif.checkpoint")));
+			assertEquals(folder.resolve("shared.checkpoint"), installer.getImporter().getCheckpoint());
+			assertFalse(Files.exists(folder.resolve("shared.checkpoint")));
+
+			result = installer.load(second, directory.pool());
+			assertEquals(0, result.getSkipped());
+			assertEquals(2, result.getSucceeded());
+			assertFalse(Files.exists(folder.resolve("second.ldif.checkpoint")));
+			assertTrue(conn.exists(new Dn("ou=install4,dc=example,dc=com")));
+
+			Files.write(first, (unit("install1") + unit("install2")).getBytes(StandardCharsets.UTF_8));
+			result = installer.load(first, directory.pool());
+			assertEquals(1, result.getSkipped());
+			assertEquals(1, result.getSucceeded());
+			assertFalse(Files.exists(folder.resolve("first.ldif.checkpoint")));
+		} finally {
+			directory.getManager().closeLdapConnection(conn);
+			FileUtils.deleteDirectory(folder.toFile());
+		}
+	}
+
+	@Test
+	public void loadsFilesAtTheSameTime() throws Exception {
+		Path folder = Files.createTempDirectory("myldap-installer");
+		Installer installer = new Installer();
+		installer.getImporter().setCheckpointInterval(1).setConnections(1);
+		List<Future<BulkResult>> results = new ArrayList<Future<BulkResult>>();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+
+		try {
+			for(int c = 0; c < 4; c++) {
+				Path file = folder.resolve("parallel" + c + ".ldif");
+				StringBuilder ldif = new StringBuilder();
+				for(int e = 0; e < 10; e++) {
+					ldif.append(unit("parallel" + c + "x" + e));
+				}
+				Files.write(file, ldif.toString().getBytes(StandardCharsets.UTF_8));
+				results.add(executor.submit(() -> installer.load(file, directory.pool())));
+			}
+
+			for(Future<BulkResult> result : results) {
+				assertEquals(0, result.get(60, TimeUnit.SECONDS).getSkipped());
+				assertEquals(10, result.get().getSucceeded());
+			}
+
+			try(Stream<Path> files = Files.list(folder)) {
+				assertEquals(4, files.count());
+			}
+		} finally {
+			executor.shutdownNow();
+			FileUtils.deleteDirectory(folder.toFile());
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package com.laetienda.myldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void bucketsCoverTheirValues() {
+		for(long value : new long[] { 0, 1, 63, 64, 65, 100, 1000, 123456789, Long.MAX_VALUE }) {
+			long highest = LatencyHistogram.highestValue(LatencyHistogram.index(value));
+			assertTrue(value + " above " + highest, value <= highest);
+			assertTrue(value + " far from " + highest, highest - value <= Math.max(1, value / 32));
+		}
+	}
+
+	@Test
+	public void percentilesWithinPrecision() {
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		for(long c = 1; c <= 10000; c++) {
+			histogram.record(c * 1000);
+		}
+
+		assertEquals(10000, histogram.getCount());
+		assertEquals(10000000, histogram.getMax());
+		assertEquals(5000500, histogram.getMean(), 1);
+		assertEquals(5000000, histogram.getValueAtPercentile(50), 5000000 / 32);
+		assertEquals(9900000, histogram.getValueAtPercentile(99), 9900000 / 32);
+		assertEquals(10000000, histogram.getValueAtPercentile(100));
+
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getValueAtPercentile(99));
+	}
+
+	@Test
+	public void metricsCountErrorsPerOperation() {
+		DefaultLdapMetrics metrics = new DefaultLdapMetrics();
+
+		metrics.record(LdapOperation.LOOKUP, 2000, false);
+		metrics.record(LdapOperation.LOOKUP, 4000, true);
+
+		assertEquals(2, metrics.getStats(LdapOperation.LOOKUP).getCount());
+		assertEquals(1, metrics.getStats(LdapOperation.LOOKUP).getErrors());
+		assertEquals(4, metrics.getStats(LdapOperation.LOOKUP).getMaxMicros());
+		assertEquals(0, metrics.getStats(LdapOperation.MODIFY).getCount());
+	}
+}
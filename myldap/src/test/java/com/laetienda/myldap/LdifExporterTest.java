@@ -0,0 +1,125 @@
+package com.laetienda.myldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class LdifExporterTest {
+
+	private static NetworkDirectory directory;
+
+	@BeforeClass
+	public static void start() throws Exception {
+		directory = new NetworkDirectory().start();
+	}
+
+	@AfterClass
+	public static void stop() {
+		directory.stop();
+	}
+
+	@Test
+	public void exportsParentsFirstAndImportsBack() throws Exception {
+		List<Dn> added = new ArrayList<Dn>();
+		Path folder = Files.createTempDirectory("myldap-export");
+		LdapPool pool = directory.pool();
+		LdapConnection conn = pool.borrow();
+
+		try {
+			for(String dn : new String[] {"ou=export,dc=example,dc=com", "ou=first,ou=export,dc=example,dc=com", "ou=second,ou=first,ou=export,dc=example,dc=com"}) {
+				conn.add(new DefaultEntry(dn, "objectClass: top", "objectClass: organizationalUnit", "ou: " + new Dn(dn).getRdn().getValue()));
+				added.add(new Dn(dn));
+			}
+
+			for(int c = 0; c < 20; c++) {
+				Dn dn = new Dn("uid=export" + c + "," + added.get(c % 3).getName());
+				conn.add(new DefaultEntry(dn, "objectClass: inetOrgPerson", "uid: export" + c, "cn: Export", "sn: N\u00famero " + c));
+				added.add(dn);
+			}
+
+			ExportResult exported = new LdifExporter().setGzip(true).setPageSize(7).export(added.get(0), folder.resolve("export.ldif"), conn);
+			assertEquals(added.size(), exported.getEntries());
+			assertTrue(exported.getFile().toString().endsWith(".ldif.gz"));
+
+			Set<String> written = new HashSet<String>();
+			try(InputStream input = new GZIPInputStream(Files.newInputStream(exported.getFile())); LdifReader reader = new LdifReader(input)) {
+				for(LdifEntry entry : reader) {
+					String key = Ldap.normalize(entry.getDn());
+					assertTrue(entry.getDn().getName(), written.isEmpty() || written.contains(Ldap.normalize(entry.getDn().getParent())));
+					assertNull(entry.get("hasSubordinates"));
+					assertNull(entry.get("nbChildren"));
+					written.add(key);
+				}
+			}
+			assertEquals(added.size(), written.size());
+
+			for(int c = added.size() - 1; c >= 0; c--) {
+				conn.delete(added.get(c));
+			}
+
+			BulkResult result = new Installer().load(exported.getFile(), pool);
+			assertEquals(result.getFailures().toString(), added.size(), result.getSucceeded());
+			assertNotNull(conn.lookup("uid=export17,ou=second,ou=first,ou=export,dc=example,dc=com"));
+			assertEquals("N\u00famero 17", conn.lookup("uid=export17,ou=second,ou=first,ou=export,dc=example,dc=com").get("sn").getString());
+		} finally {
+			pool.release(conn);
+			FileUtils.deleteDirectory(folder.toFile());
+		}
+	}
+
+	@Test
+	public void searchesOnlyEntriesWithChildren() throws Exception {
+		Path folder = Files.createTempDirectory("myldap-export");
+		DefaultLdapMetrics metrics = new DefaultLdapMetrics();
+		LdapConnection admin = directory.getManager().getEmbeddedConnection();
+
+		try {
+			for(String dn : new String[] {"ou=levels,dc=example,dc=com", "ou=kept,ou=levels,dc=example,dc=com", "ou=left,ou=levels,dc=example,dc=com"}) {
+				admin.add(new DefaultEntry(dn, "objectClass: top", "objectClass: organizationalUnit", "ou: " + new Dn(dn).getRdn().getValue()));
+			}
+
+			for(int c = 0; c < 10; c++) {
+				String parent = c % 2 == 0 ? "ou=kept" : "ou=left";
+				admin.add(new DefaultEntry("uid=level" + c + "," + parent + ",ou=levels,dc=example,dc=com", "objectClass: inetOrgPerson",
+						"uid: level" + c, "cn: Level", "sn: Level"));
+			}
+		} finally {
+			directory.getManager().closeLdapConnection(admin);
+		}
+
+		LdapManager.setMetrics(metrics);
+		LdapConnection conn = directory.getManager().getLdapConnection(directory.pool());
+
+		try {
+			ExportResult exported = new LdifExporter().setFilter("(!(ou=left))").setPageSize(100)
+					.export(new Dn("ou=levels,dc=example,dc=com"), folder.resolve("levels.ldif"), conn);
+
+			assertEquals(7, exported.getEntries());
+			assertEquals(2, metrics.getStats(LdapOperation.SEARCH).getCount());
+		} finally {
+			directory.getManager().closeLdapConnection(conn);
+			LdapManager.setMetrics(null);
+			FileUtils.deleteDirectory(folder.toFile());
+		}
+	}
+}
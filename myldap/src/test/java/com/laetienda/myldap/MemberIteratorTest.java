@@ -0,0 +1,119 @@
+package com.laetienda.myldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MemberIteratorTest {
+
+	private static final int MEMBERS = 7;
+
+	private static NetworkDirectory directory;
+
+	@BeforeClass
+	public static void start() throws Exception {
+		directory = new NetworkDirectory().start();
+		LdapConnection conn = directory.getManager().getEmbeddedConnection();
+		Ldap ldap = new Ldap();
+
+		try {
+			for(int c = 0; c < MEMBERS; c++) {
+				ldap.insertLdapEntity(new User("member" + c, "Member", "User", "member" + c + "@example.com", conn), conn);
+			}
+
+			Group group = new Group().setName("Streamed", conn).setOwner("member0", conn);
+			for(int c = 0; c < MEMBERS; c++) {
+				group.addMember("member" + c, conn);
+			}
+			ldap.insertLdapEntity(group, conn);
+		} finally {
+			directory.getManager().closeLdapConnection(conn);
+		}
+	}
+
+	@AfterClass
+	public static void stop() {
+		directory.stop();
+	}
+
+	@Test
+	public void readsMoreMembersThanPageSize() throws Exception {
+		CountingResolver resolver = new CountingResolver();
+		LdapConnection conn = directory.getManager().getEmbeddedConnection();
+
+		try(Stream<User> members = new Group("Streamed", conn).streamMembers(conn, resolver)) {
+			List<String> uids = members.map(User::getUid).sorted().collect(Collectors.toList());
+
+			assertEquals(MEMBERS, uids.size());
+			assertEquals("member6", uids.get(MEMBERS - 1));
+		} finally {
+			directory.getManager().closeLdapConnection(conn);
+		}
+
+		assertEquals((MEMBERS + 1) / 2, resolver.batches.get());
+	}
+
+	@Test
+	public void stopsEarly() throws Exception {
+		CountingResolver resolver = new CountingResolver();
+		LdapConnection conn = directory.getManager().getEmbeddedConnection();
+
+		try(Stream<User> members = new Group("Streamed", conn).streamMembers(conn, resolver)) {
+			assertEquals(3, members.limit(3).count());
+		} finally {
+			directory.getManager().closeLdapConnection(conn);
+		}
+
+		assertEquals(2, resolver.batches.get());
+	}
+
+	@Test
+	public void closesAfterPartialRead() throws Exception {
+		CountingResolver resolver = new CountingResolver();
+		LdapConnection conn = directory.getManager().getEmbeddedConnection();
+
+		try {
+			MemberIterator<User> members = new Group("Streamed", conn).memberIterator(conn, resolver);
+			members.next();
+			members.next();
+			members.next();
+			members.close();
+
+			assertFalse(members.hasNext());
+		} finally {
+			directory.getManager().closeLdapConnection(conn);
+		}
+
+		assertEquals(2, resolver.batches.get());
+	}
+
+	/**
+	 * Counts the searches sent, two members each.
+	 */
+	private static class CountingResolver extends MemberResolver {
+		private final AtomicInteger batches = new AtomicInteger();
+
+		private CountingResolver() {
+			setBatchSize(2);
+			setAttributes("cn", "sn");
+		}
+
+		@Override
+		List<Entry> resolveBatch(List<Dn> batch, LdapConnection conn) throws LdapException {
+			batches.incrementAndGet();
+			return super.resolveBatch(batch, conn);
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package com.laetienda.myldap;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.junit.Test;
+
+public class MemberResolverTest {
+
+	@Test
+	public void splitsMembersInBatches() throws Exception {
+		List<Dn> members = new ArrayList<Dn>();
+		for(int i = 0; i < 5; i++) {
+			members.add(new Dn("uid=user" + i + ",ou=People,dc=example,dc=com"));
+		}
+
+		List<List<Dn>> batches = new MemberResolver().setBatchSize(2).batches(members);
+
+		assertEquals(3, batches.size());
+		assertEquals(2, batches.get(0).size());
+		assertEquals(1, batches.get(2).size());
+		assertEquals(members.get(4), batches.get(2).get(0));
+	}
+
+	@Test
+	public void alwaysRequestsUid() {
+		String[] attributes = new MemberResolver().setAttributes("cn", "mail").getAttributes();
+
+		assertEquals(3, attributes.length);
+		assertEquals("uid", attributes[2]);
+	}
+}
@@ -0,0 +1,80 @@
+package com.laetienda.myldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.junit.Test;
+
+public class MembershipIndexTest {
+
+	private static final String ALICE = "uid=alice,ou=People,dc=example,dc=com";
+	private static final String BOB = "uid=bob,ou=People,dc=example,dc=com";
+
+	private Dn group(String cn) throws Exception {
+		return new Dn("cn=" + cn + ",ou=groups,dc=example,dc=com");
+	}
+
+	@Test
+	public void appliesModifications() throws Exception {
+		MembershipIndex index = new MembershipIndex(10, 60000);
+		Dn admins = group("admins");
+		Dn users = group("users");
+
+		index.put(new Dn(ALICE), Collections.singletonList(users));
+		index.put(new Dn(BOB), Collections.emptyList());
+
+		index.modified(admins, Arrays.asList(new DefaultModification(ModificationOperation.ADD_ATTRIBUTE, "uniqueMember", "UID=Alice, ou=people,dc=example,dc=com", BOB)));
+		assertTrue(index.isMember(new Dn(ALICE), admins));
+		assertTrue(index.isMember(new Dn(BOB), admins));
+
+		index.modified(users, Arrays.asList(new DefaultModification(ModificationOperation.REMOVE_ATTRIBUTE, "uniqueMember", ALICE)));
+		assertFalse(index.isMember(new Dn(ALICE), users));
+
+		index.modified(admins, Arrays.asList(new DefaultModification(ModificationOperation.REPLACE_ATTRIBUTE, "uniqueMember", BOB)));
+		assertFalse(index.isMember(new Dn(ALICE), admins));
+		assertTrue(index.isMember(new Dn(BOB), admins));
+
+		index.modified(admins, Arrays.asList(new DefaultModification(ModificationOperation.REPLACE_ATTRIBUTE, "description", "ignored")));
+		assertEquals(1, index.get(new Dn(BOB)).size());
+	}
+
+	@Test
+	public void followsGroupsAddedAndDeleted() throws Exception {
+		MembershipIndex index = new MembershipIndex(10, 60000);
+		Dn admins = group("admins");
+
+		index.put(new Dn(ALICE), Collections.emptyList());
+		index.groupAdded(new DefaultEntry(admins, "objectClass: groupOfUniqueNames", "cn: admins", "uniqueMember: " + ALICE, "uniqueMember: " + BOB));
+
+		assertTrue(index.isMember(new Dn(ALICE), admins));
+		assertNull("users not indexed are not added", index.get(new Dn(BOB)));
+
+		index.groupDeleted(new Dn("CN=Admins,ou=groups,dc=example,dc=com"));
+		assertTrue(index.get(new Dn(ALICE)).isEmpty());
+	}
+
+	@Test
+	public void evictsAndExpires() throws Exception {
+		MembershipIndex index = new MembershipIndex(1, 60000);
+
+		index.put(new Dn(ALICE), Collections.emptyList());
+		index.put(new Dn(BOB), Collections.emptyList());
+		assertNull(index.get(new Dn(ALICE)));
+		assertEquals(1, index.size());
+
+		index = new MembershipIndex(10, 0);
+		index.put(new Dn(ALICE), Collections.emptyList());
+		Thread.sleep(5);
+		assertNull(index.isMember(new Dn(ALICE), group("admins")));
+		assertEquals(1, index.getMisses());
+	}
+}
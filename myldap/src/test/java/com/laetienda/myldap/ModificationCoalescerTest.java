@@ -0,0 +1,83 @@
+package com.laetienda.myldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.junit.Test;
+
+public class ModificationCoalescerTest {
+
+	private Modification mod(ModificationOperation operation, String attribute, String... values) {
+		return new DefaultModification(operation, attribute, values);
+	}
+
+	@Test
+	public void keepsLastReplace() {
+		List<Modification> result = ModificationCoalescer.coalesce(List.of(
+				mod(ModificationOperation.REPLACE_ATTRIBUTE, "cn", "First"),
+				mod(ModificationOperation.REPLACE_ATTRIBUTE, "sn", "Last"),
+				mod(ModificationOperation.REPLACE_ATTRIBUTE, "CN", "Second")));
+
+		assertEquals(2, result.size());
+		assertEquals("cn", result.get(0).getAttribute().getUpId());
+		assertEquals(1, result.get(0).getAttribute().size());
+		assertTrue(result.get(0).getAttribute().contains("Second"));
+	}
+
+	@Test
+	public void foldsAddsAndRemovesOfMembers() {
+		List<Modification> result = ModificationCoalescer.coalesce(List.of(
+				mod(ModificationOperation.ADD_ATTRIBUTE, "uniqueMember", "uid=a,ou=People,dc=example,dc=com"),
+				mod(ModificationOperation.ADD_ATTRIBUTE, "uniqueMember", "uid=b,ou=People,dc=example,dc=com"),
+				mod(ModificationOperation.REMOVE_ATTRIBUTE, "uniqueMember", "uid=c,ou=People,dc=example,dc=com"),
+				mod(ModificationOperation.REMOVE_ATTRIBUTE, "uniqueMember", "uid=a,ou=People,dc=example,dc=com")));
+
+		assertEquals(2, result.size());
+		assertEquals(ModificationOperation.REMOVE_ATTRIBUTE, result.get(0).getOperation());
+		assertTrue(result.get(0).getAttribute().contains("uid=c,ou=People,dc=example,dc=com"));
+		assertEquals(ModificationOperation.ADD_ATTRIBUTE, result.get(1).getOperation());
+		assertEquals(1, result.get(1).getAttribute().size());
+		assertTrue(result.get(1).getAttribute().contains("uid=b,ou=People,dc=example,dc=com"));
+	}
+
+	@Test
+	public void addAfterReplaceExtendsReplace() {
+		List<Modification> result = ModificationCoalescer.coalesce(List.of(
+				mod(ModificationOperation.REPLACE_ATTRIBUTE, "description", "one"),
+				mod(ModificationOperation.ADD_ATTRIBUTE, "description", "two")));
+
+		assertEquals(1, result.size());
+		assertEquals(ModificationOperation.REPLACE_ATTRIBUTE, result.get(0).getOperation());
+		assertEquals(2, result.get(0).getAttribute().size());
+	}
+
+	@Test
+	public void chunksLargeAddsAndKeepsReplaceWhole() {
+		List<List<Modification>> result = ModificationCoalescer.chunk(List.of(
+				mod(ModificationOperation.REPLACE_ATTRIBUTE, "description", "one", "two", "three"),
+				mod(ModificationOperation.ADD_ATTRIBUTE, "uniqueMember", "a", "b", "c", "d", "e")), 2);
+
+		assertEquals(4, result.size());
+		assertEquals(3, result.get(0).get(0).getAttribute().size());
+		assertEquals(ModificationOperation.ADD_ATTRIBUTE, result.get(1).get(0).getOperation());
+		assertEquals(2, result.get(1).get(0).getAttribute().size());
+		assertEquals(2, result.get(2).get(0).getAttribute().size());
+		assertEquals(1, result.get(3).get(0).getAttribute().size());
+		assertTrue(result.get(3).get(0).getAttribute().contains("e"));
+	}
+
+	@Test
+	public void smallModificationsShareAChunk() {
+		List<List<Modification>> result = ModificationCoalescer.chunk(List.of(
+				mod(ModificationOperation.REPLACE_ATTRIBUTE, "cn", "First"),
+				mod(ModificationOperation.ADD_ATTRIBUTE, "uniqueMember", "a", "b")), 3);
+
+		assertEquals(1, result.size());
+		assertEquals(2, result.get(0).size());
+	}
+}
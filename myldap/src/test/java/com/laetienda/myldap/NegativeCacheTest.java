@@ -0,0 +1,104 @@
+package com.laetienda.myldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.junit.Test;
+
+public class NegativeCacheTest {
+
+	private static final String PEOPLE = "ou=people,dc=example,dc=com";
+
+	@Test
+	public void recordsMissesUntilAdded() throws Exception {
+		NegativeCache cache = new NegativeCache(10, 60000);
+		Dn dn = new Dn("uid=nobody,ou=People,dc=example,dc=com");
+
+		assertFalse(cache.isMissing(dn));
+		cache.missing(dn, cache.stamp());
+		assertTrue(cache.isMissing(new Dn("UID=Nobody, ou=people, dc=example, dc=com")));
+
+		cache.added(new DefaultEntry(dn, "uid: nobody", "mail: Nobody@Example.com"));
+		assertFalse(cache.isMissing(dn));
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void ignoresMissesSeenBeforeAnAddition() throws Exception {
+		NegativeCache cache = new NegativeCache(10, 60000);
+		Dn dn = new Dn("uid=racing,ou=People,dc=example,dc=com");
+		long stamp = cache.stamp();
+
+		cache.added(new DefaultEntry(dn));
+		cache.missing(dn, stamp);
+		cache.missingMail("racing@example.com", stamp);
+		assertFalse(cache.isMissing(dn));
+		assertFalse(cache.isMissingMail("racing@example.com"));
+	}
+
+	@Test
+	public void expiresMissesAndForgetsModifiedMails() throws Exception {
+		NegativeCache cache = new NegativeCache(10, 0);
+		cache.missingMail("gone@example.com", cache.stamp());
+		Thread.sleep(5);
+		assertFalse(cache.isMissingMail("gone@example.com"));
+
+		cache = new NegativeCache(10, 60000);
+		cache.missingMail("new@example.com", cache.stamp());
+		assertTrue(cache.isMissingMail("NEW@example.com "));
+
+		Modification modification = new DefaultModification(ModificationOperation.REPLACE_ATTRIBUTE, "mail", "new@example.com");
+		cache.modified(new Dn("uid=someone,ou=People,dc=example,dc=com"), List.of(modification));
+		assertFalse(cache.isMissingMail("new@example.com"));
+	}
+
+	@Test
+	public void filterHasNoFalseNegatives() throws Exception {
+		NegativeCache.Filter filter = new NegativeCache.Filter(PEOPLE, "ou=groups,dc=example,dc=com", 10000, 0.01);
+		int falsePositives = 0;
+
+		for(int c = 0; c < 10000; c++) {
+			filter.add(NegativeCache.hash("user" + c));
+		}
+
+		for(int c = 0; c < 10000; c++) {
+			assertTrue(filter.mightContain("user" + c));
+
+			if(filter.mightContain("other" + c)) {
+				falsePositives++;
+			}
+		}
+
+		assertTrue("False positives: " + falsePositives, falsePositives < 300);
+		assertTrue(filter.covers(new Dn("uid=anyone,ou=People,dc=example,dc=com")));
+		assertFalse(filter.covers(new Dn(PEOPLE)));
+		assertFalse(filter.covers(new Dn("uid=anyone,ou=system")));
+	}
+
+	@Test
+	public void capsHashesOfSmallFilters() throws Exception {
+		for(int expected : new int[] { 0, 1, 10 }) {
+			NegativeCache.Filter filter = new NegativeCache.Filter(PEOPLE, "ou=groups,dc=example,dc=com", expected, 0.01);
+			assertTrue("Hashes: " + filter.getHashes(), filter.getHashes() <= 16);
+
+			for(int c = 0; c < 10; c++) {
+				filter.add(NegativeCache.hash("user" + c));
+			}
+
+			for(int c = 0; c < 10; c++) {
+				assertTrue(filter.mightContain("user" + c));
+			}
+
+			assertFalse(filter.mightContain("other"));
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package com.laetienda.myldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class NestedGroupResolverTest {
+
+	private static final LdapManager manager = new LdapManager();
+	private LdapConnection conn;
+
+	@BeforeClass
+	public static void start() throws Exception {
+		LdapManager.startEmbedded(new EmbeddedDirectory(new Dn("dc=example,dc=com")));
+	}
+
+	@AfterClass
+	public static void stop() {
+		LdapManager.stopEmbedded();
+	}
+
+	@Before
+	public void open() throws Exception {
+		conn = manager.getEmbeddedConnection();
+	}
+
+	@After
+	public void close() {
+		manager.closeLdapConnection(conn);
+	}
+
+	private Dn user(String uid) throws Exception {
+		Dn dn = LdapManager.getDnFactory().user(uid);
+		if(!conn.exists(dn)) {
+			conn.add(new DefaultEntry(dn, "objectClass: inetOrgPerson", "uid: " + uid, "cn: Nested", "sn: User"));
+		}
+		return dn;
+	}
+
+	private Dn group(String cn, Dn... members) throws Exception {
+		Dn dn = LdapManager.getDnFactory().group(cn);
+		Entry entry = new DefaultEntry(dn, "objectClass: groupOfUniqueNames", "cn: " + cn);
+		for(Dn member : members) {
+			entry.add("uniqueMember", member.getName());
+		}
+		conn.add(entry);
+		return dn;
+	}
+
+	private void addMember(Dn group, Dn member) throws Exception {
+		conn.modify(group, new DefaultModification(ModificationOperation.ADD_ATTRIBUTE, "uniqueMember", member.getName()));
+	}
+
+	private static List<String> keys(Dn... dns) {
+		return keys(Arrays.asList(dns));
+	}
+
+	private static List<String> keys(List<Dn> dns) {
+		List<String> result = new ArrayList<String>();
+		for(Dn dn : dns) {
+			result.add(Ldap.normalize(dn));
+		}
+		return result;
+	}
+
+	@Test
+	public void cutsCyclesWithoutListingTheRoot() throws Exception {
+		Dn first = group("cycle first", user("cycle1"));
+		Dn second = group("cycle second", user("cycle2"), first);
+		addMember(first, second);
+		NestedGroupResolver resolver = new NestedGroupResolver();
+
+		GroupExpansion expansion = resolver.expand(first, conn);
+		assertEquals(2, expansion.getUserDns().size());
+		assertEquals(keys(second), keys(expansion.getGroupDns()));
+		assertEquals(keys(first), keys(expansion.getCycles()));
+
+		// second is expanded from the memo of first, which reaches second again
+		expansion = resolver.expand(second, conn);
+		assertEquals(2, expansion.getUserDns().size());
+		assertEquals(keys(first), keys(expansion.getGroupDns()));
+		assertTrue(keys(expansion.getCycles()).containsAll(keys(second)));
+	}
+
+	@Test
+	public void reusesExpansionsUntilTheyExpire() throws Exception {
+		Dn inner = group("memo inner", user("memo1"));
+		Dn outer = group("memo outer", inner);
+		NestedGroupResolver cached = new NestedGroupResolver(100, 60000);
+		NestedGroupResolver uncached = new NestedGroupResolver(100, 0);
+
+		assertEquals(1, cached.expand(outer, conn).getUserDns().size());
+		assertEquals(1, uncached.expand(outer, conn).getUserDns().size());
+		addMember(inner, user("memo2"));
+
+		assertEquals(1, cached.expand(outer, conn).getUserDns().size());
+		assertEquals(2, uncached.expand(outer, conn).getUserDns().size());
+
+		cached.clear();
+		assertEquals(2, cached.expand(outer, conn).getUserDns().size());
+	}
+
+	@Test
+	public void stopsAtMaxDepth() throws Exception {
+		Dn level3 = group("depth 3", user("depth3"));
+		Dn level2 = group("depth 2", level3);
+		Dn level1 = group("depth 1", level2);
+		Dn level0 = group("depth 0", level1);
+
+		GroupExpansion expansion = new NestedGroupResolver().expand(level0, conn);
+		assertEquals(3, expansion.getDepth());
+		assertFalse(expansion.isTruncated());
+		assertEquals(1, expansion.getUserDns().size());
+
+		NestedGroupResolver resolver = new NestedGroupResolver().setMaxDepth(2);
+		expansion = resolver.expand(level1, conn);
+		assertEquals(2, expansion.getDepth());
+		assertFalse(expansion.isTruncated());
+
+		// The memo of level1 is two levels deep, below level0 it would go past max depth
+		expansion = resolver.expand(level0, conn);
+		assertEquals(2, expansion.getDepth());
+		assertTrue(expansion.isTruncated());
+		assertTrue(expansion.getUserDns().isEmpty());
+
+		expansion = new NestedGroupResolver().expand(level2, conn);
+		assertEquals(1, expansion.getDepth());
+		assertEquals(1, expansion.getUserDns().size());
+	}
+}
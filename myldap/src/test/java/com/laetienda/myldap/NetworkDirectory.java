@@ -0,0 +1,68 @@
+package com.laetienda.myldap;
+
+import java.net.ServerSocket;
+
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.protocol.shared.transport.TcpTransport;
+
+/**
+ * Embedded directory behind a plain ldap listener, for tests of what needs pooled or asynchronous connections.
+ */
+class NetworkDirectory {
+
+	static final String ADMIN = "uid=admin,ou=system";
+	static final String PASSWORD = "secret";
+
+	private final LdapManager manager = new LdapManager();
+	private LdapServer server;
+	private int port;
+
+	NetworkDirectory start() throws Exception {
+		LdapManager.startEmbedded(new EmbeddedDirectory(new Dn("dc=example,dc=com")));
+
+		try(ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+
+		server = new LdapServer();
+		server.setDirectoryService(LdapManager.getEmbeddedDirectory().getDirectoryService());
+		server.setTransports(new TcpTransport(port));
+		server.start();
+
+		LdapManager.setPoolConfig(new LdapPoolConfig().setUseSsl(false));
+		return this;
+	}
+
+	/**
+	 * Stops the listener before the pools, their connections close without waiting for the server.
+	 */
+	void stop() {
+		if(server != null) {
+			server.stop();
+		}
+
+		LdapManager.closePools();
+		LdapManager.setPoolConfig(new LdapPoolConfig());
+	}
+
+	LdapManager getManager() {
+		return manager;
+	}
+
+	int getPort() {
+		return port;
+	}
+
+	Dn getDomain() {
+		return LdapManager.getEmbeddedDirectory().getDomainDn();
+	}
+
+	/**
+	 * @return pool bound as the administrator
+	 */
+	LdapPool pool() throws LdapInvalidDnException {
+		return manager.getLdapPool("localhost", port, getDomain(), new Dn(ADMIN), PASSWORD);
+	}
+}
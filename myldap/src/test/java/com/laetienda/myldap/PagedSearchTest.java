@@ -0,0 +1,90 @@
+package com.laetienda.myldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.exception.LdapSizeLimitExceededException;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PagedSearchTest {
+
+	private static final int USERS = 7;
+
+	private static NetworkDirectory directory;
+
+	@BeforeClass
+	public static void start() throws Exception {
+		directory = new NetworkDirectory().start();
+		LdapConnection conn = directory.getManager().getEmbeddedConnection();
+		Ldap ldap = new Ldap();
+
+		try {
+			for(int c = 0; c < USERS; c++) {
+				ldap.insertLdapEntity(new User("paged" + c, "Paged", "User", "paged" + c + "@example.com", conn), conn);
+			}
+		} finally {
+			directory.getManager().closeLdapConnection(conn);
+		}
+	}
+
+	@AfterClass
+	public static void stop() {
+		directory.stop();
+	}
+
+	@Test
+	public void readsEveryPage() throws Exception {
+		assertEquals(USERS, count(request(LdapManager.getDirectoryBase().getPeopleDn()), 2));
+	}
+
+	@Test
+	public void failsOnMissingBase() throws Exception {
+		try {
+			count(request(new Dn("ou=nowhere", directory.getDomain().getName())), 2);
+			fail("A search on a missing base must fail");
+		} catch (LdapRuntimeException e) {
+			assertTrue(e.getCause().getClass().getName(), e.getCause() instanceof LdapNoSuchObjectException);
+		}
+	}
+
+	@Test
+	public void failsWhenSizeLimited() throws Exception {
+		SearchRequest request = request(LdapManager.getDirectoryBase().getPeopleDn());
+		request.setSizeLimit(3);
+
+		try {
+			count(request, 10);
+			fail("A size limited search must fail");
+		} catch (LdapRuntimeException e) {
+			assertTrue(e.getCause().getClass().getName(), e.getCause() instanceof LdapSizeLimitExceededException);
+		}
+	}
+
+	private static SearchRequest request(Dn base) throws Exception {
+		return new Ldap().searchRequest(base, "(uid=paged*)", SearchScope.ONELEVEL, "uid");
+	}
+
+	private static int count(SearchRequest request, int pageSize) throws Exception {
+		LdapConnection conn = directory.getManager().getLdapConnection(directory.pool());
+		int result = 0;
+
+		try(PagedSearch search = new PagedSearch(conn, request, pageSize)) {
+			while(search.hasNext()) {
+				search.next();
+				result++;
+			}
+		} finally {
+			directory.getManager().closeLdapConnection(conn);
+		}
+
+		return result;
+	}
+}
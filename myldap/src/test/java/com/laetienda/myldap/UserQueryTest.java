@@ -0,0 +1,28 @@
+package com.laetienda.myldap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class UserQueryTest {
+
+	@Test
+	public void buildsEscapedFilter() {
+		UserQuery query = new UserQuery().setUidPrefix("jo*").setSnPrefix("O'Neil (Jr)").setMail("jo@example.com");
+
+		assertEquals("(&(objectClass=inetOrgPerson)(uid=jo\\2A*)(sn=O'Neil \\28Jr\\29*)(mail=jo@example.com))", query.filter());
+		assertEquals("(&(objectClass=inetOrgPerson))", new UserQuery().setCnPrefix("").filter());
+	}
+
+	@Test
+	public void alwaysRequestsUidAndSortAttribute() {
+		assertArrayEquals(new String[] { "mail", "uid", "sn" }, new UserQuery().setSortBy("sn").setAttributes("mail").getAttributes());
+		assertArrayEquals(UserView.ATTRIBUTES, new UserQuery().getAttributes());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsOptionalSortAttributes() {
+		new UserQuery().setSortBy("mail");
+	}
+}
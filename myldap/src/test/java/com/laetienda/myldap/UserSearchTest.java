@@ -0,0 +1,203 @@
+package com.laetienda.myldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class UserSearchTest {
+
+	private static final int USERS = 11;
+	private static final List<String> MEMBERS = List.of("page01", "page02", "page04", "page07", "page10");
+
+	private static NetworkDirectory directory;
+
+	@BeforeClass
+	public static void start() throws Exception {
+		directory = new NetworkDirectory().start();
+		LdapConnection conn = directory.getManager().getEmbeddedConnection();
+		Ldap ldap = new Ldap();
+
+		try {
+			for(int c = 0; c < USERS; c++) {
+				String uid = String.format("page%02d", c);
+				String lastname = c % 2 == 0 ? "Tie" : "Last" + (char) ('a' + c);
+				ldap.insertLdapEntity(new User(uid, "Page", lastname, uid + "@example.com", conn), conn);
+			}
+
+			Group group = new Group().setName("Paged", conn).setOwner("page00", conn);
+			for(String uid : MEMBERS) {
+				group.addMember(uid, conn);
+			}
+			ldap.insertLdapEntity(group, conn);
+		} finally {
+			directory.getManager().closeLdapConnection(conn);
+		}
+	}
+
+	@AfterClass
+	public static void stop() {
+		directory.stop();
+	}
+
+	@Test
+	public void pagesAcrossTiesAndPageBoundaries() throws Exception {
+		for(boolean reverse : new boolean[] { false, true }) {
+			List<String> paged = pages(new UserQuery().setUidPrefix("page").setSortBy("sn").setReverse(reverse).setPageSize(4));
+			List<String> streamed = stream(new UserQuery().setUidPrefix("page").setSortBy("sn").setReverse(reverse));
+
+			assertEquals(USERS, new LinkedHashSet<String>(paged).size());
+			assertEquals(streamed, paged);
+		}
+
+		List<String> ties = pages(new UserQuery().setUidPrefix("page").setSnPrefix("Tie").setSortBy("sn").setPageSize(2));
+		assertEquals((USERS + 1) / 2, new LinkedHashSet<String>(ties).size());
+		assertEquals(ties.size(), new LinkedHashSet<String>(ties).size());
+	}
+
+	@Test
+	public void sortsOnTheSortAttribute() throws Exception {
+		List<String> values = new ArrayList<String>();
+		LdapConnection conn = directory.getManager().getLdapConnection(directory.pool());
+
+		try(Stream<Entry> users = new Ldap().streamUsers(new UserQuery().setUidPrefix("page").setSortBy("sn").setPageSize(3), conn)) {
+			users.forEach(entry -> values.add(entry.get("sn").get().getString().toLowerCase(Locale.ROOT)));
+		} finally {
+			directory.getManager().closeLdapConnection(conn);
+		}
+
+		assertEquals(values.stream().sorted().collect(Collectors.toList()), values);
+	}
+
+	@Test
+	public void keepsTheCookieSmall() throws Exception {
+		UserQuery query = new UserQuery().setUidPrefix("page").setSortBy("sn").setPageSize(1);
+		Set<Integer> lengths = new LinkedHashSet<Integer>();
+		LdapConnection conn = directory.getManager().getLdapConnection(directory.pool());
+
+		try {
+			for(UserPage page = new Ldap().findUsers(query, conn); page.hasMore(); page = new Ldap().findUsers(query, conn)) {
+				lengths.add(page.getCookie().length());
+				query.setCookie(page.getCookie());
+			}
+		} finally {
+			directory.getManager().closeLdapConnection(conn);
+		}
+
+		// Version, fingerprint, the last sn (at most "Lastj") and uid, whatever the page
+		assertTrue(lengths.toString(), lengths.stream().allMatch(length -> length <= 32));
+	}
+
+	@Test
+	public void startsAfterTheLastUserWhenUsersChange() throws Exception {
+		UserQuery query = new UserQuery().setUidPrefix("page").setPageSize(3);
+		LdapConnection conn = directory.getManager().getLdapConnection(directory.pool());
+		Ldap ldap = new Ldap();
+
+		try {
+			UserPage page = ldap.findUsers(query, conn);
+			assertEquals(List.of("page00", "page01", "page02"), uids(page));
+
+			User added = new User("page005", "Page", "Added", "page005@example.com", conn);
+			ldap.insertLdapEntity(added, conn);
+
+			try {
+				assertEquals(List.of("page03", "page04", "page05"), uids(ldap.findUsers(query.setCookie(page.getCookie()), conn)));
+			} finally {
+				ldap.ldapEntity(added, conn);
+			}
+		} finally {
+			directory.getManager().closeLdapConnection(conn);
+		}
+	}
+
+	@Test
+	public void searchesOnlyGroupMembers() throws Exception {
+		for(boolean reverse : new boolean[] { false, true }) {
+			UserQuery query = new UserQuery().setUidPrefix("page").setGroup(LdapManager.getDnFactory().group("Paged"))
+					.setSortBy("sn").setReverse(reverse).setPageSize(2);
+			List<String> paged = pages(query);
+
+			assertEquals(stream(query.setCookie(null)), paged);
+			assertEquals(MEMBERS, paged.stream().sorted().collect(Collectors.toList()));
+		}
+	}
+
+	@Test(expected = LdapUnwillingToPerformException.class)
+	public void rejectsCookiesOfOtherQueries() throws Exception {
+		LdapConnection conn = directory.getManager().getLdapConnection(directory.pool());
+
+		try {
+			UserPage page = new Ldap().findUsers(new UserQuery().setUidPrefix("page").setSortBy("sn").setPageSize(2), conn);
+			assertTrue(page.hasMore());
+			new Ldap().findUsers(new UserQuery().setUidPrefix("page").setSortBy("cn").setPageSize(2).setCookie(page.getCookie()), conn);
+		} finally {
+			directory.getManager().closeLdapConnection(conn);
+		}
+	}
+
+	/**
+	 * Reads every page of query, each one from a new connection.
+	 */
+	private static List<String> pages(UserQuery query) throws Exception {
+		List<String> result = new ArrayList<String>();
+		UserPage page;
+
+		do {
+			LdapConnection conn = directory.getManager().getLdapConnection(directory.pool());
+
+			try {
+				page = new Ldap().findUsers(query, conn);
+			} finally {
+				directory.getManager().closeLdapConnection(conn);
+			}
+
+			assertFalse(page.getEntries().isEmpty());
+			assertTrue(page.getEntries().size() <= query.getPageSize());
+
+			for(Entry entry : page.getEntries()) {
+				result.add(entry.get("uid").getString());
+			}
+
+			query.setCookie(page.getCookie());
+		} while(page.hasMore());
+
+		assertNull(query.getCookie());
+		return result;
+	}
+
+	private static List<String> uids(UserPage page) throws Exception {
+		List<String> result = new ArrayList<String>();
+
+		for(Entry entry : page.getEntries()) {
+			result.add(entry.get("uid").getString());
+		}
+
+		return result;
+	}
+
+	private static List<String> stream(UserQuery query) throws Exception {
+		LdapConnection conn = directory.getManager().getLdapConnection(directory.pool());
+
+		try(Stream<Entry> users = new Ldap().streamUsers(query, conn)) {
+			return users.map(entry -> entry.get("uid").get().getString()).collect(Collectors.toList());
+		} finally {
+			directory.getManager().closeLdapConnection(conn);
+		}
+	}
+}
@@ -95,6 +95,7 @@ public class UserTest {
 			log.error("Test failed", e);
 		} finally {
 			manager.closeLdapConnection(conn);
+			LdapManager.closePools();
 		}
 		
 		log.info("Java has closed;");
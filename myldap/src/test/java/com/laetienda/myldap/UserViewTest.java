@@ -0,0 +1,37 @@
+package com.laetienda.myldap;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.junit.Test;
+
+public class UserViewTest {
+
+	@Test
+	public void readsListingAttributes() throws Exception {
+		UserView view = new UserView(new DefaultEntry("uid=tomcat,ou=People,dc=example,dc=com",
+				"uid: tomcat", "cn: Tom", "sn: Cat", "mail: tomcat@example.com"));
+
+		assertEquals("tomcat", view.getUid());
+		assertEquals("Tom Cat", view.getName());
+		assertEquals("tomcat@example.com", view.getMail());
+	}
+
+	@Test
+	public void missingAttributesAreEmpty() throws Exception {
+		UserView view = new UserView(new DefaultEntry("uid=tomcat,ou=People,dc=example,dc=com", "uid: tomcat", "cn: Tom", "sn: Snless"));
+
+		assertEquals("", view.getSn());
+		assertEquals("", view.getMail());
+		assertEquals("Tom", view.getName());
+	}
+
+	@Test
+	public void equalByDn() throws Exception {
+		UserView view = new UserView(new DefaultEntry("uid=tomcat,ou=People,dc=example,dc=com", "uid: tomcat"));
+		UserView other = new UserView(new DefaultEntry("UID=Tomcat, ou=people, dc=example, dc=com", "uid: tomcat", "cn: Tom"));
+
+		assertEquals(view, other);
+		assertEquals(view.hashCode(), other.hashCode());
+	}
+}